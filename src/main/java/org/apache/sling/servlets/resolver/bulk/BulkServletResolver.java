@@ -0,0 +1,52 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.servlets.resolver.bulk;
+
+import java.util.List;
+
+import javax.servlet.Servlet;
+
+import org.osgi.annotation.versioning.ProviderType;
+
+/**
+ * The <code>BulkServletResolver</code> resolves the servlets for many
+ * resources in one pass, for example to prefetch the servlets of all
+ * components of a page before it is rendered. Requests which share
+ * a cache entry of the servlet resolver are only resolved once.
+ */
+@ProviderType
+public interface BulkServletResolver {
+
+    /**
+     * Resolve the servlets for the given requests. The servlet for a request
+     * is the servlet the servlet resolver selects for a request with the same
+     * resource, selectors, extension and method.
+     * <p>
+     * A servlet can't be resolved without the actual request if an
+     * {@link org.apache.sling.api.servlets.OptingServlet} has to decide
+     * whether it handles the request. For such requests, and for requests
+     * without a resource type or a matching servlet, <code>null</code> is
+     * returned and the servlet has to be resolved with the request.
+     *
+     * @param requests The requests
+     * @return The servlets in the order of the requests, an entry is
+     *         <code>null</code> if the servlet could not be resolved
+     */
+    List<Servlet> resolveServlets(List<ServletResolutionRequest> requests);
+}
@@ -0,0 +1,89 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.servlets.resolver.bulk;
+
+import org.apache.sling.api.resource.Resource;
+
+/**
+ * The properties of a request which are used by the servlet resolver
+ * to select the servlet, see {@link BulkServletResolver}.
+ */
+public final class ServletResolutionRequest {
+
+    private final Resource resource;
+
+    private final String[] selectors;
+
+    private final String extension;
+
+    private final String method;
+
+    /**
+     * Create a new request.
+     *
+     * @param resource The resource
+     * @param selectors The selectors, might be <code>null</code> for no selectors
+     * @param extension The extension, might be <code>null</code>
+     * @param method The request method
+     * @throws IllegalArgumentException If the resource or the method is <code>null</code>
+     */
+    public ServletResolutionRequest(final Resource resource,
+            final String[] selectors,
+            final String extension,
+            final String method) {
+        if ( resource == null ) {
+            throw new IllegalArgumentException("Resource must not be null");
+        }
+        if ( method == null ) {
+            throw new IllegalArgumentException("Method must not be null");
+        }
+        this.resource = resource;
+        this.selectors = selectors == null ? new String[0] : selectors.clone();
+        this.extension = extension;
+        this.method = method;
+    }
+
+    /**
+     * @return The resource
+     */
+    public Resource getResource() {
+        return resource;
+    }
+
+    /**
+     * @return The selectors, an empty array if there are no selectors
+     */
+    public String[] getSelectors() {
+        return selectors.clone();
+    }
+
+    /**
+     * @return The extension or <code>null</code>
+     */
+    public String getExtension() {
+        return extension;
+    }
+
+    /**
+     * @return The request method
+     */
+    public String getMethod() {
+        return method;
+    }
+}
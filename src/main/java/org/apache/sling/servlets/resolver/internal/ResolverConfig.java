@@ -58,4 +58,94 @@ public @interface ResolverConfig {
     @AttributeDefinition(name = "Default Extensions", description = "The list of extensions for which the default behavior "
             + "will be used. This means that the last path segment of the resource type can be used as the script name.")
     String[] servletresolver_defaultExtensions() default "html";
+
+    @AttributeDefinition(name = "Invalidation Delay", description = "The time in milliseconds to wait for further "
+            + "invalidation events before the cache is invalidated. All events arriving within this window are coalesced "
+            + "into a single invalidation which is executed by a background thread. A value of 0 invalidates the cache "
+            + "immediately for every event.")
+    long servletresolver_invalidationDelay() default 0;
+
+    @AttributeDefinition(name = "Maximum Invalidation Delay", description = "The maximum time in milliseconds an "
+            + "invalidation is postponed while further invalidation events keep arriving. Only used if an invalidation "
+            + "delay is configured.")
+    long servletresolver_invalidationMaxDelay() default 1000;
+
+    @AttributeDefinition(name = "Servlet Initialization Threads", description = "The number of threads used to "
+            + "initialize servlets in parallel. A servlet is mounted into the resource tree once its initialization "
+            + "has finished, the servlets are mounted in the order they have been registered. A value of 0 initializes "
+            + "every servlet synchronously when it is registered.")
+    int servletresolver_initThreads() default 0;
+
+    @AttributeDefinition(name = "Mount Providers", description = "Whether each servlet is mounted into the resource "
+            + "tree with one resource provider per servlet path. If disabled, the servlets are kept in a single registry "
+            + "which matches the resource types, selectors, extensions and methods of a servlet without building every "
+            + "combination of them. Only the paths of servlets registered by path and the resource super types of "
+            + "servlets are mounted then, the servlets registered by resource type are only visible to the servlet "
+            + "resolver, not to other resource resolvers.")
+    boolean servletresolver_mountProviders() default true;
+
+    @AttributeDefinition(name = "Warm Start Rate", description = "The number of cache entries per second which are "
+            + "resolved in the background after a restart. The keys of the cache are recorded, ordered by their number "
+            + "of cache hits, when the servlet resolver is stopped and resolved again after it has been started. A value "
+            + "of 0 disables the warm start.")
+    int servletresolver_warmupRate() default 0;
+
+    @AttributeDefinition(name = "Re-Warm Size", description = "The number of the most used cache entries which are "
+            + "resolved again in the background after the cache has been flushed. The entries are ranked by their cache "
+            + "hits within the last one to two minutes. A value of 0 disables the re-warm.")
+    int servletresolver_rewarmSize() default 0;
+
+    @AttributeDefinition(name = "Re-Warm Rate", description = "The number of cache entries per second which are "
+            + "resolved again after the cache has been flushed, see Re-Warm Size.")
+    int servletresolver_rewarmRate() default 50;
+
+    @AttributeDefinition(name = "Location Probe Threads", description = "The number of threads used to read the script "
+            + "folders of the locations of a resource type hierarchy concurrently, each with its own resource resolver "
+            + "which is kept for the following reads. "
+            + "This reduces the time to resolve a request for the first time if scripts are provided by resource "
+            + "providers with a high latency. A value of 0 reads the locations one after the other.")
+    int servletresolver_probeThreads() default 0;
+
+    @AttributeDefinition(name = "Resolution Tracing", description = "Whether the time spent in the phases of the "
+            + "servlet resolution for a request and the number of resource accesses are recorded. The trace is logged to "
+            + "the request progress tracker and passed to the registered resolution trace sinks.")
+    boolean servletresolver_traceResolution() default false;
+
+    @AttributeDefinition(name = "Slow Resolution Threshold", description = "The minimum time in milliseconds a "
+            + "resolution which is not served from the cache has to take to be logged as a slow resolution. The most "
+            + "recent slow resolutions are listed by the web console and the cache MBean. A value of 0 disables the log.")
+    long servletresolver_slowResolutionThreshold() default 0;
+
+    @AttributeDefinition(name = "Slow Resolution Log Size", description = "The number of slow resolutions kept.")
+    int servletresolver_slowResolutionLogSize() default 50;
+
+    @AttributeDefinition(name = "Heavy Hitters", description = "The number of keys tracked to report the most "
+            + "frequently used cache keys and the most frequent cache misses in the web console. The counts are "
+            + "approximated, keys used more often than the total number of lookups divided by this number are always "
+            + "reported. A value of 0 disables the tracking.")
+    int servletresolver_heavyHitters() default 0;
+
+    @AttributeDefinition(name = "Miss Sampling", description = "Only one of this number of cache misses, chosen at "
+            + "random, is counted for the most frequent cache misses, weighted by this number. This limits the "
+            + "overhead of the tracking for resolutions which are never cached, like those of OptingServlets. A value "
+            + "of 1 counts every miss.")
+    int servletresolver_missSampling() default 16;
+
+    @AttributeDefinition(name = "Audit Threads", description = "The number of threads used by the resolution audit "
+            + "of the web console and the audit MBean to resolve the resources of a subtree in parallel.")
+    int servletresolver_auditThreads() default 4;
+
+    @AttributeDefinition(name = "Latency Histograms", description = "Whether the latency of the servlet resolution is "
+            + "recorded per resource type, separately for resolutions served from the cache and resolutions which are "
+            + "not. The latency of a cache hit covers the cache lookup only. The latencies are published by the "
+            + "resolution metrics service and the resolution metrics MBean.")
+    boolean servletresolver_latencyHistograms() default false;
+
+    @AttributeDefinition(name = "Verification Rate", description = "The fraction of cache hits, between 0 and 1, "
+            + "whose servlet is resolved again without the cache in the background and compared with the cached "
+            + "servlet. Mismatches are logged, counted by the cache MBean and their cache entries are invalidated. "
+            + "Changes whose resource change events have not been delivered at the time of the verification are "
+            + "counted as mismatches as well. "
+            + "A value of 0 disables the verification.")
+    double servletresolver_verificationRate() default 0;
 }
@@ -0,0 +1,136 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.servlets.resolver.internal;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceUtil;
+import org.apache.sling.api.resource.SyntheticResource;
+import org.apache.sling.api.wrappers.ResourceResolverWrapper;
+import org.apache.sling.servlets.resolver.internal.resource.MergingServletResourceProvider;
+
+/**
+ * The <code>ScriptResourceResolver</code> adds the servlet resources
+ * of the {@link MergingServletResourceProvider} to the resources of the
+ * wrapped script resource resolver. It is used if servlets are not
+ * mounted into the resource tree.
+ */
+public class ScriptResourceResolver extends ResourceResolverWrapper {
+
+    private final ResourceResolver resolver;
+
+    private final Supplier<MergingServletResourceProvider> providerSupplier;
+
+    /**
+     * Create a new script resource resolver
+     * @param resolver The resource resolver to wrap
+     * @param providerSupplier The supplier for the current merging provider, which might be {@code null}
+     */
+    public ScriptResourceResolver(final ResourceResolver resolver, final Supplier<MergingServletResourceProvider> providerSupplier) {
+        super(resolver);
+        this.resolver = resolver;
+        this.providerSupplier = providerSupplier;
+    }
+
+    @Override
+    public Resource getResource(final String path) {
+        final MergingServletResourceProvider provider = this.providerSupplier.get();
+        if ( provider == null || !path.startsWith("/") ) {
+            return super.getResource(path);
+        }
+        final Resource servletResource = provider.getResource(this, path);
+        if ( servletResource != null ) {
+            return servletResource;
+        }
+        final Resource resource = super.getResource(path);
+        if ( resource == null && provider.hasChildren(path) ) {
+            return new SyntheticResource(this, path, MergingServletResourceProvider.SYNTHETIC_RESOURCE_TYPE);
+        }
+        return resource;
+    }
+
+    @Override
+    public Resource getResource(final Resource base, final String path) {
+        if ( path.startsWith("/") ) {
+            return getResource(path);
+        }
+        final String absolutePath = base == null ? null : ResourceUtil.normalize(base.getPath() + "/" + path);
+        if ( absolutePath == null ) {
+            return super.getResource(base, path);
+        }
+        return getResource(absolutePath);
+    }
+
+    @Override
+    public Iterator<Resource> listChildren(final Resource parent) {
+        final MergingServletResourceProvider provider = this.providerSupplier.get();
+        if ( provider == null ) {
+            return super.listChildren(parent);
+        }
+        final List<Resource> servletResources = provider.listChildren(this, parent.getPath());
+        if ( servletResources.isEmpty() ) {
+            return super.listChildren(parent);
+        }
+        // servlet resources hide resources with the same name, as mounted providers do
+        final Set<String> names = new HashSet<>();
+        for(final Resource child : servletResources) {
+            names.add(child.getName());
+        }
+        final List<Resource> children = new ArrayList<>();
+        final Iterator<Resource> iter = super.listChildren(parent);
+        while ( iter.hasNext() ) {
+            final Resource child = iter.next();
+            if ( !names.contains(child.getName()) ) {
+                children.add(child);
+            }
+        }
+        children.addAll(servletResources);
+        return children.iterator();
+    }
+
+    @Override
+    public Iterable<Resource> getChildren(final Resource parent) {
+        return new Iterable<Resource>() {
+
+            @Override
+            public Iterator<Resource> iterator() {
+                return listChildren(parent);
+            }
+        };
+    }
+
+    @Override
+    public boolean hasChildren(final Resource resource) {
+        return listChildren(resource).hasNext();
+    }
+
+    @Override
+    public ResourceResolver clone(final Map<String, Object> authenticationInfo) throws LoginException {
+        return new ScriptResourceResolver(this.resolver.clone(authenticationInfo), this.providerSupplier);
+    }
+}
@@ -25,8 +25,25 @@ import static org.apache.sling.api.SlingConstants.SLING_CURRENT_SERVLET_NAME;
 import static org.apache.sling.api.servlets.ServletResolverConstants.DEFAULT_ERROR_HANDLER_RESOURCE_TYPE;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 import javax.servlet.Servlet;
 import javax.servlet.ServletContext;
@@ -52,19 +69,30 @@ import org.apache.sling.api.servlets.ServletResolver;
 import org.apache.sling.api.servlets.ServletResolverConstants;
 import org.apache.sling.engine.servlets.ErrorHandler;
 import org.apache.sling.serviceusermapping.ServiceUserMapped;
+import org.apache.sling.servlets.resolver.bulk.BulkServletResolver;
+import org.apache.sling.servlets.resolver.bulk.ServletResolutionRequest;
 import org.apache.sling.servlets.resolver.internal.defaults.DefaultErrorHandlerServlet;
 import org.apache.sling.servlets.resolver.internal.defaults.DefaultServlet;
 import org.apache.sling.servlets.resolver.internal.helper.AbstractResourceCollector;
 import org.apache.sling.servlets.resolver.internal.helper.NamedScriptResourceCollector;
+import org.apache.sling.servlets.resolver.internal.helper.ResolutionTrace;
 import org.apache.sling.servlets.resolver.internal.helper.ResourceCollector;
+import org.apache.sling.servlets.resolver.internal.jfr.ResolverEvents;
+import org.apache.sling.servlets.resolver.internal.metrics.ResourceTypeLatencies;
 import org.apache.sling.servlets.resolver.internal.resolution.ResolutionCache;
+import org.apache.sling.servlets.resolver.internal.resource.MergingServletResourceProvider;
 import org.apache.sling.servlets.resolver.internal.resource.SlingServletConfig;
+import org.apache.sling.servlets.resolver.metrics.LatencyHistogram;
+import org.apache.sling.servlets.resolver.metrics.ResolutionMetrics;
+import org.apache.sling.servlets.resolver.trace.ResolutionTraceSink;
 import org.osgi.framework.Constants;
 import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
 import org.osgi.service.component.annotations.Deactivate;
 import org.osgi.service.component.annotations.Modified;
 import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.component.annotations.ReferencePolicy;
 import org.osgi.service.metatype.annotations.Designate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -77,7 +105,8 @@ import org.slf4j.LoggerFactory;
  *
  */
 @Component(name = ResolverConfig.PID,
-           service = { ServletResolver.class, ErrorHandler.class, SlingRequestListener.class },
+           service = { ServletResolver.class, ErrorHandler.class, SlingRequestListener.class, BulkServletResolver.class,
+                   ResolutionMetrics.class },
            property = {
                    Constants.SERVICE_DESCRIPTION + "=Apache Sling Servlet Resolver and Error Handler",
                    Constants.SERVICE_VENDOR + "=The Apache Software Foundation"
@@ -86,10 +115,19 @@ import org.slf4j.LoggerFactory;
 public class SlingServletResolver
     implements ServletResolver,
                SlingRequestListener,
-               ErrorHandler {
+               ErrorHandler,
+               BulkServletResolver,
+               ResolutionMetrics {
 
     private static final String SERVICE_USER = "scripts";
 
+    /**
+     * The name of the request progress timer of the servlet resolution. It is
+     * constant as a disabled tracker must not cost a string per request, the
+     * resource path is part of the timer message instead.
+     */
+    private static final String RESOLVE_SERVLET_TIMER = "resolveServlet";
+
     /** Servlet resolver logger */
     public static final Logger LOGGER = LoggerFactory.getLogger(SlingServletResolver.class);
 
@@ -106,6 +144,9 @@ public class SlingServletResolver
     @Reference(target="(name=org.apache.sling)")
     private ServletContext servletContext;
 
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL, policy = ReferencePolicy.DYNAMIC)
+    private volatile MergingServletResourceProvider mergingServletResourceProvider;
+
     // the default servlet if no other servlet applies for a request. This
     // field is set on demand by getDefaultServlet()
     private volatile Servlet defaultServlet;
@@ -116,6 +157,18 @@ public class SlingServletResolver
 
     private volatile ResourceResolver sharedScriptResolver;
 
+    /** Executor resolving the recorded cache keys after a start, {@code null} if not warming up. */
+    private volatile ExecutorService warmupExecutor;
+
+    /** Flag stopping the warm start, set on deactivation. */
+    private volatile AtomicBoolean warmupStopped;
+
+    /** Lock for the pending re-warm. */
+    private final Object rewarmLock = new Object();
+
+    /** Flag stopping the pending re-warm after a cache flush, guarded by the re-warm lock. */
+    private AtomicBoolean rewarmStopped;
+
     /**
      * The allowed execution paths.
      */
@@ -126,6 +179,27 @@ public class SlingServletResolver
      */
     private volatile String[] defaultExtensions;
 
+    /** Whether the resolution of a request is traced. */
+    private volatile boolean traceResolution;
+
+    /** The latencies per resource type or {@code null} if they are not recorded. */
+    private volatile ResourceTypeLatencies latencies;
+
+    /** The maximum number of waiting verifications, further cache hits are not verified. */
+    private static final int VERIFICATION_QUEUE_SIZE = 100;
+
+    /** The fraction of cache hits which are verified. */
+    private volatile double verificationRate;
+
+    /** Executor verifying the sampled cache hits, {@code null} if not verifying. */
+    private volatile ExecutorService verificationExecutor;
+
+    /** Flag stopping the waiting verifications, set on deactivation. */
+    private volatile AtomicBoolean verificationStopped;
+
+    @Reference(cardinality = ReferenceCardinality.MULTIPLE, policy = ReferencePolicy.DYNAMIC)
+    private volatile List<ResolutionTraceSink> traceSinks = Collections.emptyList();
+
     // ---------- ServletResolver interface -----------------------------------
 
     /**
@@ -135,10 +209,11 @@ public class SlingServletResolver
     public Servlet resolveServlet(final SlingHttpServletRequest request) {
         final Resource resource = request.getResource();
 
-        // start tracking servlet resolution
+        // start tracking servlet resolution, the messages are only formatted
+        // by an enabled tracker
         final RequestProgressTracker tracker = request.getRequestProgressTracker();
-        final String timerName = "resolveServlet(" + resource.getPath() + ")";
-        tracker.startTimer(timerName);
+        tracker.startTimer(RESOLVE_SERVLET_TIMER);
+        final ResolutionTrace trace = this.traceResolution ? ResolutionTrace.start() : null;
 
         final String resourceType = resource.getResourceType();
         if (LOGGER.isDebugEnabled()) {
@@ -148,8 +223,14 @@ public class SlingServletResolver
         final ResourceResolver scriptResolver = this.getScriptResourceResolver();
         Servlet servlet = null;
 
-        if ( resourceType != null && resourceType.length() > 0 ) {
-            servlet = resolveServletInternal(request, null, resourceType, scriptResolver);
+        try {
+            if ( resourceType != null && resourceType.length() > 0 ) {
+                servlet = resolveServletInternal(request, null, resourceType, scriptResolver);
+            }
+        } finally {
+            if ( trace != null ) {
+                trace.stop();
+            }
         }
 
         // last resort, use the core bundle default servlet
@@ -162,9 +243,19 @@ public class SlingServletResolver
 
         // track servlet resolution termination
         if (servlet == null) {
-            tracker.logTimer(timerName, "Servlet resolution failed. See log for details");
+            tracker.logTimer(RESOLVE_SERVLET_TIMER, "Servlet resolution for {0} failed. See log for details", resource.getPath());
         } else {
-            tracker.logTimer(timerName, "Using servlet {0}", RequestUtil.getServletName(servlet));
+            tracker.logTimer(RESOLVE_SERVLET_TIMER, "Using servlet {0} for {1}", RequestUtil.getServletName(servlet), resource.getPath());
+        }
+        if ( trace != null ) {
+            tracker.log("Servlet resolution trace for {0}: {1}", resource.getPath(), trace);
+            for(final ResolutionTraceSink sink : this.traceSinks) {
+                try {
+                    sink.onResolution(resource, servlet, trace);
+                } catch (final RuntimeException e) {
+                    LOGGER.warn("Resolution trace sink {} failed", sink, e);
+                }
+            }
         }
 
         // log the servlet found
@@ -275,6 +366,8 @@ public class SlingServletResolver
         RequestProgressTracker tracker = request.getRequestProgressTracker();
         String timerName = "handleError:status=" + status;
         tracker.startTimer(timerName);
+        final boolean recordEvent = ResolverEvents.isErrorHandlerResolutionEnabled();
+        final long eventStart = recordEvent ? System.nanoTime() : 0L;
 
         final ResourceResolver scriptResolver = this.getScriptResourceResolver();
         try {
@@ -292,6 +385,10 @@ public class SlingServletResolver
                 servlet = getDefaultErrorServlet(request, resource, scriptResolver);
             }
 
+            if ( recordEvent ) {
+                ResolverEvents.errorHandlerResolution(String.valueOf(status), RequestUtil.getServletName(servlet), eventStart);
+            }
+
             // set the message properties
             request.setAttribute(ERROR_STATUS, new Integer(status));
             request.setAttribute(ERROR_MESSAGE, message);
@@ -329,6 +426,8 @@ public class SlingServletResolver
         RequestProgressTracker tracker = request.getRequestProgressTracker();
         String timerName = "handleError:throwable=" + throwable.getClass().getName();
         tracker.startTimer(timerName);
+        final boolean recordEvent = ResolverEvents.isErrorHandlerResolutionEnabled();
+        final long eventStart = recordEvent ? System.nanoTime() : 0L;
 
         final ResourceResolver scriptResolver = this.getScriptResourceResolver();
         try {
@@ -352,6 +451,10 @@ public class SlingServletResolver
                 servlet = getDefaultErrorServlet(request, resource, scriptResolver);
             }
 
+            if ( recordEvent ) {
+                ResolverEvents.errorHandlerResolution(throwable.getClass().getName(), RequestUtil.getServletName(servlet), eventStart);
+            }
+
             // set the message properties
             request.setAttribute(SlingConstants.ERROR_EXCEPTION, throwable);
             request.setAttribute(SlingConstants.ERROR_EXCEPTION_TYPE, throwable.getClass());
@@ -388,11 +491,18 @@ public class SlingServletResolver
     @Override
     public void onEvent(final SlingRequestEvent event) {
         if ( event.getType() == SlingRequestEvent.EventType.EVENT_INIT ) {
+            final boolean recordEvent = ResolverEvents.isScriptResolverCloneEnabled();
+            final long eventStart = recordEvent ? System.nanoTime() : 0L;
+            boolean cloned = false;
             try {
                 this.perThreadScriptResolver.set(this.sharedScriptResolver.clone(null));
+                cloned = true;
             } catch (final LoginException e) {
                 LOGGER.error("Unable to create new script resolver clone", e);
             }
+            if ( recordEvent ) {
+                ResolverEvents.scriptResolverClone("request", cloned, eventStart);
+            }
         } else if ( event.getType() == SlingRequestEvent.EventType.EVENT_DESTROY ) {
             final ResourceResolver resolver = this.perThreadScriptResolver.get();
             if ( resolver != null ) {
@@ -428,10 +538,33 @@ public class SlingServletResolver
             final Resource resource,
             final String scriptNameOrResourceType,
             final ResourceResolver resolver) {
-        Servlet servlet = null;
-
         // first check whether the type of a resource is the absolute
         // path of a servlet (or script)
+        Servlet servlet = getAbsoluteServlet(request, scriptNameOrResourceType, resolver);
+        if ( servlet == null ) {
+            // the resource type is not absolute, so lets go for the deep search
+            final AbstractResourceCollector locationUtil;
+            if ( request != null ) {
+                locationUtil = ResourceCollector.create(request, this.executionPaths, this.defaultExtensions);
+            } else {
+                locationUtil = NamedScriptResourceCollector.create(scriptNameOrResourceType, resource, this.executionPaths);
+            }
+            servlet = getServletInternal(locationUtil, request, resolver);
+
+            if (servlet != null && LOGGER.isDebugEnabled()) {
+                LOGGER.debug("getServletInternal returns servlet {}", RequestUtil.getServletName(servlet));
+            }
+        }
+        return servlet;
+    }
+
+    /**
+     * Returns the servlet at the given path if the path is absolute.
+     */
+    private Servlet getAbsoluteServlet(final SlingHttpServletRequest request,
+            final String scriptNameOrResourceType,
+            final ResourceResolver resolver) {
+        Servlet servlet = null;
         if (scriptNameOrResourceType.charAt(0) == '/') {
             final String scriptPath = ResourceUtil.normalize(scriptNameOrResourceType);
             if ( isPathAllowed(scriptPath, this.executionPaths) ) {
@@ -450,21 +583,60 @@ public class SlingServletResolver
                 }
             }
         }
-        if ( servlet == null ) {
-            // the resource type is not absolute, so lets go for the deep search
-            final AbstractResourceCollector locationUtil;
-            if ( request != null ) {
-                locationUtil = ResourceCollector.create(request, this.executionPaths, this.defaultExtensions);
-            } else {
-                locationUtil = NamedScriptResourceCollector.create(scriptNameOrResourceType, resource, this.executionPaths);
-            }
-            servlet = getServletInternal(locationUtil, request, resolver);
+        return servlet;
+    }
 
-            if (servlet != null && LOGGER.isDebugEnabled()) {
-                LOGGER.debug("getServletInternal returns servlet {}", RequestUtil.getServletName(servlet));
+    /**
+     * @see org.apache.sling.servlets.resolver.bulk.BulkServletResolver#resolveServlets(java.util.List)
+     */
+    @Override
+    public List<Servlet> resolveServlets(final List<ServletResolutionRequest> requests) {
+        final ResourceResolver scriptResolver = this.getScriptResourceResolver();
+        // requests sharing a cache entry are resolved once
+        final Map<AbstractResourceCollector, Servlet> resolved = new HashMap<>();
+        final List<Servlet> servlets = new ArrayList<>(requests.size());
+        for(final ServletResolutionRequest request : requests) {
+            final Resource resource = request.getResource();
+            final String resourceType = resource.getResourceType();
+            Servlet servlet = null;
+            if ( resourceType != null && resourceType.length() > 0 ) {
+                servlet = getAbsoluteServlet(null, resourceType, scriptResolver);
+                if ( servlet == null ) {
+                    final ResourceCollector locationUtil = ResourceCollector.create(resource, request.getExtension(),
+                            this.executionPaths, this.defaultExtensions, request.getMethod(), request.getSelectors());
+                    final AbstractResourceCollector key = this.resolutionCache.canonicalize(locationUtil, scriptResolver);
+                    if ( resolved.containsKey(key) ) {
+                        servlet = resolved.get(key);
+                    } else {
+                        servlet = getServletInternal(key, null, scriptResolver, true, true);
+                        resolved.put(key, servlet);
+                    }
+                }
             }
+            servlets.add(servlet);
         }
-        return servlet;
+        if ( LOGGER.isDebugEnabled() ) {
+            LOGGER.debug("Resolved {} requests with {} distinct cache keys", requests.size(), resolved.size());
+        }
+        return servlets;
+    }
+
+    @Override
+    public Set<String> getResourceTypes() {
+        final ResourceTypeLatencies localLatencies = this.latencies;
+        return localLatencies == null ? Collections.<String>emptySet() : localLatencies.getResourceTypes();
+    }
+
+    @Override
+    public LatencyHistogram getCacheHitLatency(final String resourceType) {
+        final ResourceTypeLatencies localLatencies = this.latencies;
+        return localLatencies == null ? null : localLatencies.getHitLatency(resourceType);
+    }
+
+    @Override
+    public LatencyHistogram getCacheMissLatency(final String resourceType) {
+        final ResourceTypeLatencies localLatencies = this.latencies;
+        return localLatencies == null ? null : localLatencies.getMissLatency(resourceType);
     }
 
     /**
@@ -487,42 +659,125 @@ public class SlingServletResolver
     private Servlet getServletInternal(final AbstractResourceCollector locationUtil,
             final SlingHttpServletRequest request,
             final ResourceResolver resolver) {
-        // use local variable to avoid race condition with activate
+        return getServletInternal(locationUtil, request, resolver, false, true);
+    }
+
+    /**
+     * Returns a servlet suitable for handling a request, see
+     * {@link #getServletInternal(AbstractResourceCollector, SlingHttpServletRequest, ResourceResolver)}.
+     *
+     * @param stopAtOptingServlet Whether to return <code>null</code> instead
+     *            of skipping an <code>OptingServlet</code> which can't be asked
+     *            as there is no request
+     * @param recordMetrics Whether the resolution is reported to the latency
+     *            histograms, the slow resolution log, the most frequent misses
+     *            and the flight recorder, which is not the case for the
+     *            resolutions of the cache warmup
+     */
+    private Servlet getServletInternal(final AbstractResourceCollector locationUtil,
+            final SlingHttpServletRequest request,
+            final ResourceResolver resolver,
+            final boolean stopAtOptingServlet,
+            final boolean recordMetrics) {
+        // use local variables to avoid race condition with activate
         final ResolutionCache localCache = this.resolutionCache;
-        final Servlet scriptServlet = localCache.get(locationUtil);
+        final ResourceTypeLatencies localLatencies = recordMetrics ? this.latencies : null;
+        // the data of the flight recorder event is only collected if it is enabled
+        final boolean recordEvent = recordMetrics && ResolverEvents.isServletResolutionEnabled();
+        final long startTime = recordEvent || localLatencies != null ? System.nanoTime() : 0L;
+        // a servlet resolved from content which changes in the meantime is not cached
+        final long generation = localCache.getGeneration();
+        // requests which can't be told apart by the scripts share the cache entry
+        final int probeToken = ResolutionTrace.enter(ResolutionTrace.Phase.CACHE_PROBE);
+        final AbstractResourceCollector key;
+        final Servlet scriptServlet;
+        try {
+            key = localCache.canonicalize(locationUtil, resolver);
+            scriptServlet = localCache.get(key);
+        } finally {
+            ResolutionTrace.exit(probeToken);
+        }
         if (scriptServlet != null) {
             if ( LOGGER.isDebugEnabled() ) {
                 LOGGER.debug("Using cached servlet {}", RequestUtil.getServletName(scriptServlet));
             }
+            if ( recordEvent ) {
+                ResolverEvents.servletResolution(key, true, 0, RequestUtil.getServletName(scriptServlet), startTime);
+            }
+            if ( localLatencies != null ) {
+                localLatencies.recordHit(locationUtil.getResourceType(), System.nanoTime() - startTime);
+            }
+            // resolve a sample of the cache hits again to verify the cache
+            final ExecutorService localVerificationExecutor = this.verificationExecutor;
+            final AtomicBoolean localVerificationStopped = this.verificationStopped;
+            if ( recordMetrics && localVerificationExecutor != null && localVerificationStopped != null
+                    && ThreadLocalRandom.current().nextDouble() < this.verificationRate ) {
+                verify(localVerificationExecutor, localVerificationStopped, localCache, locationUtil, key, scriptServlet,
+                        generation);
+            }
             return scriptServlet;
         }
 
-        final Collection<Resource> candidates = locationUtil.getServlets(resolver, localCache.getScriptEngineExtensions());
+        // the locations are only walked as far as needed to find the servlet
+        final long missStart = System.nanoTime();
+        Iterator<Resource> candidates = localCache.iterateServlets(key, resolver);
 
         if (LOGGER.isDebugEnabled()) {
-            if (candidates.isEmpty()) {
+            final List<Resource> allCandidates = new ArrayList<>();
+            while (candidates.hasNext()) {
+                allCandidates.add(candidates.next());
+            }
+            if (allCandidates.isEmpty()) {
                 LOGGER.debug("No servlet candidates found");
             } else {
                 LOGGER.debug("Ordered list of servlet candidates follows");
-                for (Resource candidateResource : candidates) {
+                for (Resource candidateResource : allCandidates) {
                     LOGGER.debug("Servlet candidate: {}", candidateResource.getPath());
                 }
             }
+            candidates = allCandidates.iterator();
         }
 
         boolean hasOptingServlet = false;
-        for (final Resource candidateResource : candidates) {
+        int checkedCandidates = 0;
+        while (candidates.hasNext()) {
+            final Resource candidateResource = candidates.next();
+            checkedCandidates++;
             LOGGER.debug("Checking if candidate resource {} adapts to servlet and accepts request", candidateResource
                         .getPath());
-            Servlet candidate = this.getServlet(candidateResource);
+            final int adaptToken = ResolutionTrace.enter(ResolutionTrace.Phase.ADAPT_TO);
+            final Servlet candidate;
+            try {
+                candidate = this.getServlet(candidateResource);
+            } finally {
+                ResolutionTrace.exit(adaptToken);
+            }
             if (candidate != null) {
                 final boolean isOptingServlet = candidate instanceof OptingServlet;
-                boolean servletAcceptsRequest = !isOptingServlet || (request != null && ((OptingServlet) candidate).accepts(request));
+                if (isOptingServlet && request == null && stopAtOptingServlet) {
+                    LOGGER.debug("Candidate {} needs the request to decide, resolution stopped", candidateResource.getPath());
+                    if ( recordMetrics ) {
+                        onResolved(localCache, key, missStart, checkedCandidates, null, recordEvent, localLatencies, startTime);
+                    }
+                    return null;
+                }
+                boolean servletAcceptsRequest = !isOptingServlet;
+                if ( isOptingServlet && request != null ) {
+                    final int optingToken = ResolutionTrace.enter(ResolutionTrace.Phase.OPTING_SERVLET_CHECK);
+                    try {
+                        servletAcceptsRequest = ((OptingServlet) candidate).accepts(request);
+                    } finally {
+                        ResolutionTrace.exit(optingToken);
+                    }
+                }
                 if (servletAcceptsRequest) {
                     if (!hasOptingServlet && !isOptingServlet ) {
-                        localCache.put(locationUtil, candidate);
+                        localCache.put(key, candidate, generation);
                     }
                     LOGGER.debug("Using servlet provided by candidate resource {}", candidateResource.getPath());
+                    if ( recordMetrics ) {
+                        onResolved(localCache, key, missStart, checkedCandidates, candidate, recordEvent, localLatencies, startTime);
+                    }
                     return candidate;
                 }
                 if (isOptingServlet) {
@@ -535,9 +790,89 @@ public class SlingServletResolver
         }
 
         // exhausted all candidates, we don't have a servlet
+        if ( recordMetrics ) {
+            onResolved(localCache, key, missStart, checkedCandidates, null, recordEvent, localLatencies, startTime);
+        }
         return null;
     }
 
+    /**
+     * Resolve the servlet for a cache hit again in the background, without
+     * the cache and the vocabulary of the resource type hierarchy, and compare
+     * it with the cached servlet. The verification is dropped if too many
+     * verifications are waiting. A verification which is running on
+     * deactivation is not interrupted, as this would abort its repository
+     * access, waiting verifications are skipped.
+     */
+    private void verify(final ExecutorService executor,
+            final AtomicBoolean stopped,
+            final ResolutionCache localCache,
+            final AbstractResourceCollector locationUtil,
+            final AbstractResourceCollector key,
+            final Servlet cached,
+            final long generation) {
+        try {
+            executor.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    // use local variable to avoid racing with deactivate
+                    final ResourceResolver localSharedResolver = sharedScriptResolver;
+                    if ( localSharedResolver == null || stopped.get() ) {
+                        return;
+                    }
+                    final ResourceResolver resolver;
+                    try {
+                        resolver = localSharedResolver.clone(null);
+                    } catch (final LoginException e) {
+                        LOGGER.error("Unable to create new script resolver clone for the cache verification", e);
+                        return;
+                    }
+                    perThreadScriptResolver.set(resolver);
+                    try {
+                        // a cached servlet is never preceded by an opting servlet
+                        Servlet resolved = null;
+                        final Iterator<Resource> candidates = locationUtil.iterateServlets(resolver,
+                                localCache.getScriptEngineExtensions());
+                        while ( resolved == null && candidates.hasNext() ) {
+                            resolved = getServlet(candidates.next());
+                        }
+                        localCache.verify(key, cached, resolved, generation);
+                    } catch (final RuntimeException e) {
+                        LOGGER.debug("Unable to verify a cache hit", e);
+                    } finally {
+                        perThreadScriptResolver.remove();
+                        resolver.close();
+                    }
+                }
+            });
+        } catch ( final RejectedExecutionException ree ) {
+            // deactivated in the meantime - ignore
+        }
+    }
+
+    /**
+     * Reports the resolution of a key which has not been cached to the slow
+     * resolution log, the flight recorder and the latency histograms.
+     */
+    private void onResolved(final ResolutionCache localCache,
+            final AbstractResourceCollector key,
+            final long missStart,
+            final int checkedCandidates,
+            final Servlet servlet,
+            final boolean recordEvent,
+            final ResourceTypeLatencies localLatencies,
+            final long startTime) {
+        final String servletName = servlet == null ? null : RequestUtil.getServletName(servlet);
+        localCache.logResolution(key, missStart, checkedCandidates, servletName);
+        if ( recordEvent ) {
+            ResolverEvents.servletResolution(key, false, checkedCandidates, servletName, startTime);
+        }
+        if ( localLatencies != null ) {
+            localLatencies.recordMiss(key.getResourceType(), System.nanoTime() - startTime);
+        }
+    }
+
     /**
      * Returns the internal default servlet which is called in case no other
      * servlet applies for handling a request. This servlet should really only
@@ -640,14 +975,181 @@ public class SlingServletResolver
      */
     @Activate
     protected void activate(final ResolverConfig config) throws LoginException {
-        this.sharedScriptResolver =
+        final ResourceResolver scriptResolver =
                 resourceResolverFactory.getServiceResourceResolver(Collections.singletonMap(ResourceResolverFactory.SUBSERVICE, (Object)SERVICE_USER));
+        ResolverEvents.register();
+        // servlets which are not mounted are added by the script resource resolver
+        if ( config.servletresolver_mountProviders() ) {
+            this.sharedScriptResolver = scriptResolver;
+        } else {
+            this.sharedScriptResolver = new ScriptResourceResolver(scriptResolver, new Supplier<MergingServletResourceProvider>() {
+
+                @Override
+                public MergingServletResourceProvider get() {
+                    return mergingServletResourceProvider;
+                }
+            });
+        }
 
         this.executionPaths = getExecutionPaths(config.servletresolver_paths());
         this.defaultExtensions = config.servletresolver_defaultExtensions();
+        this.traceResolution = config.servletresolver_traceResolution();
+        this.latencies = config.servletresolver_latencyHistograms() ? new ResourceTypeLatencies() : null;
+
+        // verify a sample of the cache hits in the background
+        this.verificationRate = config.servletresolver_verificationRate();
+        if ( this.verificationRate > 0 ) {
+            this.verificationStopped = new AtomicBoolean();
+            this.verificationExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<Runnable>(VERIFICATION_QUEUE_SIZE), new ThreadFactory() {
+
+                        @Override
+                        public Thread newThread(final Runnable r) {
+                            final Thread t = new Thread(r, "Apache Sling Servlet Resolver Cache Verification");
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    }, new ThreadPoolExecutor.DiscardPolicy());
+        }
 
         // setup default servlet
         this.getDefaultServlet();
+
+        // resolve the keys recorded by the last instance in the background
+        final int warmupRate = config.servletresolver_warmupRate();
+        final boolean rewarm = config.servletresolver_rewarmSize() > 0;
+        if ( warmupRate > 0 || rewarm ) {
+            this.warmupExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+                @Override
+                public Thread newThread(final Runnable r) {
+                    final Thread t = new Thread(r, "Apache Sling Servlet Resolver Cache Warmup");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        if ( warmupRate > 0 ) {
+            final long interval = TimeUnit.SECONDS.toNanos(1) / warmupRate;
+            final List<ResourceCollector> keys = this.resolutionCache.getRecordedKeys(this.executionPaths);
+            final AtomicBoolean stopped = new AtomicBoolean();
+            this.warmupStopped = stopped;
+            if ( !keys.isEmpty() ) {
+                this.warmupExecutor.execute(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        warmup(keys, interval, stopped);
+                    }
+                });
+            }
+        }
+        // and the most used keys after each flush of the cache
+        if ( rewarm ) {
+            final long interval = TimeUnit.SECONDS.toNanos(1) / Math.max(1, config.servletresolver_rewarmRate());
+            this.resolutionCache.setRewarmHandler(new Consumer<List<ResourceCollector>>() {
+
+                @Override
+                public void accept(final List<ResourceCollector> hotKeys) {
+                    rewarm(hotKeys, interval);
+                }
+            });
+        }
+    }
+
+    /**
+     * Resolve the most used keys of a flushed cache in the background. A
+     * re-warm which has not finished yet is stopped after its current key
+     * as its keys are outdated by the new flush.
+     * @param keys The keys to resolve
+     * @param interval The minimum time between two keys in nanoseconds
+     */
+    private void rewarm(final List<ResourceCollector> keys, final long interval) {
+        // use local variable to avoid racing with deactivate
+        final ExecutorService executor = this.warmupExecutor;
+        if ( executor == null ) {
+            return;
+        }
+        synchronized ( this.rewarmLock ) {
+            if ( this.rewarmStopped != null ) {
+                this.rewarmStopped.set(true);
+            }
+            final AtomicBoolean stopped = new AtomicBoolean();
+            try {
+                executor.execute(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        warmup(keys, interval, stopped);
+                    }
+                });
+                this.rewarmStopped = stopped;
+            } catch ( final RejectedExecutionException ree ) {
+                // deactivated in the meantime - ignore
+                this.rewarmStopped = null;
+            }
+        }
+    }
+
+    /**
+     * Resolve the given cache keys, pausing between two keys to limit the
+     * load caused by the warmup. Keys which are cached already are skipped.
+     * The resolutions only fill the cache, they are not reported to the
+     * latency histograms, the slow resolution log, the most frequent misses
+     * or the flight recorder. The warmup is not interrupted as this would
+     * abort the repository access of the current key, instead it checks the
+     * given flag before each key.
+     * @param keys The keys to resolve
+     * @param interval The minimum time between two keys in nanoseconds
+     * @param stopped Flag which is set once the warmup should stop
+     */
+    private void warmup(final List<ResourceCollector> keys, final long interval, final AtomicBoolean stopped) {
+        final boolean recordEvent = ResolverEvents.isScriptResolverCloneEnabled();
+        final long eventStart = recordEvent ? System.nanoTime() : 0L;
+        final ResourceResolver resolver;
+        try {
+            resolver = this.sharedScriptResolver.clone(null);
+        } catch (final LoginException e) {
+            LOGGER.error("Unable to create new script resolver clone for the cache warmup", e);
+            if ( recordEvent ) {
+                ResolverEvents.scriptResolverClone("warmup", false, eventStart);
+            }
+            return;
+        }
+        if ( recordEvent ) {
+            ResolverEvents.scriptResolverClone("warmup", true, eventStart);
+        }
+        this.perThreadScriptResolver.set(resolver);
+        int count = 0;
+        try {
+            for(final ResourceCollector key : keys) {
+                if ( stopped.get() ) {
+                    // deactivated or superseded by a newer re-warm
+                    break;
+                }
+                final long start = System.nanoTime();
+                try {
+                    // the resolution only fills the cache, it is not a request to be reported
+                    if ( this.resolutionCache.peek(key, resolver) == null ) {
+                        getServletInternal(key, null, resolver, false, false);
+                    }
+                } catch (final RuntimeException e) {
+                    LOGGER.debug("Unable to resolve a key during the cache warmup", e);
+                }
+                count++;
+                final long remaining = interval - (System.nanoTime() - start);
+                if ( remaining > 0 ) {
+                    TimeUnit.NANOSECONDS.sleep(remaining);
+                }
+            }
+        } catch (final InterruptedException e) {
+            // stop warming up
+            Thread.currentThread().interrupt();
+        } finally {
+            this.perThreadScriptResolver.remove();
+            resolver.close();
+        }
+        LOGGER.debug("Cache warmup resolved {} of {} keys", count, keys.size());
     }
 
     @Modified
@@ -661,6 +1163,33 @@ public class SlingServletResolver
      */
     @Deactivate
     protected void deactivate() {
+        // stop warming up
+        this.resolutionCache.setRewarmHandler(null);
+        if ( this.warmupStopped != null ) {
+            this.warmupStopped.set(true);
+            this.warmupStopped = null;
+        }
+        synchronized ( this.rewarmLock ) {
+            if ( this.rewarmStopped != null ) {
+                this.rewarmStopped.set(true);
+                this.rewarmStopped = null;
+            }
+        }
+        if ( this.warmupExecutor != null ) {
+            this.warmupExecutor.shutdown();
+            this.warmupExecutor = null;
+        }
+        // stop verifying
+        if ( this.verificationStopped != null ) {
+            this.verificationStopped.set(true);
+            this.verificationStopped = null;
+        }
+        if ( this.verificationExecutor != null ) {
+            this.verificationExecutor.shutdown();
+            this.verificationExecutor = null;
+        }
+        // keep the keys for a warm start before the cache is flushed
+        this.resolutionCache.recordKeys();
         this.resolutionCache.flushCache();
         // destroy the fallback error handler servlet
         if (fallbackErrorServlet != null) {
@@ -677,6 +1206,7 @@ public class SlingServletResolver
             this.sharedScriptResolver.close();
             this.sharedScriptResolver = null;
         }
+        ResolverEvents.unregister();
     }
 
     /**
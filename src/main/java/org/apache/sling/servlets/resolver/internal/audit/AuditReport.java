@@ -0,0 +1,211 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.servlets.resolver.internal.audit;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The result of a {@link ResolutionAudit}: the resolutions of all
+ * resources of a subtree for a set of request variants, aggregated by
+ * resource type.
+ */
+public final class AuditReport {
+
+    /** The number of missed cache keys kept per resource type. */
+    static final int MISSED_KEYS_KEPT = 10;
+
+    private final String root;
+
+    private final List<String> variants;
+
+    private final Map<String, TypeStatistics> types = new ConcurrentHashMap<>();
+
+    private volatile int resources;
+
+    private volatile boolean truncated;
+
+    private volatile long durationMillis;
+
+    AuditReport(final String root, final List<String> variants) {
+        this.root = root;
+        this.variants = variants;
+    }
+
+    TypeStatistics getStatistics(final String resourceType) {
+        TypeStatistics statistics = this.types.get(resourceType);
+        if ( statistics == null ) {
+            final TypeStatistics created = new TypeStatistics(resourceType);
+            statistics = this.types.putIfAbsent(resourceType, created);
+            if ( statistics == null ) {
+                statistics = created;
+            }
+        }
+        return statistics;
+    }
+
+    void setResources(final int resources, final boolean truncated) {
+        this.resources = resources;
+        this.truncated = truncated;
+    }
+
+    void setDurationMillis(final long durationMillis) {
+        this.durationMillis = durationMillis;
+    }
+
+    /** The path of the audited subtree. */
+    public String getRoot() {
+        return root;
+    }
+
+    /** The audited variants. */
+    public List<String> getVariants() {
+        return variants;
+    }
+
+    /** The number of resources audited. */
+    public int getResources() {
+        return resources;
+    }
+
+    /** Whether the subtree has more resources than have been audited. */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    /** The wall clock time of the audit in milliseconds. */
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    /**
+     * Returns the statistics per resource type.
+     * @return The statistics, the resource type with the slowest resolution first
+     */
+    public List<TypeStatistics> getResourceTypes() {
+        final List<TypeStatistics> result = new ArrayList<>(this.types.values());
+        Collections.sort(result, new Comparator<TypeStatistics>() {
+
+            @Override
+            public int compare(final TypeStatistics o1, final TypeStatistics o2) {
+                return Long.compare(o2.getMaxNanos(), o1.getMaxNanos());
+            }
+        });
+        return result;
+    }
+
+    /**
+     * The resolutions of the resources of one resource type.
+     */
+    public static final class TypeStatistics {
+
+        private final String resourceType;
+
+        private int resolutions;
+
+        private long totalNanos;
+
+        private long maxNanos;
+
+        private int minCandidates = Integer.MAX_VALUE;
+
+        private int maxCandidates;
+
+        private int depth;
+
+        private int misses;
+
+        private final List<String> missedKeys = new ArrayList<>();
+
+        TypeStatistics(final String resourceType) {
+            this.resourceType = resourceType;
+        }
+
+        synchronized void add(final long nanos, final int candidates, final int depth, final String missedKey) {
+            this.resolutions++;
+            this.totalNanos += nanos;
+            this.maxNanos = Math.max(this.maxNanos, nanos);
+            this.minCandidates = Math.min(this.minCandidates, candidates);
+            this.maxCandidates = Math.max(this.maxCandidates, candidates);
+            this.depth = Math.max(this.depth, depth);
+            if ( missedKey != null ) {
+                this.misses++;
+                if ( this.missedKeys.size() < MISSED_KEYS_KEPT && !this.missedKeys.contains(missedKey) ) {
+                    this.missedKeys.add(missedKey);
+                }
+            }
+        }
+
+        public String getResourceType() {
+            return resourceType;
+        }
+
+        public synchronized int getResolutions() {
+            return resolutions;
+        }
+
+        public synchronized long getAverageNanos() {
+            return resolutions == 0 ? 0 : totalNanos / resolutions;
+        }
+
+        public synchronized long getMaxNanos() {
+            return maxNanos;
+        }
+
+        public synchronized int getMinCandidates() {
+            return resolutions == 0 ? 0 : minCandidates;
+        }
+
+        public synchronized int getMaxCandidates() {
+            return maxCandidates;
+        }
+
+        /** The maximum number of resource types in the hierarchy of a resource, including its own type. */
+        public synchronized int getDepth() {
+            return depth;
+        }
+
+        /** The number of resolutions which would not have been served from the cache. */
+        public synchronized int getMisses() {
+            return misses;
+        }
+
+        /** Some of the keys which would not have been served from the cache. */
+        public synchronized List<String> getMissedKeys() {
+            return new ArrayList<>(missedKeys);
+        }
+
+        @Override
+        public synchronized String toString() {
+            return resourceType
+                    + ": resolutions=" + resolutions
+                    + ", avg=" + TimeUnit.NANOSECONDS.toMicros(getAverageNanos()) + "us"
+                    + ", max=" + TimeUnit.NANOSECONDS.toMicros(maxNanos) + "us"
+                    + ", candidates=" + getMinCandidates() + ".." + maxCandidates
+                    + ", depth=" + depth
+                    + ", misses=" + misses
+                    + (missedKeys.isEmpty() ? "" : ", missedKeys=" + missedKeys);
+        }
+    }
+}
@@ -0,0 +1,361 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.servlets.resolver.internal.audit;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import javax.management.NotCompliantMBeanException;
+import javax.management.StandardMBean;
+
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.serviceusermapping.ServiceUserMapped;
+import org.apache.sling.servlets.resolver.internal.ResolverConfig;
+import org.apache.sling.servlets.resolver.internal.ScriptResourceResolver;
+import org.apache.sling.servlets.resolver.internal.SlingServletResolver;
+import org.apache.sling.servlets.resolver.internal.helper.ResourceCollector;
+import org.apache.sling.servlets.resolver.internal.resolution.ResolutionCache;
+import org.apache.sling.servlets.resolver.internal.resource.MergingServletResourceProvider;
+import org.apache.sling.servlets.resolver.jmx.ResolutionAuditMBean;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.component.annotations.ReferencePolicy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The <code>ResolutionAudit</code> resolves every resource of a content
+ * subtree for a set of request variants and reports the cost of the
+ * resolutions per resource type. The resources are resolved in parallel,
+ * each thread with its own console service resource resolver. The audit
+ * collects all candidates of a resolution, so the reported times are an
+ * upper bound of the time a request spends resolving its servlet.
+ */
+@Component(configurationPid = ResolverConfig.PID,
+           service = {ResolutionAudit.class})
+public class ResolutionAudit {
+
+    /** The maximum number of resources audited. */
+    public static final int MAX_RESOURCES = 10000;
+
+    /** The maximum number of resource types walked, to stop at cycles. */
+    private static final int MAX_DEPTH = 100;
+
+    /** The time to wait for the audit threads to finish their current resource, in seconds. */
+    private static final int TERMINATION_TIMEOUT = 10;
+
+    private static final String SERVICE_USER_CONSOLE = "console";
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    @Reference(target="("+ServiceUserMapped.SUBSERVICENAME+"=" + SERVICE_USER_CONSOLE + ")")
+    private ServiceUserMapped consoleServiceUserMapped;
+
+    @Reference
+    private ResourceResolverFactory resourceResolverFactory;
+
+    @Reference
+    private ResolutionCache resolutionCache;
+
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL, policy = ReferencePolicy.DYNAMIC)
+    private volatile MergingServletResourceProvider mergingServletResourceProvider;
+
+    private volatile String[] executionPaths;
+
+    private volatile String[] defaultExtensions;
+
+    private volatile int threads;
+
+    private volatile ServiceRegistration<ResolutionAuditMBean> mbeanRegistration;
+
+    @Activate
+    protected void activate(final BundleContext context, final ResolverConfig config) {
+        modified(config);
+        try {
+            final Dictionary<String, String> mbeanProps = new Hashtable<>();
+            mbeanProps.put("jmx.objectname", "org.apache.sling:type=servletResolver,service=ResolutionAudit");
+            this.mbeanRegistration = context.registerService(ResolutionAuditMBean.class, new ResolutionAuditMBeanImpl(), mbeanProps);
+        } catch (final Throwable t) {
+            logger.warn("Unable to register servlets resolver audit MBean", t);
+        }
+    }
+
+    @Modified
+    protected void modified(final ResolverConfig config) {
+        this.executionPaths = SlingServletResolver.getExecutionPaths(config.servletresolver_paths());
+        this.defaultExtensions = config.servletresolver_defaultExtensions();
+        this.threads = Math.max(1, config.servletresolver_auditThreads());
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        if ( this.mbeanRegistration != null ) {
+            this.mbeanRegistration.unregister();
+            this.mbeanRegistration = null;
+        }
+    }
+
+    /**
+     * Resolves all resources of the subtree for all variants. At most
+     * {@value #MAX_RESOURCES} resources are audited.
+     *
+     * @param root The path of the subtree
+     * @param variants The request variants, each in the form
+     *            <code>selectors.extension:METHOD</code>, where every part is
+     *            optional, the method defaults to <code>GET</code>
+     * @return The report
+     * @throws LoginException If the console service resource resolver can't be created
+     */
+    public AuditReport audit(final String root, final List<String> variants) throws LoginException {
+        final List<Variant> parsed = new ArrayList<>();
+        for(final String variant : variants) {
+            parsed.add(Variant.parse(variant));
+        }
+        final AuditReport report = new AuditReport(root, variants);
+        final long start = System.currentTimeMillis();
+
+        // collect the paths first, the resources are bound to their resolver
+        final List<String> paths = new ArrayList<>();
+        try (final ResourceResolver resolver = getResourceResolver()) {
+            final Resource rootResource = resolver.getResource(root);
+            final Deque<Resource> pending = new ArrayDeque<>();
+            if ( rootResource != null ) {
+                pending.push(rootResource);
+            }
+            while ( !pending.isEmpty() && paths.size() < MAX_RESOURCES ) {
+                final Resource resource = pending.pop();
+                paths.add(resource.getPath());
+                final Iterator<Resource> children = resolver.listChildren(resource);
+                while ( children.hasNext() ) {
+                    pending.push(children.next());
+                }
+            }
+            report.setResources(paths.size(), !pending.isEmpty());
+        }
+
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicBoolean cancelled = new AtomicBoolean();
+        final int workers = Math.max(1, Math.min(this.threads, paths.size()));
+        final ExecutorService executor = Executors.newFixedThreadPool(workers, new ThreadFactory() {
+
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread t = new Thread(r, "Apache Sling Servlet Resolver Audit");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        try {
+            final List<Future<Void>> futures = new ArrayList<>();
+            for(int i = 0; i < workers; i++) {
+                futures.add(executor.submit(new Callable<Void>() {
+
+                    @Override
+                    public Void call() throws LoginException {
+                        audit(paths, next, cancelled, parsed, report);
+                        return null;
+                    }
+                }));
+            }
+            for(final Future<Void> future : futures) {
+                future.get();
+            }
+        } catch ( final InterruptedException ie ) {
+            Thread.currentThread().interrupt();
+        } catch ( final ExecutionException ee ) {
+            if ( ee.getCause() instanceof LoginException ) {
+                throw (LoginException) ee.getCause();
+            }
+            throw new IllegalStateException("Audit of " + root + " failed", ee.getCause());
+        } finally {
+            // the threads are not interrupted as this would abort their repository
+            // access, they stop after their current resource instead
+            cancelled.set(true);
+            executor.shutdown();
+            awaitTermination(executor);
+        }
+        report.setDurationMillis(System.currentTimeMillis() - start);
+        return report;
+    }
+
+    private void awaitTermination(final ExecutorService executor) {
+        try {
+            if ( !executor.awaitTermination(TERMINATION_TIMEOUT, TimeUnit.SECONDS) ) {
+                logger.warn("Audit threads did not finish within {} seconds", TERMINATION_TIMEOUT);
+            }
+        } catch ( final InterruptedException ie ) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Resolves the paths not taken by another thread yet, until the audit
+     * is cancelled.
+     */
+    private void audit(final List<String> paths,
+            final AtomicInteger next,
+            final AtomicBoolean cancelled,
+            final List<Variant> variants,
+            final AuditReport report) throws LoginException {
+        try (final ResourceResolver resolver = getResourceResolver()) {
+            final ResourceResolver scriptResolver = getScriptResourceResolver(resolver);
+            final List<String> scriptExtensions = resolutionCache.getScriptEngineExtensions();
+            int index;
+            while ( !cancelled.get() && (index = next.getAndIncrement()) < paths.size() ) {
+                final Resource resource = resolver.getResource(paths.get(index));
+                if ( resource == null ) {
+                    continue;
+                }
+                final int depth = getDepth(resolver, resource);
+                final AuditReport.TypeStatistics statistics = report.getStatistics(resource.getResourceType());
+                for(final Variant variant : variants) {
+                    final ResourceCollector collector = ResourceCollector.create(resource, variant.extension,
+                            this.executionPaths, this.defaultExtensions, variant.method, variant.selectors);
+                    final long startTime = System.nanoTime();
+                    final int candidates = collector.getServlets(scriptResolver, scriptExtensions).size();
+                    final long nanos = System.nanoTime() - startTime;
+                    final boolean miss = resolutionCache.peek(collector, scriptResolver) == null;
+                    statistics.add(nanos, candidates, depth, miss ? collector.toString() : null);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the number of resource types in the hierarchy of the resource.
+     */
+    private static int getDepth(final ResourceResolver resolver, final Resource resource) {
+        int depth = 1;
+        String type = resolver.getParentResourceType(resource);
+        while ( type != null && depth < MAX_DEPTH ) {
+            depth++;
+            type = resolver.getParentResourceType(type);
+        }
+        return depth;
+    }
+
+    private ResourceResolver getResourceResolver() throws LoginException {
+        return resourceResolverFactory.getServiceResourceResolver(
+                Collections.singletonMap(ResourceResolverFactory.SUBSERVICE, (Object)SERVICE_USER_CONSOLE));
+    }
+
+    /**
+     * Add the servlets which are not mounted into the resource tree.
+     */
+    private ResourceResolver getScriptResourceResolver(final ResourceResolver resourceResolver) {
+        if ( this.mergingServletResourceProvider == null ) {
+            return resourceResolver;
+        }
+        return new ScriptResourceResolver(resourceResolver, new Supplier<MergingServletResourceProvider>() {
+
+            @Override
+            public MergingServletResourceProvider get() {
+                return mergingServletResourceProvider;
+            }
+        });
+    }
+
+    /**
+     * A request variant: the selectors, extension and method.
+     */
+    static final class Variant {
+
+        final String[] selectors;
+
+        final String extension;
+
+        final String method;
+
+        private Variant(final String[] selectors, final String extension, final String method) {
+            this.selectors = selectors;
+            this.extension = extension;
+            this.method = method;
+        }
+
+        static Variant parse(final String variant) {
+            String spec = variant.trim();
+            String method = "GET";
+            final int colon = spec.lastIndexOf(':');
+            if ( colon != -1 ) {
+                if ( colon < spec.length() - 1 ) {
+                    method = spec.substring(colon + 1).trim().toUpperCase();
+                }
+                spec = spec.substring(0, colon).trim();
+            }
+            if ( spec.isEmpty() ) {
+                return new Variant(new String[0], null, method);
+            }
+            final String[] parts = spec.split("\\.");
+            return new Variant(Arrays.copyOf(parts, parts.length - 1), parts[parts.length - 1], method);
+        }
+    }
+
+    class ResolutionAuditMBeanImpl extends StandardMBean implements ResolutionAuditMBean {
+
+        ResolutionAuditMBeanImpl() throws NotCompliantMBeanException {
+            super(ResolutionAuditMBean.class);
+        }
+
+        @Override
+        public String[] audit(final String root, final String[] variants) {
+            final AuditReport report;
+            try {
+                report = ResolutionAudit.this.audit(root, Arrays.asList(variants));
+            } catch ( final LoginException le ) {
+                // the exception class might not be available to the client
+                throw new IllegalStateException("Unable to get the console service resource resolver: " + le.getMessage());
+            }
+            final List<String> result = new ArrayList<>();
+            result.add("Audited " + report.getResources() + " resources"
+                    + (report.isTruncated() ? " (truncated)" : "")
+                    + " below " + root + " for " + report.getVariants()
+                    + " in " + report.getDurationMillis() + "ms");
+            for(final AuditReport.TypeStatistics statistics : report.getResourceTypes()) {
+                result.add(statistics.toString());
+            }
+            return result.toArray(new String[result.size()]);
+        }
+    }
+}
@@ -22,9 +22,15 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Date;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 import javax.servlet.Servlet;
 import javax.servlet.ServletException;
@@ -34,6 +40,7 @@ import javax.servlet.http.HttpServletResponse;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.sling.api.request.RequestPathInfo;
+import org.apache.sling.api.request.RequestUtil;
 import org.apache.sling.api.request.ResponseUtil;
 import org.apache.sling.api.resource.LoginException;
 import org.apache.sling.api.resource.Resource;
@@ -47,14 +54,26 @@ import org.apache.sling.api.servlets.OptingServlet;
 import org.apache.sling.engine.impl.request.SlingRequestPathInfo;
 import org.apache.sling.serviceusermapping.ServiceUserMapped;
 import org.apache.sling.servlets.resolver.internal.ResolverConfig;
+import org.apache.sling.servlets.resolver.internal.ScriptResourceResolver;
 import org.apache.sling.servlets.resolver.internal.SlingServletResolver;
+import org.apache.sling.servlets.resolver.internal.audit.AuditReport;
+import org.apache.sling.servlets.resolver.internal.audit.ResolutionAudit;
+import org.apache.sling.servlets.resolver.internal.helper.ResolutionTrace;
 import org.apache.sling.servlets.resolver.internal.helper.ResourceCollector;
+import org.apache.sling.servlets.resolver.internal.resolution.CachedResolution;
+import org.apache.sling.servlets.resolver.internal.resolution.HeavyHitters;
 import org.apache.sling.servlets.resolver.internal.resolution.ResolutionCache;
+import org.apache.sling.servlets.resolver.internal.resolution.SlowResolution;
+import org.apache.sling.servlets.resolver.internal.resource.MergingServletResourceProvider;
+import org.apache.sling.servlets.resolver.internal.resource.ServletInitialization;
+import org.apache.sling.servlets.resolver.internal.resource.ServletMounter;
 import org.osgi.framework.Constants;
 import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
 import org.osgi.service.component.annotations.Modified;
 import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.component.annotations.ReferencePolicy;
 
 @SuppressWarnings("serial")
 @Component(service = {Servlet.class},
@@ -71,6 +90,19 @@ public class WebConsolePlugin extends HttpServlet {
 
     private static final String PARAMETER_URL = "url";
     private static final String PARAMETER_METHOD = "method";
+    private static final String PARAMETER_VIEW = "view";
+    private static final String PARAMETER_EXPLAIN = "explain";
+    private static final String PARAMETER_ROOT = "root";
+    private static final String PARAMETER_VARIANTS = "variants";
+
+    private static final String VIEW_RESOLVE = "resolve";
+    private static final String VIEW_SLOW_RESOLUTIONS = "slow";
+    private static final String VIEW_CACHE = "cache";
+    private static final String VIEW_AUDIT = "audit";
+    private static final String VIEW_SERVLETS = "servlets";
+
+    /** The number of keys listed in the heavy hitter reports. */
+    private static final int HEAVY_HITTERS_LISTED = 20;
 
     private static final String SERVICE_USER_CONSOLE = "console";
 
@@ -83,6 +115,15 @@ public class WebConsolePlugin extends HttpServlet {
     @Reference
     private ResolutionCache resolutionCache;
 
+    @Reference
+    private ResolutionAudit resolutionAudit;
+
+    @Reference
+    private ServletMounter servletMounter;
+
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL, policy = ReferencePolicy.DYNAMIC)
+    private volatile MergingServletResourceProvider mergingServletResourceProvider;
+
     /**
      * The allowed execution paths.
      */
@@ -103,14 +144,307 @@ public class WebConsolePlugin extends HttpServlet {
         this.defaultExtensions = config.servletresolver_defaultExtensions();
     }
 
+    /**
+     * Add the servlets which are not mounted into the resource tree.
+     */
+    private ResourceResolver getScriptResourceResolver(final ResourceResolver resourceResolver) {
+        if ( this.mergingServletResourceProvider == null ) {
+            return resourceResolver;
+        }
+        return new ScriptResourceResolver(resourceResolver, new Supplier<MergingServletResourceProvider>() {
+
+            @Override
+            public MergingServletResourceProvider get() {
+                return mergingServletResourceProvider;
+            }
+        });
+    }
+
     @Override
     protected void service(final HttpServletRequest request, final HttpServletResponse response) throws ServletException, IOException {
+        final String view = request.getParameter(PARAMETER_VIEW);
+        viewsHtml(response.getWriter(), view == null ? VIEW_RESOLVE : view);
+        if ( VIEW_SLOW_RESOLUTIONS.equals(view) ) {
+            slowResolutionsHtml(response.getWriter());
+        } else if ( VIEW_CACHE.equals(view) ) {
+            cacheHtml(response.getWriter());
+        } else if ( VIEW_AUDIT.equals(view) ) {
+            auditHtml(request, response.getWriter());
+        } else if ( VIEW_SERVLETS.equals(view) ) {
+            servletsHtml(response.getWriter());
+        } else {
+            resolveHtml(request, response);
+        }
+    }
+
+    private void viewsHtml(final PrintWriter pw, final String view) {
+        pw.print("<p class='statline'>");
+        viewLink(pw, view, VIEW_RESOLVE, "Resolve");
+        pw.print(" | ");
+        viewLink(pw, view, VIEW_SLOW_RESOLUTIONS, "Slow Resolutions");
+        pw.print(" | ");
+        viewLink(pw, view, VIEW_CACHE, "Cache");
+        pw.print(" | ");
+        viewLink(pw, view, VIEW_AUDIT, "Audit");
+        pw.print(" | ");
+        viewLink(pw, view, VIEW_SERVLETS, "Servlets");
+        pw.println("</p>");
+    }
+
+    private void viewLink(final PrintWriter pw, final String current, final String view, final String label) {
+        if ( view.equals(current) ) {
+            pw.print("<b>");
+            pw.print(ResponseUtil.escapeXml(label));
+            pw.print("</b>");
+        } else {
+            pw.print("<a href='?");
+            pw.print(PARAMETER_VIEW);
+            pw.print("=");
+            pw.print(view);
+            pw.print("'>");
+            pw.print(ResponseUtil.escapeXml(label));
+            pw.print("</a>");
+        }
+    }
+
+    private void slowResolutionsHtml(final PrintWriter pw) {
+        pw.println("<table class='content' cellpadding='0' cellspacing='0' width='100%'>");
+        titleHtml(pw,
+                "Slow Resolutions",
+                "The most recent resolutions which have not been served from the cache and have taken longer than "
+                        + "the configured slow resolution threshold, the most recent one first.");
+        final List<SlowResolution> entries = resolutionCache.getSlowResolutions();
+        if ( entries.isEmpty() ) {
+            emptyHtml(pw, "No slow resolutions logged.");
+        }
+        final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+        for(final SlowResolution entry : entries) {
+            tr(pw);
+            tdLabel(pw, format.format(new Date(entry.getTimestamp())));
+            tdContent(pw);
+            pw.println("<dl>");
+            pw.print("<dt>Key</dt><dd>");
+            pw.print(ResponseUtil.escapeXml(entry.getKey()));
+            pw.println("</dd>");
+            pw.print("<dt>Duration</dt><dd>");
+            pw.print(TimeUnit.NANOSECONDS.toMicros(entry.getDurationNanos()));
+            pw.println("us</dd>");
+            pw.print("<dt>Servlet</dt><dd>");
+            pw.print(entry.getServlet() == null ? "&lt;none&gt;" : ResponseUtil.escapeXml(entry.getServlet()));
+            pw.println("</dd>");
+            pw.print("<dt>Candidates checked</dt><dd>");
+            pw.print(entry.getCandidates());
+            pw.println("</dd>");
+            pw.print("<dt>Locations visited</dt><dd>");
+            pw.print(ResponseUtil.escapeXml(StringUtils.join(entry.getLocations(), ", ")));
+            pw.println("</dd>");
+            pw.println("</dl>");
+            closeTd(pw);
+            closeTr(pw);
+        }
+        pw.println("</table>");
+    }
+
+    private void cacheHtml(final PrintWriter pw) {
+        pw.println("<table class='content' cellpadding='0' cellspacing='0' width='100%'>");
+        titleHtml(pw,
+                "Most Frequent Keys",
+                "The most frequently used cache keys since the servlet resolver has been started, including the "
+                        + "entries which have been flushed or invalidated. The counts are approximated and might be "
+                        + "too high by up to the given error.");
+        heavyHittersHtml(pw, resolutionCache.getMostFrequentKeys(HEAVY_HITTERS_LISTED));
+        titleHtml(pw,
+                "Most Frequent Misses",
+                "The keys which are most frequently resolved without being served from the cache. Frequent misses "
+                        + "of a key which is not cached indicate a cache which is too small or flushed too often.");
+        heavyHittersHtml(pw, resolutionCache.getMostFrequentMisses(HEAVY_HITTERS_LISTED));
+
+        final List<CachedResolution> entries = resolutionCache.getCachedResolutions();
+        titleHtml(pw,
+                "Cached Entries",
+                entries.size() + " entries, the most used one first.");
+        if ( entries.isEmpty() ) {
+            emptyHtml(pw, "The cache is empty or disabled.");
+        } else {
+            tr(pw);
+            pw.println("<th class='content'>Key</th><th class='content'>Servlet</th><th class='content'>Hits / Age</th>");
+            closeTr(pw);
+        }
+        final long now = System.currentTimeMillis();
+        for(final CachedResolution entry : entries) {
+            tr(pw);
+            tdLabel(pw, entry.getKey());
+            tdLabel(pw, entry.getServlet());
+            tdLabel(pw, entry.getHits() + " / " + TimeUnit.MILLISECONDS.toSeconds(now - entry.getCreated()) + "s");
+            closeTr(pw);
+        }
+        pw.println("</table>");
+    }
+
+    private void servletsHtml(final PrintWriter pw) {
+        pw.println("<table class='content' cellpadding='0' cellspacing='0' width='100%'>");
+        final List<ServletInitialization> entries = servletMounter.getServletInitializations();
+        titleHtml(pw,
+                "Servlet Initialization",
+                entries.size() + " mounted servlets with the time their init() method has taken, the slowest one first.");
+        if ( entries.isEmpty() ) {
+            emptyHtml(pw, "No servlets mounted.");
+        } else {
+            tr(pw);
+            pw.println("<th class='content'>Servlet</th><th class='content' colspan='2'>Initialization</th>");
+            closeTr(pw);
+        }
+        for(final ServletInitialization entry : entries) {
+            final String init;
+            if ( entry.getInitNanos() >= 0 ) {
+                init = TimeUnit.NANOSECONDS.toMillis(entry.getInitNanos()) + "ms" + (entry.isLazy() ? " (on first use)" : "");
+            } else {
+                init = "not initialized yet";
+            }
+            tr(pw);
+            tdLabel(pw, entry.getName());
+            tdLabel(pw, init);
+            closeTr(pw);
+        }
+        pw.println("</table>");
+    }
+
+    private void auditHtml(final HttpServletRequest request, final PrintWriter pw) throws ServletException {
+        final String root = request.getParameter(PARAMETER_ROOT);
+        String variants = request.getParameter(PARAMETER_VARIANTS);
+        if ( StringUtils.isBlank(variants) ) {
+            variants = "html";
+        }
+
+        pw.print("<form method='get'>");
+        pw.print("<input type='hidden' name='");
+        pw.print(PARAMETER_VIEW);
+        pw.print("' value='");
+        pw.print(VIEW_AUDIT);
+        pw.println("'>");
+        pw.println("<table class='content' cellpadding='0' cellspacing='0' width='100%'>");
+        titleHtml(pw,
+                "Resolution Audit",
+                "Resolves every resource below the given path for each of the given request variants and reports "
+                        + "the cost per resource type, the slowest one first. A variant has the form "
+                        + "selectors.extension:METHOD, for example 'print.html' or 'json:POST', variants are separated "
+                        + "by commas. At most " + ResolutionAudit.MAX_RESOURCES + " resources are audited.");
+
+        tr(pw);
+        tdLabel(pw, "Path");
+        tdContent(pw);
+        pw.print("<input type='text' name='");
+        pw.print(PARAMETER_ROOT);
+        pw.print("' value='");
+        if ( root != null ) {
+            pw.print(ResponseUtil.escapeXml(root));
+        }
+        pw.println("' class='input' size='50'>");
+        closeTd(pw);
+        closeTr(pw);
+
+        tr(pw);
+        tdLabel(pw, "Variants");
+        tdContent(pw);
+        pw.print("<input type='text' name='");
+        pw.print(PARAMETER_VARIANTS);
+        pw.print("' value='");
+        pw.print(ResponseUtil.escapeXml(variants));
+        pw.println("' class='input' size='50'>");
+        pw.println("&nbsp;&nbsp;<input type='submit' value='Audit' class='submit'>");
+        closeTd(pw);
+        closeTr(pw);
+
+        if ( StringUtils.isNotBlank(root) ) {
+            final AuditReport report;
+            try {
+                report = resolutionAudit.audit(root, Arrays.asList(StringUtils.split(variants, ',')));
+            } catch (final LoginException e) {
+                throw new ServletException(e);
+            }
+            tr(pw);
+            tdLabel(pw, "Summary");
+            tdContent(pw);
+            pw.print(report.getResources());
+            pw.print(" resources");
+            if ( report.isTruncated() ) {
+                pw.print(" (truncated)");
+            }
+            pw.print(" audited in ");
+            pw.print(report.getDurationMillis());
+            pw.println("ms.");
+            closeTd(pw);
+            closeTr(pw);
+            for(final AuditReport.TypeStatistics statistics : report.getResourceTypes()) {
+                tr(pw);
+                tdLabel(pw, statistics.getResourceType());
+                tdContent(pw);
+                pw.println("<dl>");
+                pw.print("<dt>Resolutions</dt><dd>");
+                pw.print(statistics.getResolutions());
+                pw.println("</dd>");
+                pw.print("<dt>Latency</dt><dd>avg ");
+                pw.print(TimeUnit.NANOSECONDS.toMicros(statistics.getAverageNanos()));
+                pw.print("us, max ");
+                pw.print(TimeUnit.NANOSECONDS.toMicros(statistics.getMaxNanos()));
+                pw.println("us</dd>");
+                pw.print("<dt>Candidates</dt><dd>");
+                pw.print(statistics.getMinCandidates());
+                pw.print(" - ");
+                pw.print(statistics.getMaxCandidates());
+                pw.println("</dd>");
+                pw.print("<dt>Hierarchy depth</dt><dd>");
+                pw.print(statistics.getDepth());
+                pw.println("</dd>");
+                pw.print("<dt>Cache misses</dt><dd>");
+                pw.print(statistics.getMisses());
+                for(final String key : statistics.getMissedKeys()) {
+                    pw.print("<br/>");
+                    pw.print(ResponseUtil.escapeXml(key));
+                }
+                pw.println("</dd>");
+                pw.println("</dl>");
+                closeTd(pw);
+                closeTr(pw);
+            }
+        }
+        pw.println("</table>");
+        pw.print("</form>");
+    }
+
+    private void heavyHittersHtml(final PrintWriter pw, final List<HeavyHitters.Entry> entries) {
+        if ( entries.isEmpty() ) {
+            emptyHtml(pw, "No keys tracked.");
+            return;
+        }
+        tr(pw);
+        pw.println("<th class='content'>Key</th><th class='content'>Count</th><th class='content'>Error</th>");
+        closeTr(pw);
+        for(final HeavyHitters.Entry entry : entries) {
+            tr(pw);
+            tdLabel(pw, entry.getKey());
+            tdLabel(pw, String.valueOf(entry.getCount()));
+            tdLabel(pw, String.valueOf(entry.getError()));
+            closeTr(pw);
+        }
+    }
+
+    private void emptyHtml(final PrintWriter pw, final String message) {
+        tr(pw);
+        pw.print("<td colspan='3' class='content'>");
+        pw.print(ResponseUtil.escapeXml(message));
+        closeTd(pw);
+        closeTr(pw);
+    }
+
+    private void resolveHtml(final HttpServletRequest request, final HttpServletResponse response) throws ServletException, IOException {
         final String url = request.getParameter(PARAMETER_URL);
         final RequestPathInfo requestPathInfo = getRequestPathInfo(url);
         String method = request.getParameter(PARAMETER_METHOD);
         if (StringUtils.isBlank(method)) {
             method = "GET";
         }
+        final boolean explain = request.getParameter(PARAMETER_EXPLAIN) != null;
 
         final String CONSOLE_PATH_WARNING =
                 "<em>"
@@ -126,13 +460,19 @@ public class WebConsolePlugin extends HttpServlet {
             final PrintWriter pw = response.getWriter();
 
             pw.print("<form method='get'>");
+            pw.print("<input type='hidden' name='");
+            pw.print(PARAMETER_VIEW);
+            pw.print("' value='");
+            pw.print(VIEW_RESOLVE);
+            pw.println("'>");
             pw.println("<table class='content' cellpadding='0' cellspacing='0' width='100%'>");
 
             titleHtml(
                     pw,
                     "Servlet Resolver Test",
                     "To check which servlet is responsible for rendering a response, enter a request path into " +
-                             "the field and click 'Resolve' to resolve it.");
+                             "the field and click 'Resolve' to resolve it. Check 'Explain' to see the locations " +
+                             "walked, their cost and why each child of a location has been rejected or accepted.");
 
             tr(pw);
             tdLabel(pw, "URL");
@@ -158,6 +498,13 @@ public class WebConsolePlugin extends HttpServlet {
             pw.println("<option value='GET'>GET</option>");
             pw.println("<option value='POST'>POST</option>");
             pw.println("</select>");
+            pw.print("&nbsp;&nbsp;<label><input type='checkbox' name='");
+            pw.print(PARAMETER_EXPLAIN);
+            pw.print("' value='true'");
+            if ( explain ) {
+                pw.print(" checked");
+            }
+            pw.println("> Explain</label>");
             pw.println("&nbsp;&nbsp;<input type='submit' value='Resolve' class='submit'>");
 
             closeTd(pw);
@@ -201,6 +548,8 @@ public class WebConsolePlugin extends HttpServlet {
 
             if (StringUtils.isNotBlank(requestPathInfo.getResourcePath())) {
                 final Collection<Resource> servlets;
+                ResolutionTrace trace = null;
+                Servlet cached = null;
                 Resource resource = resourceResolver.resolve(requestPathInfo.getResourcePath());
                 if (resource.adaptTo(Servlet.class) != null) {
                     servlets = Collections.singleton(resource);
@@ -212,7 +561,18 @@ public class WebConsolePlugin extends HttpServlet {
                             defaultExtensions,
                             method,
                             requestPathInfo.getSelectors());
-                    servlets = locationUtil.getServlets(resourceResolver, resolutionCache.getScriptEngineExtensions());
+                    final ResourceResolver scriptResolver = getScriptResourceResolver(resourceResolver);
+                    if ( explain ) {
+                        cached = resolutionCache.peek(locationUtil, scriptResolver);
+                        trace = ResolutionTrace.startExplain();
+                    }
+                    try {
+                        servlets = locationUtil.getServlets(scriptResolver, resolutionCache.getScriptEngineExtensions());
+                    } finally {
+                        if ( trace != null ) {
+                            trace.stop();
+                        }
+                    }
                 }
                 tr(pw);
                 tdLabel(pw, "Candidates");
@@ -236,6 +596,10 @@ public class WebConsolePlugin extends HttpServlet {
                 }
                 pw.println("</td>");
                 closeTr(pw);
+
+                if ( trace != null ) {
+                    explainHtml(pw, trace, cached);
+                }
             }
 
             pw.println("</table>");
@@ -245,6 +609,65 @@ public class WebConsolePlugin extends HttpServlet {
         }
     }
 
+    private void explainHtml(final PrintWriter pw, final ResolutionTrace trace, final Servlet cached) {
+        tr(pw);
+        tdLabel(pw, "Explain");
+        tdContent(pw);
+        pw.println("<dl>");
+        pw.print("<dt>Cache</dt><dd>");
+        if ( cached == null ) {
+            pw.print("The request would not be served from the cache.");
+        } else {
+            pw.print("The request would be served from the cache by ");
+            pw.print(ResponseUtil.escapeXml(RequestUtil.getServletName(cached)));
+            pw.print(".");
+        }
+        pw.println("</dd>");
+        pw.print("<dt>Total</dt><dd>");
+        pw.print(TimeUnit.NANOSECONDS.toMicros(trace.getTotalNanos()));
+        pw.print("us, ");
+        pw.print(trace.getGetResourceCalls());
+        pw.print(" getResource, ");
+        pw.print(trace.getListChildrenCalls());
+        pw.println(" listChildren</dd>");
+        for(final ResolutionTrace.Location location : trace.getLocations()) {
+            pw.print("<dt>");
+            pw.print(ResponseUtil.escapeXml(location.getPath()));
+            pw.print(" (");
+            pw.print(TimeUnit.NANOSECONDS.toMicros(location.getNanos()));
+            pw.print("us, ");
+            pw.print(location.getGetResourceCalls());
+            pw.print(" getResource, ");
+            pw.print(location.getListChildrenCalls());
+            pw.println(" listChildren)</dt>");
+            pw.print("<dd>");
+            if ( location.getChildren().isEmpty() ) {
+                pw.print("No children examined.");
+            } else {
+                pw.println("<ul>");
+                for(final ResolutionTrace.Child child : location.getChildren()) {
+                    pw.print("<li>");
+                    if ( child.getRejection() != null ) {
+                        pw.print("<del>");
+                        pw.print(ResponseUtil.escapeXml(child.getPath()));
+                        pw.print("</del> rejected: ");
+                        pw.print(ResponseUtil.escapeXml(child.getRejection()));
+                    } else {
+                        pw.print(ResponseUtil.escapeXml(child.getPath()));
+                        pw.print(" candidate: ");
+                        pw.print(ResponseUtil.escapeXml(child.getWeight()));
+                    }
+                    pw.println("</li>");
+                }
+                pw.println("</ul>");
+            }
+            pw.println("</dd>");
+        }
+        pw.println("</dl>");
+        closeTd(pw);
+        closeTr(pw);
+    }
+
     private void tdContent(final PrintWriter pw) {
         pw.print("<td class='content' colspan='2'>");
     }
@@ -20,9 +20,13 @@ package org.apache.sling.servlets.resolver.internal.helper;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
@@ -32,6 +36,7 @@ import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ResourceResolver;
 import org.apache.sling.api.resource.ResourceUtil;
 import org.apache.sling.api.resource.SyntheticResource;
+import org.apache.sling.servlets.resolver.internal.resource.ServletResourceProviderFactory;
 
 /**
  * The <code>ResourceCollector</code> class provides a single public method -
@@ -56,6 +61,14 @@ public abstract class AbstractResourceCollector {
 
     protected final String[] executionPaths;
 
+    // the locations visited by the last call to getServlets or null if
+    // the servlets have not been collected yet
+    private volatile List<String> locations;
+
+    // the script extensions of the candidates found by the last call to
+    // getServlets or null if the servlets have not been collected yet
+    private volatile Set<String> candidateExtensions;
+
     public AbstractResourceCollector(final String baseResourceType,
             final String resourceType,
             final String resourceSuperType,
@@ -68,9 +81,89 @@ public abstract class AbstractResourceCollector {
         this.executionPaths = executionPaths;
     }
 
+    /**
+     * Returns the resource type of the request.
+     * @return The resource type
+     */
+    public String getResourceType() {
+        return this.resourceType;
+    }
+
     public final Collection<Resource> getServlets(final ResourceResolver resolver, final List<String> scriptExtensions) {
+        return toList(iterateServlets(resolver, scriptExtensions));
+    }
+
+    /**
+     * Returns the same candidates as {@link #getServlets(ResourceResolver, List)},
+     * but walks the locations lazily. A candidate is returned as soon as no
+     * location which has not been walked yet can contain a better candidate,
+     * so callers which stop at the first accepted candidate save the walk of
+     * the remaining locations.
+     *
+     * @param resolver The <code>ResourceResolver</code> to read the candidates
+     * @param scriptExtensions The script extensions by priority
+     * @return The candidates in their order
+     */
+    public Iterator<Resource> iterateServlets(final ResourceResolver resolver, final List<String> scriptExtensions) {
+        final Iterator<String> locations = new LocationIterator(resourceType, resourceSuperType,
+                                                                baseResourceType, resolver);
+        return new LazyCandidates(scriptExtensions) {
 
-        final SortedSet<WeightedResource> resources = new TreeSet<>(new Comparator<WeightedResource>() {
+            @Override
+            protected String walkNextLocation(final SortedSet<WeightedResource> resources) {
+                if (!locations.hasNext()) {
+                    return null;
+                }
+                final String location = locations.next();
+
+                // get the location resource, use a synthetic resource if there
+                // is no real location. There may still be children at this
+                // location
+                final String path;
+                if ( location.endsWith("/") ) {
+                    path = location.substring(0, location.length() - 1);
+                } else {
+                    path = location;
+                }
+                final Resource locationRes = getResource(resolver, path);
+                getWeightedResources(resources, locationRes);
+                return path;
+            }
+        };
+    }
+
+    /**
+     * Returns the remaining candidates of the iterator as a list.
+     */
+    protected static Collection<Resource> toList(final Iterator<Resource> candidates) {
+        final List<Resource> result = new ArrayList<>();
+        while (candidates.hasNext()) {
+            result.add(candidates.next());
+        }
+        return result;
+    }
+
+    /**
+     * Checks whether no location can contain a candidate which is ordered
+     * before the given candidate. Such a candidate can be returned before
+     * the remaining locations are walked. This implementation returns
+     * <code>false</code>, so all locations are walked.
+     *
+     * @param candidate The candidate
+     * @return <code>true</code> if no better candidate is possible
+     */
+    protected boolean isBestPossible(final WeightedResource candidate) {
+        return false;
+    }
+
+    /**
+     * Creates the order of the candidates for {@link #getServlets(ResourceResolver, List)}.
+     *
+     * @param scriptExtensions The script extensions by priority
+     * @return The comparator
+     */
+    private Comparator<WeightedResource> createComparator(final List<String> scriptExtensions) {
+        return new Comparator<WeightedResource>() {
             @Override
             public int compare(WeightedResource o1, WeightedResource o2) {
                 String o1Parent = ResourceUtil.getParent(o1.getPath());
@@ -98,28 +191,208 @@ public abstract class AbstractResourceCollector {
                 }
                 return o1.compareTo(o2);
             }
-        });
-        final Iterator<String> locations = new LocationIterator(resourceType, resourceSuperType,
-                                                                baseResourceType, resolver);
-        while (locations.hasNext()) {
-            final String location = locations.next();
-
-            // get the location resource, use a synthetic resource if there
-            // is no real location. There may still be children at this
-            // location
-            final String path;
-            if ( location.endsWith("/") ) {
-                path = location.substring(0, location.length() - 1);
-            } else {
-                path = location;
+        };
+    }
+
+    /**
+     * The candidates of a collector, walking the locations on demand. The
+     * visited locations and the script extensions of the found candidates are
+     * remembered by the collector whenever the next candidate has been
+     * determined, see {@link AbstractResourceCollector#isAffectedBy(String)}
+     * and {@link AbstractResourceCollector#hasCandidateWithExtension(String)}.
+     */
+    protected abstract class LazyCandidates implements Iterator<Resource> {
+
+        private final NavigableSet<WeightedResource> resources;
+
+        private final List<String> visitedLocations = new ArrayList<>();
+
+        // the script extensions of the candidates, added with the candidates
+        private final Set<String> extensions = new HashSet<>();
+
+        private boolean exhausted;
+
+        // whether locations have been walked since the last publication
+        private boolean changed;
+
+        // the last returned candidate
+        private WeightedResource last;
+
+        // the next candidate, if already determined
+        private WeightedResource next;
+
+        protected LazyCandidates(final List<String> scriptExtensions) {
+            this.resources = new TreeSet<WeightedResource>(createComparator(scriptExtensions)) {
+
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                public boolean add(final WeightedResource resource) {
+                    if ( !super.add(resource) ) {
+                        return false;
+                    }
+                    final String scriptExtension = getScriptExtension(resource.getName());
+                    if ( scriptExtension != null ) {
+                        extensions.add(scriptExtension);
+                    }
+                    return true;
+                }
+            };
+        }
+
+        /**
+         * Adds the candidates of the next location.
+         *
+         * @param resources The set to add the candidates to
+         * @return The path of the walked location or <code>null</code> if
+         *         all locations have been walked
+         */
+        protected abstract String walkNextLocation(SortedSet<WeightedResource> resources);
+
+        @Override
+        public boolean hasNext() {
+            if (next == null) {
+                next = advance();
             }
-            final Resource locationRes = getResource(resolver, path);
-            getWeightedResources(resources, locationRes);
+            return next != null;
         }
 
-        List<Resource> result = new ArrayList<>(resources.size());
-        result.addAll(resources);
-        return result;
+        @Override
+        public Resource next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            last = next;
+            next = null;
+            return last;
+        }
+
+        private WeightedResource advance() {
+            final int token = ResolutionTrace.enter(ResolutionTrace.Phase.CANDIDATE_SORT);
+            try {
+                return selectNext();
+            } finally {
+                ResolutionTrace.exit(token);
+            }
+        }
+
+        private WeightedResource selectNext() {
+            while (true) {
+                final WeightedResource candidate;
+                if (last == null) {
+                    candidate = resources.isEmpty() ? null : resources.first();
+                } else {
+                    candidate = resources.higher(last);
+                }
+                // later locations only add candidates with a higher ordinal
+                if (exhausted || (candidate != null && isBestPossible(candidate))) {
+                    publish();
+                    return candidate;
+                }
+                final int token = ResolutionTrace.enter(ResolutionTrace.Phase.LOCATION_LISTING);
+                String location = null;
+                try {
+                    ResolutionTrace.beginLocation();
+                    location = walkNextLocation(resources);
+                } finally {
+                    ResolutionTrace.endLocation(location);
+                    ResolutionTrace.exit(token);
+                }
+                if (location == null) {
+                    exhausted = true;
+                } else {
+                    visitedLocations.add(location);
+                }
+                changed = true;
+            }
+        }
+
+        /**
+         * Publishes the visited locations and the script extensions to the
+         * collector, which might be read concurrently once it is cached.
+         */
+        private void publish() {
+            if (changed) {
+                locations = new ArrayList<>(visitedLocations);
+                candidateExtensions = new HashSet<>(extensions);
+                changed = false;
+            }
+        }
+    }
+
+    /**
+     * Returns the locations visited by the last call to
+     * {@link #getServlets(ResourceResolver, List)}.
+     *
+     * @return The locations, empty if the servlets have not been collected yet
+     */
+    public List<String> getLocations() {
+        final List<String> visitedLocations = this.locations;
+        return visitedLocations == null ? Collections.<String>emptyList() : visitedLocations;
+    }
+
+    /**
+     * Checks whether a change at the given path might alter the servlets
+     * collected by this instance. This is the case if the path denotes one
+     * of the locations visited by the last call to
+     * {@link #getServlets(ResourceResolver, List)}, a resource below such a
+     * location, a parent of such a location or the servlet registered for
+     * the location itself.
+     *
+     * @param path The absolute path of the changed resource
+     * @return {@code true} if the collected servlets might be affected. If
+     *         the servlets have not been collected yet, {@code true} is
+     *         returned as well.
+     */
+    public boolean isAffectedBy(final String path) {
+        final List<String> visitedLocations = this.locations;
+        if ( visitedLocations == null ) {
+            return true;
+        }
+        for(final String location : visitedLocations) {
+            if ( isSameOrDescendant(path, location)
+                 || isSameOrDescendant(location, path)
+                 || path.equals(location.concat(ServletResourceProviderFactory.SERVLET_PATH_EXTENSION)) ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether one of the candidates found by the last call to
+     * {@link #getServlets(ResourceResolver, List)} is a script with the
+     * given script extension. A change of the script engine for this
+     * extension might alter the resolution result.
+     *
+     * @param scriptExtension The script extension
+     * @return {@code true} if one of the candidates uses the extension. If
+     *         the servlets have not been collected yet, {@code true} is
+     *         returned as well.
+     */
+    public boolean hasCandidateWithExtension(final String scriptExtension) {
+        final Set<String> extensions = this.candidateExtensions;
+        return extensions == null || extensions.contains(scriptExtension);
+    }
+
+    /**
+     * Takes over the locations and candidate extensions collected by the
+     * given collector, for a copy of it which replaces it as a cache key.
+     *
+     * @param source The collector to take the state from
+     */
+    protected final void copyCollectedState(final AbstractResourceCollector source) {
+        this.locations = source.locations;
+        this.candidateExtensions = source.candidateExtensions;
+    }
+
+    static boolean isSameOrDescendant(final String path, final String parent) {
+        if ( !path.startsWith(parent) ) {
+            return false;
+        }
+        return path.length() == parent.length()
+               || parent.endsWith("/")
+               || path.charAt(parent.length()) == '/';
     }
 
     abstract protected void getWeightedResources(final Set<WeightedResource> resources,
@@ -147,6 +420,7 @@ public abstract class AbstractResourceCollector {
         final WeightedResource lr = new WeightedResource(resources.size(), resource,
             numSelectors, methodPrefixWeight);
         resources.add(lr);
+        ResolutionTrace.candidate(lr);
     }
 
     /**
@@ -162,6 +436,7 @@ public abstract class AbstractResourceCollector {
      */
     protected final Resource getResource(final ResourceResolver resolver,
                                          String path) {
+        ResolutionTrace.countGetResource();
         Resource res = resolver.getResource(path);
 
         if (res == null) {
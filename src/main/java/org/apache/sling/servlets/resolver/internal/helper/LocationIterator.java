@@ -229,25 +229,32 @@ public class LocationIterator implements Iterator<String> {
         final String rtPath = ResourceUtil.resourceTypeToPath(resourceType);
         // get the resource type resource and check its super type
         String resourceSuperType = null;
-        // if the path is absolute, use it directly
-        if ( rtPath != null && rtPath.startsWith("/") ) {
-            final String candidatePath = rtPath;
+        final int token = ResolutionTrace.enter(ResolutionTrace.Phase.SUPER_TYPE_WALK);
+        try {
+            // if the path is absolute, use it directly
+            if ( rtPath != null && rtPath.startsWith("/") ) {
+                final String candidatePath = rtPath;
 
-            final Resource rtResource = resourceResolver.getResource(candidatePath);
-            if ( rtResource != null ) {
-                resourceSuperType = rtResource.getResourceSuperType();
-            }
-
-        } else {
-            // if the path is relative we use the search paths
-            for(final String searchPath : this.searchPath) {
-                final String candidatePath = searchPath + rtPath;
+                ResolutionTrace.countGetResource();
                 final Resource rtResource = resourceResolver.getResource(candidatePath);
-                if ( rtResource != null && rtResource.getResourceSuperType() != null ) {
+                if ( rtResource != null ) {
                     resourceSuperType = rtResource.getResourceSuperType();
-                    break;
+                }
+
+            } else {
+                // if the path is relative we use the search paths
+                for(final String searchPath : this.searchPath) {
+                    final String candidatePath = searchPath + rtPath;
+                    ResolutionTrace.countGetResource();
+                    final Resource rtResource = resourceResolver.getResource(candidatePath);
+                    if ( rtResource != null && rtResource.getResourceSuperType() != null ) {
+                        resourceSuperType = rtResource.getResourceSuperType();
+                        break;
+                    }
                 }
             }
+        } finally {
+            ResolutionTrace.exit(token);
         }
         return resourceSuperType;
     }
@@ -0,0 +1,138 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.servlets.resolver.internal.helper;
+
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.servlets.resolver.internal.jfr.ResolverEvents;
+
+/**
+ * The <code>LocationProbes</code> read the folders of the locations of a
+ * resource type hierarchy concurrently, see {@link ScriptNameVocabulary}.
+ * <p>
+ * Each probe needs a resource resolver of its own. The clones of the resolver
+ * of the resolution are kept once a probe is done and handed out to the next
+ * probes of the same user after a refresh, so a folder is read without cloning
+ * a resolver per location. There are never more clones than probe threads.
+ */
+public class LocationProbes {
+
+    private final ForkJoinPool pool;
+
+    // the idle clones
+    private final Queue<ResourceResolver> resolvers = new ConcurrentLinkedQueue<>();
+
+    private volatile boolean closed;
+
+    /**
+     * Creates the probes.
+     * @param threads The number of probe threads
+     */
+    public LocationProbes(final int threads) {
+        this.pool = new ForkJoinPool(threads, new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public ForkJoinWorkerThread newThread(final ForkJoinPool pool) {
+                final ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                t.setName("Apache Sling Servlet Resolver Location Probe " + count.incrementAndGet());
+                return t;
+            }
+        }, null, false);
+    }
+
+    ExecutorService getExecutor() {
+        return this.pool;
+    }
+
+    /**
+     * Returns a resolver for a probe, either an idle clone or a new clone of
+     * the given resolver.
+     * @param resolver The resolver of the resolution
+     * @return The resolver, to be given back by {@link #release(ResourceResolver)}
+     * @throws LoginException If the resolver can't be cloned
+     */
+    ResourceResolver acquire(final ResourceResolver resolver) throws LoginException {
+        ResourceResolver probeResolver;
+        while ( (probeResolver = this.resolvers.poll()) != null ) {
+            if ( probeResolver.isLive() && Objects.equals(probeResolver.getUserID(), resolver.getUserID()) ) {
+                // see the changes made since the clone has been used last
+                probeResolver.refresh();
+                return probeResolver;
+            }
+            probeResolver.close();
+        }
+        final boolean recordEvent = ResolverEvents.isScriptResolverCloneEnabled();
+        final long eventStart = recordEvent ? System.nanoTime() : 0L;
+        try {
+            probeResolver = resolver.clone(null);
+        } catch ( final LoginException | RuntimeException e ) {
+            if ( recordEvent ) {
+                ResolverEvents.scriptResolverClone("location probe", false, eventStart);
+            }
+            throw e;
+        }
+        if ( recordEvent ) {
+            ResolverEvents.scriptResolverClone("location probe", true, eventStart);
+        }
+        return probeResolver;
+    }
+
+    /**
+     * Gives back a resolver returned by {@link #acquire(ResourceResolver)}.
+     * @param probeResolver The resolver
+     */
+    void release(final ResourceResolver probeResolver) {
+        if ( this.closed || !probeResolver.isLive() ) {
+            probeResolver.close();
+        } else {
+            this.resolvers.offer(probeResolver);
+            if ( this.closed ) {
+                // closed in the meantime
+                closeResolvers();
+            }
+        }
+    }
+
+    /**
+     * Stops the probe threads and closes the idle clones. Probes which are
+     * still running close their clones once they are done.
+     */
+    public void close() {
+        this.closed = true;
+        this.pool.shutdown();
+        closeResolvers();
+    }
+
+    private void closeResolvers() {
+        ResourceResolver probeResolver;
+        while ( (probeResolver = this.resolvers.poll()) != null ) {
+            probeResolver.close();
+        }
+    }
+}
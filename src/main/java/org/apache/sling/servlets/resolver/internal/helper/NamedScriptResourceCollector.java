@@ -92,6 +92,7 @@ public class NamedScriptResourceCollector extends AbstractResourceCollector {
         if ( this.extension != null ) {
             final String path = ResourceUtil.normalize(location.getPath() + '/' + this.scriptName);
             if ( SlingServletResolver.isPathAllowed(path, this.executionPaths) ) {
+                ResolutionTrace.countGetResource();
                 final Resource current = resolver.getResource(path);
                 if ( current != null ) {
                     this.addWeightedResource(resources, current, 0, WeightedResource.WEIGHT_EXTENSION);
@@ -110,22 +111,27 @@ public class NamedScriptResourceCollector extends AbstractResourceCollector {
             current = getResource(resolver, location.getPath() + '/' + this.scriptName.substring(0, pos));
             name = this.scriptName.substring(pos + 1);
         }
+        ResolutionTrace.countListChildren();
         final Iterator<Resource> children = resolver.listChildren(current);
         while (children.hasNext()) {
             final Resource child = children.next();
 
             if ( !SlingServletResolver.isPathAllowed(child.getPath(), this.executionPaths) ) {
+                ResolutionTrace.reject(child.getPath(), ResolutionTrace.REJECT_EXECUTION_PATHS);
                 continue;
             }
             final String currentScriptName = child.getName();
             final int lastDot = currentScriptName.lastIndexOf('.');
             if (lastDot < 0) {
                 // no extension in the name, this is not a script
+                ResolutionTrace.reject(child.getPath(), ResolutionTrace.REJECT_NO_EXTENSION);
                 continue;
             }
 
             if ( currentScriptName.substring(0, lastDot).equals(name) ) {
                 this.addWeightedResource(resources, child, 0, WeightedResource.WEIGHT_PREFIX);
+            } else {
+                ResolutionTrace.reject(child.getPath(), ResolutionTrace.REJECT_NAME);
             }
         }
     }
@@ -146,4 +152,9 @@ public class NamedScriptResourceCollector extends AbstractResourceCollector {
         }
         return false;
     }
+
+    @Override
+    public String toString() {
+        return "NamedScriptResourceCollector[type=" + resourceType + ", script=" + scriptName + "]";
+    }
 }
@@ -0,0 +1,363 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.servlets.resolver.internal.helper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.sling.servlets.resolver.trace.ServletResolutionTrace;
+
+/**
+ * The <code>ResolutionTrace</code> records where the time of a single servlet
+ * resolution is spent. The trace of a resolution is bound to the resolving
+ * thread between {@link #start()} and {@link #stop()}, the code taking part in
+ * the resolution marks its phases with {@link #enter(Phase)} and
+ * {@link #exit(int)} and counts its resource accesses.
+ * <p>
+ * Phases nest: the time of a phase entered while another phase is active is
+ * only accounted to the inner phase. If no trace is active on the current
+ * thread, the static methods neither allocate nor read the clock.
+ * <p>
+ * A trace started by {@link #startExplain()} additionally records every
+ * location walked by the collectors with its time and resource accesses,
+ * the children examined there and whether they have been rejected or
+ * became a candidate.
+ */
+public final class ResolutionTrace implements ServletResolutionTrace {
+
+    /** Returned by {@link #enter(Phase)} if no trace is active. */
+    public static final int NO_TRACE = -2;
+
+    // the phase index if no phase is active
+    private static final int NO_PHASE = -1;
+
+    private static final Phase[] PHASES = Phase.values();
+
+    /** The reasons for rejecting a child of a location. */
+    static final String REJECT_EXECUTION_PATHS = "not in the execution paths";
+    static final String REJECT_NO_EXTENSION = "no extension";
+    static final String REJECT_NAME = "name does not match";
+
+    private static final ThreadLocal<ResolutionTrace> CURRENT = new ThreadLocal<>();
+
+    // the trace which has been active when this trace was started
+    private final ResolutionTrace outer;
+
+    private final long startTime;
+
+    private final long[] phaseNanos = new long[PHASES.length];
+
+    private long totalNanos = -1;
+
+    private int phase = NO_PHASE;
+
+    private long phaseStart;
+
+    private int getResourceCalls;
+
+    private int listChildrenCalls;
+
+    // the walked locations, null if the resolution is not explained
+    private final List<Location> locations;
+
+    // the location currently walked
+    private Location location;
+
+    private ResolutionTrace(final ResolutionTrace outer, final boolean explain) {
+        this.outer = outer;
+        this.locations = explain ? new ArrayList<Location>() : null;
+        this.startTime = System.nanoTime();
+    }
+
+    /**
+     * Starts a new trace for the current thread.
+     * @return The trace
+     */
+    public static ResolutionTrace start() {
+        return start(false);
+    }
+
+    /**
+     * Starts a new trace for the current thread which records the walked
+     * locations, see {@link #getLocations()}.
+     * @return The trace
+     */
+    public static ResolutionTrace startExplain() {
+        return start(true);
+    }
+
+    private static ResolutionTrace start(final boolean explain) {
+        final ResolutionTrace trace = new ResolutionTrace(CURRENT.get(), explain);
+        CURRENT.set(trace);
+        return trace;
+    }
+
+    /**
+     * Stops this trace. The trace which has been active when this trace was
+     * started becomes active again.
+     */
+    public void stop() {
+        switchTo(NO_PHASE);
+        this.totalNanos = System.nanoTime() - this.startTime;
+        if ( this.outer == null ) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(this.outer);
+        }
+    }
+
+    /**
+     * Enters a phase of the trace of the current thread.
+     * @param phase The phase
+     * @return The token to pass to {@link #exit(int)}
+     */
+    public static int enter(final Phase phase) {
+        final ResolutionTrace trace = CURRENT.get();
+        if ( trace == null ) {
+            return NO_TRACE;
+        }
+        return trace.switchTo(phase.ordinal());
+    }
+
+    /**
+     * Leaves the phase entered by {@link #enter(Phase)}, the enclosing phase
+     * becomes active again.
+     * @param token The token returned by {@link #enter(Phase)}
+     */
+    public static void exit(final int token) {
+        if ( token != NO_TRACE ) {
+            final ResolutionTrace trace = CURRENT.get();
+            if ( trace != null ) {
+                trace.switchTo(token);
+            }
+        }
+    }
+
+    /**
+     * Counts a call of <code>ResourceResolver.getResource</code>.
+     */
+    public static void countGetResource() {
+        final ResolutionTrace trace = CURRENT.get();
+        if ( trace != null ) {
+            trace.getResourceCalls++;
+        }
+    }
+
+    /**
+     * Counts a call of <code>ResourceResolver.listChildren</code>.
+     */
+    public static void countListChildren() {
+        final ResolutionTrace trace = CURRENT.get();
+        if ( trace != null ) {
+            trace.listChildrenCalls++;
+        }
+    }
+
+    /**
+     * Begins the walk of the next location, if the resolution is explained.
+     */
+    static void beginLocation() {
+        final ResolutionTrace trace = CURRENT.get();
+        if ( trace != null && trace.locations != null ) {
+            trace.location = new Location(System.nanoTime(), trace.getResourceCalls, trace.listChildrenCalls);
+        }
+    }
+
+    /**
+     * Ends the walk of the location begun by {@link #beginLocation()}.
+     * @param path The path of the location, <code>null</code> if no location
+     *            has been left to walk
+     */
+    static void endLocation(final String path) {
+        final ResolutionTrace trace = CURRENT.get();
+        if ( trace != null && trace.location != null ) {
+            final Location current = trace.location;
+            trace.location = null;
+            if ( path != null ) {
+                current.path = path;
+                current.nanos = System.nanoTime() - current.nanos;
+                current.getResourceCalls = trace.getResourceCalls - current.getResourceCalls;
+                current.listChildrenCalls = trace.listChildrenCalls - current.listChildrenCalls;
+                trace.locations.add(current);
+            }
+        }
+    }
+
+    /**
+     * Records a child of the current location which is not a candidate.
+     */
+    static void reject(final String path, final String reason) {
+        final ResolutionTrace trace = CURRENT.get();
+        if ( trace != null && trace.location != null ) {
+            trace.location.children.add(new Child(path, reason, null));
+        }
+    }
+
+    /**
+     * Records a candidate found at the current location.
+     */
+    static void candidate(final WeightedResource candidate) {
+        final ResolutionTrace trace = CURRENT.get();
+        if ( trace != null && trace.location != null ) {
+            trace.location.children.add(new Child(candidate.getPath(), null,
+                    "ordinal=" + candidate.getOrdinal()
+                    + ", selectors=" + candidate.getNumSelectors()
+                    + ", methodPrefixWeight=" + candidate.getMethodPrefixWeight()));
+        }
+    }
+
+    private int switchTo(final int next) {
+        final long now = System.nanoTime();
+        final int previous = this.phase;
+        if ( previous != NO_PHASE ) {
+            this.phaseNanos[previous] += now - this.phaseStart;
+        }
+        this.phase = next;
+        this.phaseStart = now;
+        return previous;
+    }
+
+    @Override
+    public long getTotalNanos() {
+        return this.totalNanos;
+    }
+
+    @Override
+    public long getPhaseNanos(final Phase phase) {
+        return this.phaseNanos[phase.ordinal()];
+    }
+
+    @Override
+    public int getGetResourceCalls() {
+        return this.getResourceCalls;
+    }
+
+    @Override
+    public int getListChildrenCalls() {
+        return this.listChildrenCalls;
+    }
+
+    /**
+     * Returns the walked locations in the order they have been walked.
+     * @return The locations, empty if the trace has not been started by
+     *         {@link #startExplain()}
+     */
+    public List<Location> getLocations() {
+        return this.locations == null ? Collections.<Location>emptyList() : this.locations;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("total=").append(TimeUnit.NANOSECONDS.toMicros(this.totalNanos)).append("us");
+        for(final Phase p : PHASES) {
+            sb.append(", ").append(p.name()).append('=')
+              .append(TimeUnit.NANOSECONDS.toMicros(this.phaseNanos[p.ordinal()])).append("us");
+        }
+        sb.append(", getResource=").append(this.getResourceCalls);
+        sb.append(", listChildren=").append(this.listChildrenCalls);
+        return sb.toString();
+    }
+
+    /**
+     * A location walked by an explained resolution.
+     */
+    public static final class Location {
+
+        private String path;
+
+        // the start time and counts while the location is walked
+        private long nanos;
+
+        private int getResourceCalls;
+
+        private int listChildrenCalls;
+
+        private final List<Child> children = new ArrayList<>();
+
+        private Location(final long startTime, final int getResourceCalls, final int listChildrenCalls) {
+            this.nanos = startTime;
+            this.getResourceCalls = getResourceCalls;
+            this.listChildrenCalls = listChildrenCalls;
+        }
+
+        public String getPath() {
+            return this.path;
+        }
+
+        /** The time spent walking the location, including reading its resource super type. */
+        public long getNanos() {
+            return this.nanos;
+        }
+
+        public int getGetResourceCalls() {
+            return this.getResourceCalls;
+        }
+
+        public int getListChildrenCalls() {
+            return this.listChildrenCalls;
+        }
+
+        /** The children examined at the location. */
+        public List<Child> getChildren() {
+            return this.children;
+        }
+    }
+
+    /**
+     * A child examined at a location.
+     */
+    public static final class Child {
+
+        private final String path;
+
+        private final String rejection;
+
+        private final String weight;
+
+        private Child(final String path, final String rejection, final String weight) {
+            this.path = path;
+            this.rejection = rejection;
+            this.weight = weight;
+        }
+
+        public String getPath() {
+            return this.path;
+        }
+
+        /** The reason the child is not a candidate, <code>null</code> for a candidate. */
+        public String getRejection() {
+            return this.rejection;
+        }
+
+        /** The weight assigned to a candidate, <code>null</code> if the child has been rejected. */
+        public String getWeight() {
+            return this.weight;
+        }
+
+        @Override
+        public String toString() {
+            return this.rejection != null
+                    ? this.path + ": rejected, " + this.rejection
+                    : this.path + ": candidate, " + this.weight;
+        }
+    }
+}
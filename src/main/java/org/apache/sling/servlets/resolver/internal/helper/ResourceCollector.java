@@ -18,8 +18,18 @@
  */
 package org.apache.sling.servlets.resolver.internal.helper;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.SortedSet;
 
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
@@ -27,6 +37,7 @@ import org.apache.sling.api.SlingHttpServletRequest;
 import org.apache.sling.api.request.RequestPathInfo;
 import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceUtil;
 import org.apache.sling.api.servlets.ServletResolverConstants;
 import org.apache.sling.servlets.resolver.internal.SlingServletResolver;
 import org.apache.sling.servlets.resolver.internal.resource.ServletResourceProviderFactory;
@@ -48,6 +59,22 @@ public class ResourceCollector extends AbstractResourceCollector {
      */
     protected static final int WEIGHT_NO_MATCH = Integer.MIN_VALUE;
 
+    // the placeholder for an extension or method name which is not used by
+    // any script or servlet. It can't be part of a resource name.
+    private static final String UNKNOWN_NAME = "/";
+
+    // the bits of a match holding the method/prefix weight
+    private static final int WEIGHT_MASK = 3;
+
+    // the index of the flags in the symbol ids
+    private static final int SYMBOL_FLAGS = 5;
+
+    // the index of the first selector in the symbol ids
+    private static final int SYMBOL_SELECTORS = 6;
+
+    // the maximum number of selectors accepted when reading a collector
+    private static final int MAX_SELECTORS = 256;
+
     // the request method name used to indicate the script name
     private final String methodName;
 
@@ -70,6 +97,15 @@ public class ResourceCollector extends AbstractResourceCollector {
 
     private final String suffExtMethod;
 
+    // the table the symbol ids are taken from, null if not interned
+    private SymbolTable symbolTable;
+
+    // the symbol ids of the properties which are part of the key, null if not interned
+    private int[] symbolIds;
+
+    // the script name matches by selector depth, created on first use
+    private volatile List<Map<String, Integer>> selectorMatches;
+
     /**
      * Creates a <code>ResourceCollector</code> for the given
      * <code>request</code>. If the request is a GET or HEAD request, a
@@ -134,7 +170,7 @@ public class ResourceCollector extends AbstractResourceCollector {
         this.suffExtMethod = suffExt + suffMethod;
 
         // create the hash code once
-        final String key = methodName + ':' + baseResourceType + ':'
+        final String key = methodName + ':' + this.baseResourceType + ':'
             + extension + "::"
             + (this.resourceType == null ? "" : this.resourceType) + ':'
             + (this.resourceSuperType == null ? "" : this.resourceSuperType);
@@ -183,6 +219,224 @@ public class ResourceCollector extends AbstractResourceCollector {
             this.hashCode = key.hashCode();
     }
 
+    /**
+     * Creates a <code>ResourceCollector</code> from the properties of the
+     * request which are part of the cache key.
+     */
+    private ResourceCollector(final String baseResourceType,
+            final String resourceType,
+            final String resourceSuperType,
+            final String extension,
+            final String[] executionPaths,
+            final boolean isGet,
+            final boolean isDefaultExtension,
+            final String methodName,
+            final String[] selectors) {
+        super(baseResourceType, resourceType, resourceSuperType,
+                extension, executionPaths);
+        this.methodName = methodName;
+
+        this.suffExt = "." + extension;
+        this.suffMethod = "." + methodName;
+        this.suffExtMethod = suffExt + suffMethod;
+
+        this.requestSelectors = selectors;
+        this.numRequestSelectors = requestSelectors.length;
+
+        this.isGet = isGet;
+        this.isDefaultExtension = isDefaultExtension;
+
+        // create the hash code once
+        final String key = methodName + ':' + baseResourceType + ':'
+            + extension + ':' + StringUtils.join(requestSelectors, '.') + ':'
+            + (this.resourceType == null ? "" : this.resourceType) + ':'
+            + (this.resourceSuperType == null ? "" : this.resourceSuperType);
+        this.hashCode = key.hashCode();
+    }
+
+    /**
+     * Returns a copy of this collector whose properties are interned into
+     * the given table. The copy shares the strings of the table and is
+     * compared by the symbol ids with the other collectors interned into
+     * the same table. It keeps the locations and candidate extensions
+     * collected by this collector, so it is invalidated like this collector.
+     *
+     * @param table The symbol table
+     * @return The copy or this collector if the table is full
+     */
+    public ResourceCollector intern(final SymbolTable table) {
+        final int[] ids = getSymbolIds(table);
+        if ( ids == null ) {
+            return this;
+        }
+        final String[] selectors = new String[numRequestSelectors];
+        for(int i = 0; i < numRequestSelectors; i++) {
+            selectors[i] = table.getSymbol(ids[SYMBOL_SELECTORS + i]);
+        }
+        final ResourceCollector copy = new ResourceCollector(table.getSymbol(ids[0]),
+                table.getSymbol(ids[1]), table.getSymbol(ids[2]), table.getSymbol(ids[3]),
+                executionPaths, isGet, isDefaultExtension, table.getSymbol(ids[4]), selectors);
+        copy.symbolTable = table;
+        copy.symbolIds = ids;
+        copy.copyCollectedState(this);
+        return copy;
+    }
+
+    private int[] getSymbolIds(final SymbolTable table) {
+        final String[] symbols = new String[] {baseResourceType, resourceType, resourceSuperType, extension, methodName};
+        final int[] ids = new int[SYMBOL_SELECTORS + numRequestSelectors];
+        for(int i = 0; i < ids.length; i++) {
+            if ( i == SYMBOL_FLAGS ) {
+                ids[i] = (isGet ? 1 : 0) | (isDefaultExtension ? 2 : 0);
+                continue;
+            }
+            final String symbol = i < SYMBOL_FLAGS ? symbols[i] : requestSelectors[i - SYMBOL_SELECTORS];
+            ids[i] = table.intern(symbol);
+            if ( ids[i] == SymbolTable.UNKNOWN ) {
+                return null;
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Writes the properties which are part of the cache key, so the
+     * collector can be recreated by {@link #read(DataInput, String[])}.
+     *
+     * @param out The output to write to
+     * @throws IOException If writing fails
+     */
+    public void write(final DataOutput out) throws IOException {
+        writeString(out, baseResourceType);
+        writeString(out, resourceType);
+        writeString(out, resourceSuperType);
+        writeString(out, extension);
+        writeString(out, methodName);
+        out.writeBoolean(isGet);
+        out.writeBoolean(isDefaultExtension);
+        out.writeInt(numRequestSelectors);
+        for(final String selector : requestSelectors) {
+            writeString(out, selector);
+        }
+    }
+
+    /**
+     * Reads a collector written by {@link #write(DataOutput)}.
+     *
+     * @param in The input to read from
+     * @param executionPaths The allowed execution paths
+     * @return The collector
+     * @throws IOException If reading fails
+     */
+    public static ResourceCollector read(final DataInput in, final String[] executionPaths) throws IOException {
+        final String baseResourceType = readString(in);
+        final String resourceType = readString(in);
+        final String resourceSuperType = readString(in);
+        final String extension = readString(in);
+        final String methodName = readString(in);
+        final boolean isGet = in.readBoolean();
+        final boolean isDefaultExtension = in.readBoolean();
+        final int numSelectors = in.readInt();
+        if ( numSelectors < 0 || numSelectors > MAX_SELECTORS ) {
+            throw new IOException("Invalid number of selectors " + numSelectors);
+        }
+        final String[] selectors = new String[numSelectors];
+        for(int i = 0; i < numSelectors; i++) {
+            selectors[i] = readString(in);
+        }
+        return new ResourceCollector(baseResourceType, resourceType, resourceSuperType, extension,
+                executionPaths, isGet, isDefaultExtension, methodName, selectors);
+    }
+
+    private static void writeString(final DataOutput out, final String value) throws IOException {
+        out.writeBoolean(value != null);
+        if ( value != null ) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(final DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * Returns the key of the vocabulary of the resource type hierarchy
+     * of this collector.
+     */
+    public String getVocabularyKey() {
+        return ScriptNameVocabulary.getKey(baseResourceType, resourceType, resourceSuperType);
+    }
+
+    /**
+     * Creates the vocabulary of the resource type hierarchy of this collector.
+     * @param resolver The <code>ResourceResolver</code> to find the locations
+     * @return The vocabulary
+     */
+    public ScriptNameVocabulary createVocabulary(final ResourceResolver resolver) {
+        return new ScriptNameVocabulary(baseResourceType, resourceType, resourceSuperType, resolver);
+    }
+
+    /**
+     * Creates the vocabulary of the resource type hierarchy of this collector,
+     * which reads the folders of the locations concurrently.
+     * @param resolver The <code>ResourceResolver</code> to find the locations
+     * @param probes The probes to read the locations or <code>null</code>
+     * @return The vocabulary
+     */
+    public ScriptNameVocabulary createVocabulary(final ResourceResolver resolver, final LocationProbes probes) {
+        return new ScriptNameVocabulary(baseResourceType, resourceType, resourceSuperType, resolver, probes);
+    }
+
+    /**
+     * Returns a collector finding the same servlets and scripts as this
+     * collector, which only keeps the request properties used by the names in
+     * the vocabulary of the resource type hierarchy. Selectors from the first
+     * one which neither names a script nor a folder are dropped. An extension
+     * or method name which is not used by any name is replaced by a
+     * placeholder, so all requests with such an extension or method share
+     * one collector. As HEAD and GET requests are both handled as GET
+     * requests, they share the collector if neither method name is used.
+     *
+     * @param vocabulary The vocabulary of the resource type hierarchy of
+     *            this collector
+     * @param resolver The <code>ResourceResolver</code> to read the names
+     *            of the vocabulary
+     * @return The canonical collector, which might be this collector
+     */
+    public ResourceCollector canonicalize(final ScriptNameVocabulary vocabulary, final ResourceResolver resolver) {
+        // whether the extension and method name are used by any visited folder,
+        // the placeholder is kept as it is
+        boolean extensionUsed = extension == null || UNKNOWN_NAME.equals(extension);
+        boolean methodNameUsed = UNKNOWN_NAME.equals(methodName);
+        int depth = 0;
+        while ( true ) {
+            final Set<String> folderNames = vocabulary.getNames(resolver, requestSelectors, depth);
+            extensionUsed = extensionUsed || folderNames.contains(extension);
+            methodNameUsed = methodNameUsed || folderNames.contains(methodName);
+            if ( depth == numRequestSelectors ) {
+                break;
+            }
+            final String selector = requestSelectors[depth];
+            if ( selector == null || selector.isEmpty() || selector.indexOf('/') != -1 ) {
+                // a relative path selector might walk the tree in other ways
+                return this;
+            }
+            if ( !folderNames.contains(selector) ) {
+                break;
+            }
+            depth++;
+        }
+        if ( depth == numRequestSelectors && extensionUsed && methodNameUsed ) {
+            return this;
+        }
+        final String canonicalExtension = extensionUsed ? extension : UNKNOWN_NAME;
+        final String canonicalMethodName = methodNameUsed ? methodName : UNKNOWN_NAME;
+        final String[] selectors = new String[depth];
+        System.arraycopy(requestSelectors, 0, selectors, 0, depth);
+        return new ResourceCollector(baseResourceType, resourceType, resourceSuperType, canonicalExtension,
+                executionPaths, isGet, isDefaultExtension, canonicalMethodName, selectors);
+    }
+
     @Override
     protected void getWeightedResources(final Set<WeightedResource> resources,
             final Resource location) {
@@ -198,52 +452,36 @@ public class ResourceCollector extends AbstractResourceCollector {
                     ? requestSelectors[selIdx]
                     : null;
 
+            final Map<String, Integer> matches = getScriptNameMatches(parentName, selIdx);
+            ResolutionTrace.countListChildren();
             Iterator<Resource> children = resolver.listChildren(current);
             while (children.hasNext()) {
                 Resource child = children.next();
 
                 if (!SlingServletResolver.isPathAllowed(child.getPath(), this.executionPaths)) {
+                    ResolutionTrace.reject(child.getPath(), ResolutionTrace.REJECT_EXECUTION_PATHS);
                     continue;
                 }
                 String scriptName = child.getName();
                 int lastDot = scriptName.lastIndexOf('.');
                 if (lastDot < 0) {
                     // no extension in the name, this is not a script
+                    ResolutionTrace.reject(child.getPath(), ResolutionTrace.REJECT_NO_EXTENSION);
                     continue;
                 }
 
                 scriptName = scriptName.substring(0, lastDot);
 
-                if (isGet
-                    && checkScriptName(scriptName, selector, parentName,
-                        suffExt, null, resources, child, selIdx)) {
-                    continue;
-                }
-
-                if (checkScriptName(scriptName, selector, parentName,
-                    suffExtMethod, suffMethod, resources, child, selIdx)) {
-                    continue;
-                }
-
-                // SLING-754: Not technically really correct because
-                // the request extension is only optional in the script
-                // name for HTML methods, but we keep this for backwards
-                // compatibility.
-                if (selector != null
-                    && matches(scriptName, selector, suffMethod)) {
-                    addWeightedResource(resources, child, selIdx + 1,
-                        WeightedResource.WEIGHT_NONE);
-                    continue;
-                }
-
-                if (scriptName.equals(methodName)) {
-                    addWeightedResource(resources, child, selIdx,
-                        WeightedResource.WEIGHT_NONE);
-                    continue;
+                final Integer match = matches.get(scriptName);
+                if (match != null) {
+                    addWeightedResource(resources, child, match >> 2, match & WEIGHT_MASK);
+                } else {
+                    ResolutionTrace.reject(child.getPath(), ResolutionTrace.REJECT_NAME);
                 }
             }
 
             if (selector != null) {
+                ResolutionTrace.countGetResource();
                 current = resolver.getResource(current, selector);
                 parentName = selector;
                 selIdx++;
@@ -252,94 +490,276 @@ public class ResourceCollector extends AbstractResourceCollector {
 
         // special treatment for servlets registered with neither a method
         // name nor extensions and selectors
-        addLocationServlet(resources, location);
+        addLocationServlet(resources, resolver, location.getPath());
+    }
+
+    /**
+     * Returns the same candidates as {@link #getServlets(ResourceResolver, List)}
+     * from the dispatch table kept by the vocabulary of the resource type
+     * hierarchy of this collector. Only the matching candidates are read from
+     * the repository. Requests with selectors which might walk the tree in
+     * other ways than by folder names are collected from the repository.
+     *
+     * @param resolver The <code>ResourceResolver</code> to read the candidates
+     * @param scriptExtensions The script extensions by priority
+     * @param vocabulary The vocabulary of the resource type hierarchy of
+     *            this collector
+     * @return The candidates in their order
+     */
+    public Collection<Resource> getServlets(final ResourceResolver resolver,
+            final List<String> scriptExtensions,
+            final ScriptNameVocabulary vocabulary) {
+        return toList(iterateServlets(resolver, scriptExtensions, vocabulary));
+    }
+
+    /**
+     * Returns the same candidates as
+     * {@link #getServlets(ResourceResolver, List, ScriptNameVocabulary)},
+     * but walks the locations lazily, see
+     * {@link #iterateServlets(ResourceResolver, List)}.
+     *
+     * @param resolver The <code>ResourceResolver</code> to read the candidates
+     * @param scriptExtensions The script extensions by priority
+     * @param vocabulary The vocabulary of the resource type hierarchy of
+     *            this collector
+     * @return The candidates in their order
+     */
+    public Iterator<Resource> iterateServlets(final ResourceResolver resolver,
+            final List<String> scriptExtensions,
+            final ScriptNameVocabulary vocabulary) {
+        for (final String selector : requestSelectors) {
+            if (selector == null || selector.isEmpty() || selector.indexOf('/') != -1) {
+                return iterateServlets(resolver, scriptExtensions);
+            }
+        }
+        final List<String> locations = vocabulary.getLocations();
+        return new LazyCandidates(scriptExtensions) {
+
+            private int locationIndex;
+
+            @Override
+            protected String walkNextLocation(final SortedSet<WeightedResource> resources) {
+                if (locationIndex == locations.size()) {
+                    return null;
+                }
+                final int i = locationIndex++;
+                getWeightedResources(resources, resolver, vocabulary, i);
+                return locations.get(i);
+            }
+        };
+    }
+
+    /**
+     * Adds the candidates of one location of the dispatch table.
+     */
+    private void getWeightedResources(final Set<WeightedResource> resources,
+            final ResourceResolver resolver,
+            final ScriptNameVocabulary vocabulary,
+            final int locationIndex) {
+        final String location = vocabulary.getLocations().get(locationIndex);
+        String folder = "";
+        String parentName = ResourceUtil.getName(location);
+
+        int selIdx = 0;
+        List<String> childPaths = vocabulary.getChildPaths(resolver, folder, locationIndex);
+        while (childPaths != null) {
+            final String selector = (selIdx < numRequestSelectors)
+                    ? requestSelectors[selIdx]
+                    : null;
+
+            final Map<String, Integer> matches = getScriptNameMatches(parentName, selIdx);
+            for (final String childPath : childPaths) {
+                if (!SlingServletResolver.isPathAllowed(childPath, this.executionPaths)) {
+                    ResolutionTrace.reject(childPath, ResolutionTrace.REJECT_EXECUTION_PATHS);
+                    continue;
+                }
+                final String name = ResourceUtil.getName(childPath);
+                final int lastDot = name.lastIndexOf('.');
+                if (lastDot < 0) {
+                    // no extension in the name, this is not a script
+                    ResolutionTrace.reject(childPath, ResolutionTrace.REJECT_NO_EXTENSION);
+                    continue;
+                }
+
+                final Integer match = matches.get(name.substring(0, lastDot));
+                if (match != null) {
+                    ResolutionTrace.countGetResource();
+                    final Resource child = resolver.getResource(childPath);
+                    if (child != null) {
+                        addWeightedResource(resources, child, match >> 2, match & WEIGHT_MASK);
+                    }
+                } else {
+                    ResolutionTrace.reject(childPath, ResolutionTrace.REJECT_NAME);
+                }
+            }
+
+            if (selector == null) {
+                break;
+            }
+            folder = folder.concat("/").concat(selector);
+            parentName = selector;
+            selIdx++;
+            childPaths = vocabulary.getChildPaths(resolver, folder, locationIndex);
+        }
+
+        if (vocabulary.hasLocationServlet(resolver, locationIndex)) {
+            addLocationServlet(resources, resolver, location);
+        }
+    }
+
+    /**
+     * A candidate matching all selectors with the highest method/prefix
+     * weight can't be beaten by a candidate of a later location, as equally
+     * weighted candidates are ordered by the ordinal.
+     */
+    @Override
+    protected boolean isBestPossible(final WeightedResource candidate) {
+        return candidate.getNumSelectors() == numRequestSelectors
+            && candidate.getMethodPrefixWeight() == WeightedResource.WEIGHT_EXTENSION + WeightedResource.WEIGHT_PREFIX;
     }
 
     /**
-     * Checks whether the <code>scriptName</code> matches a certain number of
-     * combinations of <code>selector</code>, <code>parentName</code>,
-     * <code>suffix</code> and <code>htmlSuffix</code>. If a match is found the
-     * {@link #addWeightedResource(Set, Resource, int, int)} method is called to
-     * register the found script resource with appropriate selection weight.
+     * Returns the script names matching the request in a folder reached by
+     * <code>selIdx</code> selectors, each mapped to the number of matched
+     * selectors shifted left by two bits combined with the method/prefix
+     * weight. If a name matches in several ways, the first way in the order
+     * of the checks applies, which are:
+     * <ol>
+     * <li>For GET requests, the checks of
+     * {@link #addScriptNameMatches(Map, String, String, String, String, int)}
+     * with the extension</li>
+     * <li>The same checks with the extension and the method name</li>
+     * <li>The selector followed by the method name (SLING-754)</li>
+     * <li>The method name</li>
+     * </ol>
      *
-     * @param scriptName The name of the script (without the script extension)
-     *            to check for compliance.
-     * @param selector The current selector to check for in the script name; may
-     *            be <code>null</code>.
-     * @param parentName The name of the parent folder; must not be
-     *            <code>null</code>.
+     * @param selector The current selector; may be <code>null</code>.
+     * @param parentName The name of the folder; must not be <code>null</code>.
+     * @param selIdx The selector weight value
+     * @return The matches by script name (without the script extension)
+     */
+    private Map<String, Integer> getScriptNameMatches(final String selector,
+            final String parentName, final int selIdx) {
+        final Map<String, Integer> matches = new HashMap<>();
+        if (isGet) {
+            addScriptNameMatches(matches, selector, parentName, suffExt, null,
+                selIdx);
+        }
+
+        addScriptNameMatches(matches, selector, parentName, suffExtMethod,
+            suffMethod, selIdx);
+
+        // SLING-754: Not technically really correct because
+        // the request extension is only optional in the script
+        // name for HTML methods, but we keep this for backwards
+        // compatibility.
+        if (selector != null) {
+            addMatch(matches, selector.concat(suffMethod), selIdx + 1,
+                WeightedResource.WEIGHT_NONE);
+        }
+
+        addMatch(matches, methodName, selIdx, WeightedResource.WEIGHT_NONE);
+        return matches;
+    }
+
+    /**
+     * Returns the script name matches for every folder reached by at least
+     * one selector, the folder reached by <code>n</code> selectors is at
+     * index <code>n - 1</code>.
+     */
+    private List<Map<String, Integer>> getSelectorMatches() {
+        List<Map<String, Integer>> result = this.selectorMatches;
+        if (result == null) {
+            result = new ArrayList<>(numRequestSelectors);
+            for (int selIdx = 1; selIdx <= numRequestSelectors; selIdx++) {
+                final String selector = (selIdx < numRequestSelectors)
+                        ? requestSelectors[selIdx]
+                        : null;
+                result.add(getScriptNameMatches(selector, requestSelectors[selIdx - 1], selIdx));
+            }
+            this.selectorMatches = result;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the script name matches for the folder reached by
+     * <code>selIdx</code> selectors.
+     */
+    private Map<String, Integer> getScriptNameMatches(final String parentName,
+            final int selIdx) {
+        if (selIdx > 0) {
+            return getSelectorMatches().get(selIdx - 1);
+        }
+        return getScriptNameMatches(numRequestSelectors > 0 ? requestSelectors[0] : null,
+            parentName, 0);
+    }
+
+    /**
+     * Adds the script names which consist of the <code>selector</code>, the
+     * <code>parentName</code> or nothing and the <code>suffix</code> or
+     * <code>htmlSuffix</code>:
+     * <ol>
+     * <li>The selector followed by the suffix</li>
+     * <li>The parent name followed by the suffix</li>
+     * <li>The suffix alone</li>
+     * <li>For the default extension, the selector followed by the HTML suffix</li>
+     * <li>For the default extension, the parent name followed by the HTML suffix</li>
+     * </ol>
+     *
+     * @param matches The matches to add to
+     * @param selector The current selector; may be <code>null</code>.
+     * @param parentName The name of the folder; must not be <code>null</code>.
      * @param suffix Expected second part of the script name (besides either the
      *            selector or the parent name); must not be <code>null</code>;
      *            applicable for any request method.
      * @param htmlSuffix Expected second part of the script name (besides either
      *            the selector or the parent name); may be <code>null</code>;
      *            applicable for GET or HEAD methods only.
-     * @param resources The set of weighted resource to which the new weighted
-     *            resource is added if a match is found.
-     * @param child The resource representing the script
      * @param selIdx The selector weight value
-     * @return <code>true</code> if a match has been found and a weighted
-     *         resource has been added to the <code>resources</code> set.
      */
-    private boolean checkScriptName(final String scriptName,
+    private void addScriptNameMatches(final Map<String, Integer> matches,
             final String selector, final String parentName,
             final String suffix, final String htmlSuffix,
-            final Set<WeightedResource> resources, final Resource child,
             final int selIdx) {
-        if (selector != null && matches(scriptName, selector, suffix)) {
-            addWeightedResource(resources, child, selIdx + 1,
+        if (selector != null) {
+            addMatch(matches, selector.concat(suffix), selIdx + 1,
                 WeightedResource.WEIGHT_EXTENSION);
-            return true;
         }
 
-        if (matches(scriptName, parentName, suffix)) {
-            addWeightedResource(resources, child, selIdx,
-                WeightedResource.WEIGHT_EXTENSION
-                    + WeightedResource.WEIGHT_PREFIX);
-            return true;
-        }
+        addMatch(matches, parentName.concat(suffix), selIdx,
+            WeightedResource.WEIGHT_EXTENSION + WeightedResource.WEIGHT_PREFIX);
 
-        if (scriptName.equals(suffix.substring(1))) {
-            addWeightedResource(resources, child, selIdx,
-                WeightedResource.WEIGHT_EXTENSION);
-            return true;
-        }
+        addMatch(matches, suffix.substring(1), selIdx,
+            WeightedResource.WEIGHT_EXTENSION);
 
         if (isDefaultExtension) {
-            if (selector != null && matches(scriptName, selector, htmlSuffix)) {
-                addWeightedResource(resources, child, selIdx + 1,
-                    WeightedResource.WEIGHT_NONE);
-                return true;
+            if (selector != null) {
+                addMatch(matches, htmlSuffix == null ? selector : selector.concat(htmlSuffix),
+                    selIdx + 1, WeightedResource.WEIGHT_NONE);
             }
 
-            if (matches(scriptName, parentName, htmlSuffix)) {
-                addWeightedResource(resources, child, selIdx,
-                    WeightedResource.WEIGHT_PREFIX);
-                return true;
-            }
+            addMatch(matches, htmlSuffix == null ? parentName : parentName.concat(htmlSuffix),
+                selIdx, WeightedResource.WEIGHT_PREFIX);
         }
-        return false;
     }
 
-    private boolean matches(final String scriptName, final String name,
-            String suffix) {
-        if (suffix == null) {
-            return scriptName.equals(name);
+    private static void addMatch(final Map<String, Integer> matches,
+            final String scriptName, final int numSelectors,
+            final int methodPrefixWeight) {
+        // the first match of a name applies
+        if (!matches.containsKey(scriptName)) {
+            matches.put(scriptName, (numSelectors << 2) | methodPrefixWeight);
         }
-        final int lenScriptName = scriptName.length();
-        final int lenName = name.length();
-        final int lenSuffix = suffix.length();
-        return scriptName.regionMatches(0, name, 0, lenName)
-            && scriptName.regionMatches(lenName, suffix, 0, lenSuffix)
-            && lenScriptName == (lenName + lenSuffix);
     }
 
     private void addLocationServlet(final Set<WeightedResource> resources,
-            final Resource location) {
-        final String path = location.getPath()
+            final ResourceResolver resolver, final String location) {
+        final String path = location
             + ServletResourceProviderFactory.SERVLET_PATH_EXTENSION;
         if (SlingServletResolver.isPathAllowed(path, this.executionPaths)) {
-            final Resource servlet = location.getResourceResolver().getResource(
+            ResolutionTrace.countGetResource();
+            final Resource servlet = resolver.getResource(
                 path);
             if (servlet != null) {
                 addWeightedResource(resources, servlet, 0,
@@ -356,8 +776,12 @@ public class ResourceCollector extends AbstractResourceCollector {
         if (obj == this) {
             return true;
         }
+        final ResourceCollector o = (ResourceCollector) obj;
+        // compare the symbol ids if both are taken from the same table
+        if (symbolIds != null && o.symbolIds != null && symbolTable == o.symbolTable) {
+            return Arrays.equals(symbolIds, o.symbolIds);
+        }
         if (super.equals(obj)) {
-            final ResourceCollector o = (ResourceCollector) obj;
             if (isGet == o.isGet && isDefaultExtension == o.isDefaultExtension
                 && numRequestSelectors == o.numRequestSelectors
                 && stringEquals(methodName, o.methodName)) {
@@ -373,4 +797,20 @@ public class ResourceCollector extends AbstractResourceCollector {
         }
         return false;
     }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("ResourceCollector[type=");
+        sb.append(resourceType);
+        if (resourceSuperType != null) {
+            sb.append(", superType=").append(resourceSuperType);
+        }
+        sb.append(", method=").append(methodName);
+        if (numRequestSelectors > 0) {
+            sb.append(", selectors=").append(StringUtils.join(requestSelectors, '.', 0, numRequestSelectors));
+        }
+        sb.append(", extension=").append(extension);
+        sb.append(']');
+        return sb.toString();
+    }
 }
@@ -0,0 +1,353 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.servlets.resolver.internal.helper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceUtil;
+import org.apache.sling.api.resource.SyntheticResource;
+import org.apache.sling.servlets.resolver.internal.resource.ServletResourceProviderFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The <code>ScriptNameVocabulary</code> keeps the names used by the scripts
+ * and servlets of a resource type hierarchy. A name is any part of a resource
+ * name in one of the locations of the hierarchy or in one of the folders below
+ * a location which is reached by a sequence of selectors.
+ * <p>
+ * A selector, extension or method which is not part of the vocabulary of the
+ * folders visited for a request cannot be matched by any script or servlet.
+ * Such requests can share their cache entry, see
+ * {@link ResourceCollector#canonicalize(ScriptNameVocabulary, ResourceResolver)}.
+ * <p>
+ * The vocabulary also keeps the paths of the children of these folders by
+ * location, which is the dispatch table of the hierarchy: a trie keyed by
+ * the selector path. Every request for the hierarchy can be answered from
+ * it without listing the repository again, see
+ * {@link ResourceCollector#getServlets(ResourceResolver, List, ScriptNameVocabulary)}.
+ * The folders are read on first use and dropped with the vocabulary once
+ * a change affects it.
+ */
+public class ScriptNameVocabulary {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ScriptNameVocabulary.class);
+
+    // the locations of the resource type hierarchy, without trailing slash
+    private final List<String> locations;
+
+    // the folders by path, the path is relative to the locations
+    private final Map<String, Folder> folders = new ConcurrentHashMap<>();
+
+    // the probes to read the locations concurrently, null to read them one after the other
+    private final LocationProbes probes;
+
+    public ScriptNameVocabulary(final String baseResourceType,
+            final String resourceType,
+            final String resourceSuperType,
+            final ResourceResolver resolver) {
+        this(baseResourceType, resourceType, resourceSuperType, resolver, null);
+    }
+
+    /**
+     * Creates the vocabulary of a resource type hierarchy.
+     *
+     * @param baseResourceType The base resource type
+     * @param resourceType The resource type
+     * @param resourceSuperType The resource super type, might be <code>null</code>
+     * @param resolver The resource resolver to find the locations
+     * @param probes The probes to read the folders of the locations
+     *            concurrently, or <code>null</code> to read them one after
+     *            the other
+     */
+    public ScriptNameVocabulary(final String baseResourceType,
+            final String resourceType,
+            final String resourceSuperType,
+            final ResourceResolver resolver,
+            final LocationProbes probes) {
+        this.probes = probes;
+        final List<String> paths = new ArrayList<>();
+        final Iterator<String> iter = new LocationIterator(resourceType, resourceSuperType, baseResourceType, resolver);
+        while ( iter.hasNext() ) {
+            final String location = iter.next();
+            paths.add(location.endsWith("/") ? location.substring(0, location.length() - 1) : location);
+        }
+        this.locations = paths;
+    }
+
+    /**
+     * Returns the key of the vocabulary for a resource type hierarchy
+     */
+    public static String getKey(final String baseResourceType,
+            final String resourceType,
+            final String resourceSuperType) {
+        return (baseResourceType == null ? "" : baseResourceType) + ':'
+                + (resourceType == null ? "" : resourceType) + ':'
+                + (resourceSuperType == null ? "" : resourceSuperType);
+    }
+
+    /**
+     * Returns the names used in the folders reached by the first
+     * <code>depth</code> selectors. The names are the resource names
+     * of the children of these folders and every dot separated part
+     * of them.
+     *
+     * @param resolver The resource resolver to read the folders
+     * @param selectors The request selectors
+     * @param depth The number of selectors leading to the folders
+     * @return The names
+     */
+    public Set<String> getNames(final ResourceResolver resolver, final String[] selectors, final int depth) {
+        Folder folder = getFolder(resolver, "");
+        for(int i = 0; i < depth; i++) {
+            folder = getChild(resolver, folder, selectors[i]);
+        }
+        return folder.names;
+    }
+
+    /**
+     * Returns the locations of the hierarchy, without trailing slash.
+     */
+    public List<String> getLocations() {
+        return this.locations;
+    }
+
+    /**
+     * Returns the paths of the children of a folder at one location.
+     *
+     * @param resolver The resource resolver to read the folder
+     * @param folder The path of the folder relative to the locations, the
+     *            empty string for the locations themselves
+     * @param locationIndex The index of the location
+     * @return The paths of the children in the order of the repository or
+     *         <code>null</code> if the folder does not exist at the location
+     */
+    public List<String> getChildPaths(final ResourceResolver resolver, final String folder, final int locationIndex) {
+        return getFolder(resolver, folder).childPaths.get(locationIndex);
+    }
+
+    /**
+     * Checks whether a servlet is registered for a location itself, with
+     * neither a method name nor extensions and selectors.
+     *
+     * @param resolver The resource resolver to read the locations
+     * @param locationIndex The index of the location
+     * @return <code>true</code> if there is such a servlet
+     */
+    public boolean hasLocationServlet(final ResourceResolver resolver, final int locationIndex) {
+        return getFolder(resolver, "").locationServlets.get(locationIndex);
+    }
+
+    private Folder getFolder(final ResourceResolver resolver, final String folder) {
+        final Folder result = this.folders.get(folder);
+        if ( result != null ) {
+            return result;
+        }
+        // each folder is read once, concurrent requests for it wait for the read
+        return this.folders.computeIfAbsent(folder, new Function<String, Folder>() {
+
+            @Override
+            public Folder apply(final String path) {
+                return readFolder(resolver, path);
+            }
+        });
+    }
+
+    private Folder getChild(final ResourceResolver resolver, final Folder parent, final String name) {
+        Folder child = parent.children.get(name);
+        if ( child == null ) {
+            child = getFolder(resolver, parent.path.concat("/").concat(name));
+            parent.children.putIfAbsent(name, child);
+        }
+        return child;
+    }
+
+    private Folder readFolder(final ResourceResolver resolver, final String folder) {
+        final List<LocationFolder> locationFolders = new ArrayList<>(this.locations.size());
+        final LocationProbes localProbes = this.probes;
+        boolean interrupted = false;
+        if ( localProbes != null && this.locations.size() > 1 ) {
+            // read the locations concurrently, each with its own resolver
+            final List<Callable<LocationFolder>> tasks = new ArrayList<>(this.locations.size());
+            for(final String location : this.locations) {
+                tasks.add(new Callable<LocationFolder>() {
+
+                    @Override
+                    public LocationFolder call() throws LoginException {
+                        final ResourceResolver probeResolver = localProbes.acquire(resolver);
+                        try {
+                            return readLocationFolder(probeResolver, location, folder);
+                        } finally {
+                            localProbes.release(probeResolver);
+                        }
+                    }
+                });
+            }
+            try {
+                int i = 0;
+                for(final Future<LocationFolder> future : localProbes.getExecutor().invokeAll(tasks)) {
+                    LocationFolder result;
+                    try {
+                        result = future.get();
+                    } catch ( final ExecutionException ee ) {
+                        LOGGER.debug("Unable to read location " + this.locations.get(i) + " concurrently", ee.getCause());
+                        result = readLocationFolder(resolver, this.locations.get(i), folder);
+                    }
+                    locationFolders.add(result);
+                    i++;
+                }
+            } catch ( final InterruptedException ie ) {
+                // read the locations on this thread, the interrupt is restored afterwards
+                interrupted = true;
+                locationFolders.clear();
+            } catch ( final RejectedExecutionException ree ) {
+                // the executor has been shut down
+                locationFolders.clear();
+            }
+        }
+        if ( locationFolders.isEmpty() ) {
+            for(final String location : this.locations) {
+                locationFolders.add(readLocationFolder(resolver, location, folder));
+            }
+        }
+        if ( interrupted ) {
+            Thread.currentThread().interrupt();
+        }
+
+        // merge the locations in their order
+        final Set<String> names = new HashSet<>();
+        final List<List<String>> childPaths = new ArrayList<>(this.locations.size());
+        final List<Boolean> locationServlets = new ArrayList<>(this.locations.size());
+        for(final LocationFolder locationFolder : locationFolders) {
+            if ( locationFolder.childPaths != null ) {
+                for(final String path : locationFolder.childPaths) {
+                    final String name = ResourceUtil.getName(path);
+                    names.add(name);
+                    Collections.addAll(names, name.split("\\."));
+                }
+            }
+            childPaths.add(locationFolder.childPaths);
+            locationServlets.add(locationFolder.locationServlet);
+        }
+        return new Folder(folder, names, childPaths, locationServlets);
+    }
+
+    private static LocationFolder readLocationFolder(final ResourceResolver resolver,
+            final String location,
+            final String folder) {
+        final String path = location.concat(folder);
+        boolean locationServlet = false;
+        if ( folder.isEmpty() ) {
+            ResolutionTrace.countGetResource();
+            locationServlet = resolver.getResource(path.concat(ServletResourceProviderFactory.SERVLET_PATH_EXTENSION)) != null;
+        }
+        ResolutionTrace.countGetResource();
+        Resource current = resolver.getResource(path);
+        if ( current == null ) {
+            // the collector walks a location even if it does not exist
+            if ( !folder.isEmpty() ) {
+                return new LocationFolder(null, false);
+            }
+            current = new SyntheticResource(resolver, path, "$synthetic$");
+        }
+        final List<String> paths = new ArrayList<>();
+        ResolutionTrace.countListChildren();
+        final Iterator<Resource> children = resolver.listChildren(current);
+        while ( children.hasNext() ) {
+            paths.add(children.next().getPath());
+        }
+        return new LocationFolder(paths, locationServlet);
+    }
+
+    /**
+     * Checks whether a change at the given path might alter the vocabulary.
+     * This is the case if the path is a location of the hierarchy, a resource
+     * below a location or a parent of a location.
+     *
+     * @param path The absolute path of the changed resource
+     * @return {@code true} if the vocabulary might be affected
+     */
+    public boolean isAffectedBy(final String path) {
+        for(final String location : this.locations) {
+            if ( AbstractResourceCollector.isSameOrDescendant(path, location)
+                 || AbstractResourceCollector.isSameOrDescendant(location, path)
+                 || path.startsWith(location.concat(".")) ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The names and child paths of a folder relative to the locations.
+     */
+    private static final class Folder {
+
+        final String path;
+
+        final Set<String> names;
+
+        // by location index, null if the folder does not exist at the location
+        final List<List<String>> childPaths;
+
+        // by location index, only for the locations themselves
+        final List<Boolean> locationServlets;
+
+        // the folders reached by one more selector, by selector
+        final Map<String, Folder> children = new ConcurrentHashMap<>();
+
+        Folder(final String path, final Set<String> names, final List<List<String>> childPaths, final List<Boolean> locationServlets) {
+            this.path = path;
+            this.names = names;
+            this.childPaths = childPaths;
+            this.locationServlets = locationServlets;
+        }
+    }
+
+    /**
+     * The child paths of a folder at one location.
+     */
+    private static final class LocationFolder {
+
+        // null if the folder does not exist at the location
+        final List<String> childPaths;
+
+        final boolean locationServlet;
+
+        LocationFolder(final List<String> childPaths, final boolean locationServlet) {
+            this.childPaths = childPaths;
+            this.locationServlet = locationServlet;
+        }
+    }
+}
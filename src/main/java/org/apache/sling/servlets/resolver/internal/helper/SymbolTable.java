@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.servlets.resolver.internal.helper;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The <code>SymbolTable</code> assigns dense int ids to the resource types,
+ * selectors, extensions and methods used by the cache keys. Keys whose
+ * properties are interned into the same table are compared by their ids and
+ * share the string instances of the table.
+ * <p>
+ * The table is bounded, once it is full no further symbols are added. Ids
+ * are never reused, a table is replaced as a whole instead.
+ */
+public class SymbolTable {
+
+    /** The id of a symbol which is not part of the table. */
+    public static final int UNKNOWN = -1;
+
+    /** The id of <code>null</code>. */
+    public static final int NULL = 0;
+
+    // the ids by symbol
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+
+    // the maximum number of symbols
+    private final int maxSize;
+
+    // the symbols by id, written while holding the lock of this table
+    private volatile String[] symbols = new String[16];
+
+    // the number of ids, guarded by this
+    private int size = 1;
+
+    public SymbolTable(final int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns the id of the given symbol without adding it.
+     * @param symbol The symbol, might be <code>null</code>
+     * @return The id or {@link #UNKNOWN} if the symbol is not part of the table
+     */
+    public int getId(final String symbol) {
+        if ( symbol == null ) {
+            return NULL;
+        }
+        final Integer id = ids.get(symbol);
+        return id != null ? id : UNKNOWN;
+    }
+
+    /**
+     * Returns the id of the given symbol, adding it if the table is not full.
+     * @param symbol The symbol, might be <code>null</code>
+     * @return The id or {@link #UNKNOWN} if the table is full
+     */
+    public int intern(final String symbol) {
+        final int id = getId(symbol);
+        if ( id != UNKNOWN ) {
+            return id;
+        }
+        synchronized ( this ) {
+            final Integer existing = ids.get(symbol);
+            if ( existing != null ) {
+                return existing;
+            }
+            if ( size > maxSize ) {
+                return UNKNOWN;
+            }
+            String[] current = this.symbols;
+            if ( size == current.length ) {
+                current = Arrays.copyOf(current, current.length * 2);
+            }
+            current[size] = symbol;
+            this.symbols = current;
+            // publish the id after the symbol
+            ids.put(symbol, size);
+            return size++;
+        }
+    }
+
+    /**
+     * Returns the symbol for an id returned by this table.
+     * @param id The id
+     * @return The symbol
+     */
+    public String getSymbol(final int id) {
+        return this.symbols[id];
+    }
+}
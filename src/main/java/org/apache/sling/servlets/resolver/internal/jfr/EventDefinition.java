@@ -0,0 +1,203 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.servlets.resolver.internal.jfr;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The definition of a flight recorder event. The event type is created
+ * with the dynamic <code>jdk.jfr.EventFactory</code>, so the bundle can be
+ * built for and run on a JDK without the flight recorder. On such a JDK the
+ * event is never enabled.
+ * <p>
+ * Whether the event is enabled is only read from the event type if the state
+ * of a recording changes, see {@link #refresh()}.
+ */
+final class EventDefinition {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(EventDefinition.class);
+
+    private static final String[] CATEGORY = { "Apache Sling", "Servlet Resolver" };
+
+    private final String name;
+
+    // the event type, null if it could not be created
+    private final Object eventType;
+
+    // the event factory and its methods, null if the event type could not be created
+    private final Object factory;
+
+    private final Method isEnabledMethod;
+
+    private final Method newEventMethod;
+
+    private final Method setMethod;
+
+    private final Method commitMethod;
+
+    private final Method unregisterMethod;
+
+    // whether a recording records the event, updated by refresh
+    private volatile boolean enabled;
+
+    EventDefinition(final String name, final String label, final String description, final Field... fields) {
+        this.name = name;
+        Object eventTypeObject = null;
+        Object factoryObject = null;
+        Method isEnabled = null;
+        Method newEvent = null;
+        Method set = null;
+        Method commit = null;
+        Method unregister = null;
+        try {
+            final Class<?> eventFactoryClass = Class.forName("jdk.jfr.EventFactory");
+            final Class<?> eventClass = Class.forName("jdk.jfr.Event");
+            final Constructor<?> annotation = Class.forName("jdk.jfr.AnnotationElement").getConstructor(Class.class, Object.class);
+            final Constructor<?> valueDescriptor = Class.forName("jdk.jfr.ValueDescriptor").getConstructor(Class.class, String.class, List.class);
+
+            final List<Object> annotations = new ArrayList<>();
+            annotations.add(annotation.newInstance(Class.forName("jdk.jfr.Name"), name));
+            annotations.add(annotation.newInstance(Class.forName("jdk.jfr.Label"), label));
+            annotations.add(annotation.newInstance(Class.forName("jdk.jfr.Description"), description));
+            annotations.add(annotation.newInstance(Class.forName("jdk.jfr.Category"), CATEGORY));
+            annotations.add(annotation.newInstance(Class.forName("jdk.jfr.StackTrace"), Boolean.FALSE));
+            final List<Object> descriptors = new ArrayList<>();
+            for(final Field field : fields) {
+                final List<Object> fieldAnnotations = new ArrayList<>();
+                fieldAnnotations.add(annotation.newInstance(Class.forName("jdk.jfr.Label"), field.label));
+                if ( field.timespan ) {
+                    fieldAnnotations.add(annotation.newInstance(Class.forName("jdk.jfr.Timespan"), "NANOSECONDS"));
+                }
+                descriptors.add(valueDescriptor.newInstance(field.type, field.name, fieldAnnotations));
+            }
+            factoryObject = eventFactoryClass.getMethod("create", List.class, List.class).invoke(null, annotations, descriptors);
+            eventTypeObject = eventFactoryClass.getMethod("getEventType").invoke(factoryObject);
+            isEnabled = Class.forName("jdk.jfr.EventType").getMethod("isEnabled");
+            newEvent = eventFactoryClass.getMethod("newEvent");
+            set = eventClass.getMethod("set", int.class, Object.class);
+            commit = eventClass.getMethod("commit");
+            unregister = eventFactoryClass.getMethod("unregister");
+        } catch (final ClassNotFoundException e) {
+            LOGGER.debug("Flight recorder not available, event {} disabled", name);
+            eventTypeObject = null;
+        } catch (final Exception | LinkageError e) {
+            LOGGER.debug("Unable to create flight recorder event " + name, e);
+            eventTypeObject = null;
+        }
+        this.eventType = eventTypeObject;
+        this.factory = factoryObject;
+        this.isEnabledMethod = isEnabled;
+        this.newEventMethod = newEvent;
+        this.setMethod = set;
+        this.commitMethod = commit;
+        this.unregisterMethod = unregister;
+        refresh();
+    }
+
+    /**
+     * Checks whether the event is recorded by a running recording.
+     */
+    boolean isEnabled() {
+        return this.enabled;
+    }
+
+    /**
+     * Reads whether the event is enabled from the event type.
+     */
+    void refresh() {
+        boolean isEnabled = false;
+        if ( this.eventType != null ) {
+            try {
+                isEnabled = (Boolean) this.isEnabledMethod.invoke(this.eventType);
+            } catch (final Exception e) {
+                LOGGER.debug("Unable to check flight recorder event " + this.name, e);
+            }
+        }
+        this.enabled = isEnabled;
+    }
+
+    /**
+     * Removes the event type from the flight recorder. The event is not
+     * enabled anymore afterwards.
+     */
+    void unregister() {
+        this.enabled = false;
+        if ( this.eventType != null ) {
+            try {
+                this.unregisterMethod.invoke(this.factory);
+            } catch (final Exception e) {
+                LOGGER.debug("Unable to unregister flight recorder event " + this.name, e);
+            }
+        }
+    }
+
+    /**
+     * Commits an event.
+     * @param values The values of the fields, in the order of the fields
+     */
+    void commit(final Object... values) {
+        if ( this.eventType == null ) {
+            return;
+        }
+        try {
+            final Object event = this.newEventMethod.invoke(this.factory);
+            for(int i = 0; i < values.length; i++) {
+                this.setMethod.invoke(event, i, values[i]);
+            }
+            this.commitMethod.invoke(event);
+        } catch (final Exception e) {
+            LOGGER.debug("Unable to commit flight recorder event " + this.name, e);
+        }
+    }
+
+    /**
+     * A field of an event.
+     */
+    static final class Field {
+
+        final String name;
+
+        final Class<?> type;
+
+        final String label;
+
+        final boolean timespan;
+
+        private Field(final String name, final Class<?> type, final String label, final boolean timespan) {
+            this.name = name;
+            this.type = type;
+            this.label = label;
+            this.timespan = timespan;
+        }
+
+        static Field of(final String name, final Class<?> type, final String label) {
+            return new Field(name, type, label, false);
+        }
+
+        static Field timespan(final String name, final String label) {
+            return new Field(name, long.class, label, true);
+        }
+    }
+}
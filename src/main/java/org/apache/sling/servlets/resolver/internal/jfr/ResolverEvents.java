@@ -0,0 +1,271 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.servlets.resolver.internal.jfr;
+
+import static org.apache.sling.servlets.resolver.internal.jfr.EventDefinition.Field.of;
+import static org.apache.sling.servlets.resolver.internal.jfr.EventDefinition.Field.timespan;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The <code>ResolverEvents</code> emit the JDK Flight Recorder events of the
+ * servlet resolver. If the flight recorder is not available, no event is
+ * ever enabled.
+ * <p>
+ * The event types and the listener for recordings are registered with the
+ * flight recorder by {@link #register()} and removed again by
+ * {@link #unregister()}, so no event type is left behind by a stopped bundle.
+ * Before the first and after the last registration no event is enabled.
+ * <p>
+ * Callers check whether an event is enabled before they collect its data,
+ * so a disabled event neither allocates nor reads the clock. Whether an
+ * event is enabled is updated by a listener whenever the state of a
+ * recording changes. The emit methods must only be called if the event is
+ * enabled.
+ */
+public final class ResolverEvents {
+
+    private static final String PREFIX = "org.apache.sling.servlets.resolver.";
+
+    /** Lock for the registrations. */
+    private static final Object LOCK = new Object();
+
+    /** The number of registrations, guarded by the lock. */
+    private static int registrations;
+
+    /** The registered events, <code>null</code> if not registered. */
+    private static volatile Events events;
+
+    private ResolverEvents() {
+        // static methods only
+    }
+
+    /**
+     * Registers the events with the flight recorder, if this is the first
+     * registration. Each call must be paired with a call to
+     * {@link #unregister()}.
+     */
+    public static void register() {
+        synchronized ( LOCK ) {
+            if ( registrations++ == 0 ) {
+                events = new Events();
+            }
+        }
+    }
+
+    /**
+     * Removes the events from the flight recorder, if this is the last
+     * registration.
+     */
+    public static void unregister() {
+        synchronized ( LOCK ) {
+            if ( registrations > 0 && --registrations == 0 ) {
+                final Events localEvents = events;
+                events = null;
+                localEvents.close();
+            }
+        }
+    }
+
+    public static boolean isServletResolutionEnabled() {
+        final Events localEvents = events;
+        return localEvents != null && localEvents.servletResolution.isEnabled();
+    }
+
+    public static boolean isResolutionCacheFlushEnabled() {
+        final Events localEvents = events;
+        return localEvents != null && localEvents.resolutionCacheFlush.isEnabled();
+    }
+
+    public static boolean isScriptResolverCloneEnabled() {
+        final Events localEvents = events;
+        return localEvents != null && localEvents.scriptResolverClone.isEnabled();
+    }
+
+    public static boolean isErrorHandlerResolutionEnabled() {
+        final Events localEvents = events;
+        return localEvents != null && localEvents.errorHandlerResolution.isEnabled();
+    }
+
+    /**
+     * Emits the resolution of a servlet for a cache key.
+     * @param key The cache key
+     * @param cacheHit Whether the servlet has been taken from the cache
+     * @param candidates The number of candidates checked
+     * @param servlet The name of the servlet or <code>null</code>
+     * @param startTime The {@link System#nanoTime()} at the start of the resolution
+     */
+    public static void servletResolution(final Object key, final boolean cacheHit, final int candidates,
+            final String servlet, final long startTime) {
+        final Events localEvents = events;
+        if ( localEvents != null ) {
+            localEvents.servletResolution.commit(String.valueOf(key), cacheHit, candidates, servlet,
+                    System.nanoTime() - startTime);
+        }
+    }
+
+    /**
+     * Emits the removal of entries from the resolution cache.
+     * @param cause The cause of the removal
+     * @param fullFlush Whether the whole cache has been flushed
+     * @param entries The number of removed entries
+     */
+    public static void resolutionCacheFlush(final String cause, final boolean fullFlush, final int entries) {
+        final Events localEvents = events;
+        if ( localEvents != null ) {
+            localEvents.resolutionCacheFlush.commit(cause, fullFlush, entries);
+        }
+    }
+
+    /**
+     * Emits the creation of a clone of the script resource resolver.
+     * @param purpose What the clone is used for
+     * @param success Whether the clone has been created
+     * @param startTime The {@link System#nanoTime()} before the clone
+     */
+    public static void scriptResolverClone(final String purpose, final boolean success, final long startTime) {
+        final Events localEvents = events;
+        if ( localEvents != null ) {
+            localEvents.scriptResolverClone.commit(purpose, success, System.nanoTime() - startTime);
+        }
+    }
+
+    /**
+     * Emits the resolution of an error handler.
+     * @param error The status code or the class name of the throwable
+     * @param handler The name of the error handler servlet
+     * @param startTime The {@link System#nanoTime()} at the start of the resolution
+     */
+    public static void errorHandlerResolution(final String error, final String handler, final long startTime) {
+        final Events localEvents = events;
+        if ( localEvents != null ) {
+            localEvents.errorHandlerResolution.commit(error, handler, System.nanoTime() - startTime);
+        }
+    }
+
+    /**
+     * The event types registered with the flight recorder together with the
+     * listener refreshing them.
+     */
+    private static final class Events {
+
+        final EventDefinition servletResolution = new EventDefinition(PREFIX + "ServletResolution",
+                "Servlet Resolution", "The resolution of a servlet for a cache key",
+                of("key", String.class, "Key"),
+                of("cacheHit", boolean.class, "Cache Hit"),
+                of("candidates", int.class, "Candidates"),
+                of("servlet", String.class, "Servlet"),
+                timespan("resolutionTime", "Resolution Time"));
+
+        final EventDefinition resolutionCacheFlush = new EventDefinition(PREFIX + "ResolutionCacheFlush",
+                "Resolution Cache Flush", "The removal of entries from the resolution cache",
+                of("cause", String.class, "Cause"),
+                of("fullFlush", boolean.class, "Full Flush"),
+                of("entries", int.class, "Entries"));
+
+        final EventDefinition scriptResolverClone = new EventDefinition(PREFIX + "ScriptResolverClone",
+                "Script Resolver Clone", "The creation of a clone of the script resource resolver",
+                of("purpose", String.class, "Purpose"),
+                of("success", boolean.class, "Success"),
+                timespan("cloneTime", "Clone Time"));
+
+        final EventDefinition errorHandlerResolution = new EventDefinition(PREFIX + "ErrorHandlerResolution",
+                "Error Handler Resolution", "The resolution of the error handler for a status or throwable",
+                of("error", String.class, "Error"),
+                of("handler", String.class, "Handler"),
+                timespan("resolutionTime", "Resolution Time"));
+
+        private final EventDefinition[] all = { servletResolution, resolutionCacheFlush,
+                scriptResolverClone, errorHandlerResolution };
+
+        // the jdk.jfr.FlightRecorderListener, null if not listening
+        private final Object listener;
+
+        Events() {
+            this.listener = addRecordingListener();
+            // a recording might have been started before the listener has been added
+            refresh();
+        }
+
+        private void refresh() {
+            for(final EventDefinition event : this.all) {
+                event.refresh();
+            }
+        }
+
+        /**
+         * Registers a <code>jdk.jfr.FlightRecorderListener</code> which refreshes
+         * the events if a recording is started or stopped.
+         * @return The listener or <code>null</code> if not listening
+         */
+        private Object addRecordingListener() {
+            try {
+                final Class<?> listenerClass = Class.forName("jdk.jfr.FlightRecorderListener");
+                final Object recordingListener = Proxy.newProxyInstance(ResolverEvents.class.getClassLoader(),
+                        new Class<?>[] {listenerClass}, new InvocationHandler() {
+
+                    @Override
+                    public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                        if ( "recordingStateChanged".equals(method.getName()) ) {
+                            refresh();
+                        } else if ( "equals".equals(method.getName()) ) {
+                            return proxy == args[0];
+                        } else if ( "hashCode".equals(method.getName()) ) {
+                            return System.identityHashCode(proxy);
+                        } else if ( "toString".equals(method.getName()) ) {
+                            return "Servlet Resolver Events";
+                        }
+                        return null;
+                    }
+                });
+                Class.forName("jdk.jfr.FlightRecorder").getMethod("addListener", listenerClass).invoke(null, recordingListener);
+                return recordingListener;
+            } catch (final ClassNotFoundException e) {
+                // no flight recorder, the events are never enabled
+            } catch (final Exception | LinkageError e) {
+                final Logger logger = LoggerFactory.getLogger(ResolverEvents.class);
+                logger.debug("Unable to listen for flight recordings", e);
+            }
+            return null;
+        }
+
+        /**
+         * Removes the listener and the event types from the flight recorder.
+         */
+        void close() {
+            if ( this.listener != null ) {
+                try {
+                    final Class<?> listenerClass = Class.forName("jdk.jfr.FlightRecorderListener");
+                    Class.forName("jdk.jfr.FlightRecorder").getMethod("removeListener", listenerClass).invoke(null, this.listener);
+                } catch (final Exception | LinkageError e) {
+                    final Logger logger = LoggerFactory.getLogger(ResolverEvents.class);
+                    logger.debug("Unable to remove the flight recording listener", e);
+                }
+            }
+            for(final EventDefinition event : this.all) {
+                event.unregister();
+            }
+        }
+    }
+}
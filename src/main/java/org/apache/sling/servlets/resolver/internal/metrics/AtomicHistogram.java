@@ -0,0 +1,102 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.servlets.resolver.internal.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.sling.servlets.resolver.metrics.LatencyHistogram;
+
+/**
+ * The <code>AtomicHistogram</code> counts latencies in log-linear buckets,
+ * like HdrHistogram: every power of two of the latency, measured in units
+ * of 1024 nanoseconds, is split into {@value #SUB_BUCKETS} buckets of equal
+ * width, which bounds the relative error to 1/{@value #SUB_BUCKETS}.
+ * Recording a latency takes two atomic additions and no lock, latencies
+ * above about half an hour are counted in the last bucket.
+ */
+public class AtomicHistogram {
+
+    // the latencies are counted in units of 2^UNIT_SHIFT nanoseconds
+    private static final int UNIT_SHIFT = 10;
+
+    private static final int SUB_BUCKET_BITS = 3;
+
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    // the highest power of two of units which is counted
+    private static final int MAX_EXPONENT = 30;
+
+    static final int BUCKETS = SUB_BUCKETS + (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    private final AtomicLong totalNanos = new AtomicLong();
+
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * Records a latency.
+     * @param nanos The latency in nanoseconds
+     */
+    public void record(final long nanos) {
+        final long value = Math.max(0, nanos);
+        this.counts.incrementAndGet(index(value));
+        this.totalNanos.addAndGet(value);
+        long max = this.maxNanos.get();
+        while ( value > max && !this.maxNanos.compareAndSet(max, value) ) {
+            max = this.maxNanos.get();
+        }
+    }
+
+    /**
+     * Returns a snapshot of the counts. Latencies recorded concurrently
+     * might be missing from the buckets but already be part of the total.
+     * @return The snapshot
+     */
+    public LatencyHistogram snapshot() {
+        final long[] snapshot = new long[BUCKETS];
+        for(int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = this.counts.get(i);
+        }
+        return new HistogramSnapshot(snapshot, this.totalNanos.get(), this.maxNanos.get());
+    }
+
+    static int index(final long nanos) {
+        final long units = nanos <= 0 ? 0 : Math.min(nanos >>> UNIT_SHIFT, (1L << (MAX_EXPONENT + 1)) - 1);
+        if ( units < SUB_BUCKETS ) {
+            return (int) units;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(units);
+        final int subBucket = (int) (units >>> (exponent - SUB_BUCKET_BITS)) - SUB_BUCKETS;
+        return SUB_BUCKETS + (exponent - SUB_BUCKET_BITS) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Returns the exclusive upper bound of a bucket in nanoseconds.
+     */
+    static long upperBound(final int index) {
+        if ( index < SUB_BUCKETS ) {
+            return (long) (index + 1) << UNIT_SHIFT;
+        }
+        final int exponent = (index - SUB_BUCKETS) / SUB_BUCKETS + SUB_BUCKET_BITS;
+        final int subBucket = (index - SUB_BUCKETS) % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS + UNIT_SHIFT);
+    }
+}
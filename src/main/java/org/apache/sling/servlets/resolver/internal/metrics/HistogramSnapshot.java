@@ -0,0 +1,91 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.servlets.resolver.internal.metrics;
+
+import org.apache.sling.servlets.resolver.metrics.LatencyHistogram;
+
+/**
+ * A snapshot of an {@link AtomicHistogram}.
+ */
+final class HistogramSnapshot implements LatencyHistogram {
+
+    private final long[] counts;
+
+    private final long count;
+
+    private final long totalNanos;
+
+    private final long maxNanos;
+
+    HistogramSnapshot(final long[] counts, final long totalNanos, final long maxNanos) {
+        this.counts = counts;
+        long sum = 0;
+        for(final long c : counts) {
+            sum += c;
+        }
+        this.count = sum;
+        this.totalNanos = totalNanos;
+        this.maxNanos = maxNanos;
+    }
+
+    @Override
+    public long getCount() {
+        return this.count;
+    }
+
+    @Override
+    public long getTotalNanos() {
+        return this.totalNanos;
+    }
+
+    @Override
+    public long getMaxNanos() {
+        return this.maxNanos;
+    }
+
+    @Override
+    public long getValueAtPercentile(final double percentile) {
+        if ( this.count == 0 ) {
+            return 0;
+        }
+        final long target = Math.max(1, (long) Math.ceil(Math.min(100, Math.max(0, percentile)) / 100 * this.count));
+        long cumulative = 0;
+        for(int i = 0; i < this.counts.length; i++) {
+            cumulative += this.counts[i];
+            if ( cumulative >= target ) {
+                return Math.min(AtomicHistogram.upperBound(i), this.maxNanos);
+            }
+        }
+        return this.maxNanos;
+    }
+
+    @Override
+    public long[] getBucketUpperBounds() {
+        final long[] bounds = new long[this.counts.length];
+        for(int i = 0; i < bounds.length; i++) {
+            bounds[i] = AtomicHistogram.upperBound(i);
+        }
+        return bounds;
+    }
+
+    @Override
+    public long[] getBucketCounts() {
+        return this.counts.clone();
+    }
+}
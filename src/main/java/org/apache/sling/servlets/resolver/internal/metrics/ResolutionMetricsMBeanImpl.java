@@ -0,0 +1,93 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.servlets.resolver.internal.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.NotCompliantMBeanException;
+import javax.management.StandardMBean;
+
+import org.apache.sling.servlets.resolver.jmx.ResolutionMetricsMBean;
+import org.apache.sling.servlets.resolver.metrics.LatencyHistogram;
+import org.apache.sling.servlets.resolver.metrics.ResolutionMetrics;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+
+/**
+ * Publishes the {@link ResolutionMetrics} through JMX.
+ */
+@Component(service = {ResolutionMetricsMBean.class},
+           property = {
+                   "jmx.objectname=org.apache.sling:type=servletResolver,service=ResolutionMetrics"
+           })
+public class ResolutionMetricsMBeanImpl extends StandardMBean implements ResolutionMetricsMBean {
+
+    @Reference
+    private ResolutionMetrics metrics;
+
+    public ResolutionMetricsMBeanImpl() throws NotCompliantMBeanException {
+        super(ResolutionMetricsMBean.class);
+    }
+
+    @Override
+    public String[] getResourceTypes() {
+        final Set<String> types = new TreeSet<>(metrics.getResourceTypes());
+        return types.toArray(new String[types.size()]);
+    }
+
+    @Override
+    public String[] listLatencies() {
+        final List<String> result = new ArrayList<>();
+        for(final String resourceType : getResourceTypes()) {
+            result.add(resourceType
+                    + ": hits[" + toString(metrics.getCacheHitLatency(resourceType))
+                    + "], misses[" + toString(metrics.getCacheMissLatency(resourceType)) + "]");
+        }
+        return result.toArray(new String[result.size()]);
+    }
+
+    @Override
+    public long getCacheHitLatency(final String resourceType, final double percentile) {
+        return getValueAtPercentile(metrics.getCacheHitLatency(resourceType), percentile);
+    }
+
+    @Override
+    public long getCacheMissLatency(final String resourceType, final double percentile) {
+        return getValueAtPercentile(metrics.getCacheMissLatency(resourceType), percentile);
+    }
+
+    private static long getValueAtPercentile(final LatencyHistogram histogram, final double percentile) {
+        return histogram == null || histogram.getCount() == 0 ? -1 : histogram.getValueAtPercentile(percentile);
+    }
+
+    private static String toString(final LatencyHistogram histogram) {
+        if ( histogram == null ) {
+            return "count=0";
+        }
+        return "count=" + histogram.getCount()
+                + ", p50=" + TimeUnit.NANOSECONDS.toMicros(histogram.getValueAtPercentile(50)) + "us"
+                + ", p90=" + TimeUnit.NANOSECONDS.toMicros(histogram.getValueAtPercentile(90)) + "us"
+                + ", p99=" + TimeUnit.NANOSECONDS.toMicros(histogram.getValueAtPercentile(99)) + "us"
+                + ", max=" + TimeUnit.NANOSECONDS.toMicros(histogram.getMaxNanos()) + "us";
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.servlets.resolver.internal.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.apache.sling.servlets.resolver.metrics.LatencyHistogram;
+
+/**
+ * The <code>ResourceTypeLatencies</code> keep the resolution latency
+ * histograms per resource type. The number of resource types is limited,
+ * the resolutions of further resource types are recorded for
+ * {@link #OTHER_RESOURCE_TYPES}.
+ */
+public class ResourceTypeLatencies {
+
+    /** The maximum number of resource types with their own histograms. */
+    static final int MAX_RESOURCE_TYPES = 1000;
+
+    /** The key of the resolutions of all resource types beyond the limit. */
+    public static final String OTHER_RESOURCE_TYPES = "*";
+
+    /** The key of resolutions without a resource type. */
+    public static final String NO_RESOURCE_TYPE = "";
+
+    private final Map<String, Latencies> latencies = new ConcurrentHashMap<>();
+
+    /** The number of resource types which have been given their own histograms. */
+    private final AtomicInteger resourceTypes = new AtomicInteger();
+
+    /** The histograms of the resource types beyond the limit. */
+    private final Latencies other = new Latencies();
+
+    /** Whether the histograms of the resource types beyond the limit are published. */
+    private volatile boolean otherPublished;
+
+    /** Creates the histograms of a resource type as long as the limit is not reached. */
+    private final Function<String, Latencies> create = new Function<String, Latencies>() {
+
+        @Override
+        public Latencies apply(final String resourceType) {
+            // no mapping is created once the limit is reached
+            return resourceTypes.getAndIncrement() < MAX_RESOURCE_TYPES ? new Latencies() : null;
+        }
+    };
+
+    /**
+     * Records the latency of a resolution served from the cache. This only
+     * covers mapping the request to its cache key and looking up the cache.
+     * @param resourceType The resource type, might be <code>null</code>
+     * @param nanos The latency in nanoseconds
+     */
+    public void recordHit(final String resourceType, final long nanos) {
+        get(resourceType).hits.record(nanos);
+    }
+
+    /**
+     * Records the latency of a resolution not served from the cache.
+     * @param resourceType The resource type, might be <code>null</code>
+     * @param nanos The latency in nanoseconds
+     */
+    public void recordMiss(final String resourceType, final long nanos) {
+        get(resourceType).misses.record(nanos);
+    }
+
+    public Set<String> getResourceTypes() {
+        return Collections.unmodifiableSet(this.latencies.keySet());
+    }
+
+    public LatencyHistogram getHitLatency(final String resourceType) {
+        final Latencies l = this.latencies.get(resourceType);
+        return l == null ? null : l.hits.snapshot();
+    }
+
+    public LatencyHistogram getMissLatency(final String resourceType) {
+        final Latencies l = this.latencies.get(resourceType);
+        return l == null ? null : l.misses.snapshot();
+    }
+
+    private Latencies get(final String resourceType) {
+        final String key = resourceType == null ? NO_RESOURCE_TYPE : resourceType;
+        Latencies l = this.latencies.get(key);
+        if ( l == null && this.resourceTypes.get() < MAX_RESOURCE_TYPES ) {
+            l = this.latencies.computeIfAbsent(key, this.create);
+        }
+        if ( l == null ) {
+            if ( !this.otherPublished ) {
+                this.latencies.putIfAbsent(OTHER_RESOURCE_TYPES, this.other);
+                this.otherPublished = true;
+            }
+            l = this.other;
+        }
+        return l;
+    }
+
+    private static final class Latencies {
+
+        final AtomicHistogram hits = new AtomicHistogram();
+
+        final AtomicHistogram misses = new AtomicHistogram();
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.servlets.resolver.internal.resolution;
+
+/**
+ * An entry of the resolution cache.
+ */
+public final class CachedResolution {
+
+    private final String key;
+
+    private final String servlet;
+
+    private final long hits;
+
+    private final long created;
+
+    public CachedResolution(final String key,
+            final String servlet,
+            final long hits,
+            final long created) {
+        this.key = key;
+        this.servlet = servlet;
+        this.hits = hits;
+        this.created = created;
+    }
+
+    /** The cache key. */
+    public String getKey() {
+        return key;
+    }
+
+    /** The name of the cached servlet. */
+    public String getServlet() {
+        return servlet;
+    }
+
+    /** The number of lookups of the entry, including the one which added it. */
+    public long getHits() {
+        return hits;
+    }
+
+    /** The time the entry has been added in milliseconds since the epoch. */
+    public long getCreated() {
+        return created;
+    }
+}
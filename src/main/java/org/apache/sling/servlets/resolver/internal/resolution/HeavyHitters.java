@@ -0,0 +1,124 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.servlets.resolver.internal.resolution;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The <code>HeavyHitters</code> approximate the most frequent keys of a
+ * stream with the space-saving algorithm: at most <code>capacity</code> keys
+ * are counted, a new key replaces the key with the lowest count and inherits
+ * its count as the possible overestimation. Every key occurring more often
+ * than <code>total / capacity</code> times is guaranteed to be tracked.
+ */
+public class HeavyHitters {
+
+    private final int capacity;
+
+    private final Map<String, Entry> entries;
+
+    public HeavyHitters(final int capacity) {
+        this.capacity = capacity;
+        this.entries = new HashMap<>(capacity * 2);
+    }
+
+    /**
+     * Count the occurrences of a key.
+     * @param key The key
+     * @param occurrences The number of occurrences
+     */
+    public synchronized void add(final String key, final long occurrences) {
+        final Entry entry = this.entries.get(key);
+        if ( entry != null ) {
+            entry.count += occurrences;
+        } else if ( this.entries.size() < this.capacity ) {
+            this.entries.put(key, new Entry(key, occurrences, 0));
+        } else {
+            Entry min = null;
+            for(final Entry e : this.entries.values()) {
+                if ( min == null || e.count < min.count ) {
+                    min = e;
+                }
+            }
+            this.entries.remove(min.key);
+            this.entries.put(key, new Entry(key, min.count + occurrences, min.count));
+        }
+    }
+
+    /**
+     * Returns a snapshot of the tracked keys.
+     * @return The keys, the most frequent one first
+     */
+    public synchronized List<Entry> getEntries() {
+        final List<Entry> result = new ArrayList<>(this.entries.size());
+        for(final Entry e : this.entries.values()) {
+            result.add(new Entry(e.key, e.count, e.error));
+        }
+        sort(result);
+        return result;
+    }
+
+    static void sort(final List<Entry> entries) {
+        Collections.sort(entries, new Comparator<Entry>() {
+
+            @Override
+            public int compare(final Entry o1, final Entry o2) {
+                return Long.compare(o2.count, o1.count);
+            }
+        });
+    }
+
+    /**
+     * A tracked key with its estimated number of occurrences.
+     */
+    public static final class Entry {
+
+        private final String key;
+
+        private long count;
+
+        private final long error;
+
+        Entry(final String key, final long count, final long error) {
+            this.key = key;
+            this.count = count;
+            this.error = error;
+        }
+
+        /** The key. */
+        public String getKey() {
+            return key;
+        }
+
+        /** The estimated number of occurrences, never lower than the actual number. */
+        public long getCount() {
+            return count;
+        }
+
+        /** The maximum overestimation of the count. */
+        public long getError() {
+            return error;
+        }
+    }
+}
@@ -18,13 +18,40 @@
  */
 package org.apache.sling.servlets.resolver.internal.resolution;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Dictionary;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 import javax.management.NotCompliantMBeanException;
 import javax.management.StandardMBean;
@@ -32,13 +59,27 @@ import javax.script.ScriptEngineFactory;
 import javax.script.ScriptEngineManager;
 import javax.servlet.Servlet;
 
+import org.apache.commons.lang3.ArrayUtils;
+import org.apache.sling.api.SlingConstants;
+import org.apache.sling.api.request.RequestUtil;
 import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
 import org.apache.sling.api.resource.observation.ExternalResourceChangeListener;
 import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChange.ChangeType;
 import org.apache.sling.api.resource.observation.ResourceChangeListener;
 import org.apache.sling.api.resource.path.Path;
+import org.apache.sling.api.scripting.SlingScript;
+import org.apache.sling.api.scripting.SlingScriptConstants;
+import org.apache.sling.commons.osgi.PropertiesUtil;
 import org.apache.sling.servlets.resolver.internal.ResolverConfig;
 import org.apache.sling.servlets.resolver.internal.helper.AbstractResourceCollector;
+import org.apache.sling.servlets.resolver.internal.helper.LocationProbes;
+import org.apache.sling.servlets.resolver.internal.helper.ResourceCollector;
+import org.apache.sling.servlets.resolver.internal.helper.ScriptNameVocabulary;
+import org.apache.sling.servlets.resolver.internal.helper.SymbolTable;
+import org.apache.sling.servlets.resolver.internal.jfr.ResolverEvents;
 import org.apache.sling.servlets.resolver.jmx.SlingServletResolverCacheMBean;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.Constants;
@@ -65,17 +106,74 @@ public class ResolutionCache
 
     private final Logger logger = LoggerFactory.getLogger(this.getClass());
 
+    private static final String TOPIC_PREFIX_SCRIPT_ENGINE_FACTORY = "javax/script/ScriptEngineFactory/";
+
+    private static final String TOPIC_PREFIX_ADAPTER_FACTORY = "org/apache/sling/api/adapter/AdapterFactory/";
+
+    private static final String TOPIC_PREFIX_BINDINGS_VALUES_PROVIDER = "org/apache/sling/scripting/core/BindingsValuesProvider/";
+
     @Reference
     private ScriptEngineManager scriptEngineManager;
 
     private volatile List<String> scriptEnginesExtensions = Collections.emptyList();
 
+    /** The name of the data file holding the recorded cache keys. */
+    private static final String KEYS_FILE_NAME = "resolution-cache-keys";
+
+    /** The expected number of distinct symbols per cache entry, bounds the symbol table. */
+    private static final int SYMBOLS_PER_ENTRY = 8;
+
+    /** The length of the windows in which the recent hits of an entry are counted, in milliseconds. */
+    static final long HIT_WINDOW = TimeUnit.MINUTES.toMillis(1);
+
+    /** The version of the format of the recorded cache keys. */
+    private static final int KEYS_FORMAT_VERSION = 1;
+
     /** The script resolution cache. */
-    private volatile Map<AbstractResourceCollector, Servlet> cache;
+    private volatile Map<AbstractResourceCollector, CacheEntry> cache;
+
+    /** The file to record the cache keys to, {@code null} if not recorded. */
+    private volatile File keysFile;
+
+    /** The number of keys to resolve again after the cache has been flushed. */
+    private volatile int rewarmSize;
+
+    /** The handler resolving the most used keys after a flush, {@code null} if not set. */
+    private volatile Consumer<List<ResourceCollector>> rewarmHandler;
+
+    /** The symbols of the cache keys, only used with the cache. */
+    private volatile SymbolTable symbols;
+
+    /** The script name vocabularies by resource type hierarchy, only used with the cache. */
+    private volatile Map<String, VocabularyEntry> vocabularies;
+
+    /** The probes reading the locations of a vocabulary concurrently, {@code null} if read sequentially. */
+    private volatile LocationProbes probes;
+
+    /**
+     * The generation of the cache, incremented whenever entries are flushed or
+     * invalidated, see {@link #put(AbstractResourceCollector, Servlet, long)}.
+     */
+    private final AtomicLong generation = new AtomicLong();
 
     /** The cache size. */
     private volatile int cacheSize;
 
+    /** The minimum duration of a logged resolution in nanoseconds. */
+    private volatile long slowResolutionThreshold;
+
+    /** The most recent slow resolutions, {@code null} if not logged. */
+    private volatile SlowResolutionLog slowResolutions;
+
+    /** The most frequent keys of entries which are no longer cached, weighted by their hits, or {@code null}. */
+    private volatile HeavyHitters keyHitters;
+
+    /** The most frequent cache misses or {@code null}. */
+    private volatile HeavyHitters missHitters;
+
+    /** One of this number of misses is counted for the most frequent misses. */
+    private volatile int missSampling;
+
     /** Flag to log warning if cache size exceed only once. */
     private volatile boolean logCacheSizeWarning;
 
@@ -86,6 +184,33 @@ public class ResolutionCache
 
     private volatile ServiceRegistration<SlingServletResolverCacheMBean> mbeanRegistration;
 
+    /** Executor for coalesced invalidations, {@code null} if events invalidate immediately. */
+    private volatile ScheduledExecutorService invalidationExecutor;
+
+    /** The time to wait for further invalidation events. */
+    private volatile long invalidationDelay;
+
+    /** The maximum time an invalidation is postponed. */
+    private volatile long invalidationMaxDelay;
+
+    /** Lock for the pending invalidation. */
+    private final Object invalidationLock = new Object();
+
+    /** The pending invalidation, guarded by the invalidation lock. */
+    private PendingInvalidation pendingInvalidation;
+
+    /** The number of received invalidation requests. */
+    private final AtomicLong invalidationRequests = new AtomicLong();
+
+    /** The number of completed invalidations. */
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /** The number of verified cache hits. */
+    private final AtomicLong verifications = new AtomicLong();
+
+    /** The number of verified cache hits which did not match. */
+    private final AtomicLong verificationMismatches = new AtomicLong();
+
     /**
      * Activate this component.
      */
@@ -96,8 +221,28 @@ public class ResolutionCache
         this.cacheSize = config.servletresolver_cacheSize();
         if (this.cacheSize > 5) {
             this.cache = new ConcurrentHashMap<>(cacheSize);
+            this.vocabularies = new ConcurrentHashMap<>();
+            this.symbols = new SymbolTable(this.cacheSize * SYMBOLS_PER_ENTRY);
             this.logCacheSizeWarning = true;
 
+            // read the locations concurrently, if configured
+            if ( config.servletresolver_probeThreads() > 0 ) {
+                this.probes = new LocationProbes(config.servletresolver_probeThreads());
+            }
+
+            // record the cache keys for a warm start, if configured
+            if ( config.servletresolver_warmupRate() > 0 ) {
+                this.keysFile = context.getDataFile(KEYS_FILE_NAME);
+            }
+            this.rewarmSize = Math.max(0, Math.min(config.servletresolver_rewarmSize(), this.cacheSize));
+
+            // track the most frequent keys and misses, if configured
+            if ( config.servletresolver_heavyHitters() > 0 ) {
+                this.keyHitters = new HeavyHitters(config.servletresolver_heavyHitters());
+                this.missHitters = new HeavyHitters(config.servletresolver_heavyHitters());
+                this.missSampling = Math.max(1, config.servletresolver_missSampling());
+            }
+
             // register MBean
             try {
                 Dictionary<String, String> mbeanProps = new Hashtable<>();
@@ -110,6 +255,27 @@ public class ResolutionCache
             }
         }
 
+        // log slow resolutions, if configured
+        if ( config.servletresolver_slowResolutionThreshold() > 0 && config.servletresolver_slowResolutionLogSize() > 0 ) {
+            this.slowResolutionThreshold = TimeUnit.MILLISECONDS.toNanos(config.servletresolver_slowResolutionThreshold());
+            this.slowResolutions = new SlowResolutionLog(config.servletresolver_slowResolutionLogSize());
+        }
+
+        // coalesce invalidation events, if configured
+        this.invalidationDelay = config.servletresolver_invalidationDelay();
+        this.invalidationMaxDelay = Math.max(this.invalidationDelay, config.servletresolver_invalidationMaxDelay());
+        if ( this.invalidationDelay > 0 ) {
+            this.invalidationExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+                @Override
+                public Thread newThread(final Runnable r) {
+                    final Thread t = new Thread(r, "Apache Sling Servlet Resolver Cache Invalidation");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+
         // and finally register as event listener
         // to invalidate cache and script extensions
         final Dictionary<String, Object> props = new Hashtable<>();
@@ -118,9 +284,9 @@ public class ResolutionCache
 
         // the event listener is for updating the script engine extensions
         props.put(EventConstants.EVENT_TOPIC, new String[] {
-                "javax/script/ScriptEngineFactory/*",
-                "org/apache/sling/api/adapter/AdapterFactory/*",
-                "org/apache/sling/scripting/core/BindingsValuesProvider/*" });
+                TOPIC_PREFIX_SCRIPT_ENGINE_FACTORY.concat("*"),
+                TOPIC_PREFIX_ADAPTER_FACTORY.concat("*"),
+                TOPIC_PREFIX_BINDINGS_VALUES_PROVIDER.concat("*") });
 
         this.eventHandlerRegistration = context.registerService(EventHandler.class, this, props);
 
@@ -140,6 +306,7 @@ public class ResolutionCache
         }
 
         updateScriptEngineExtensions();
+        ResolverEvents.register();
     }
 
     @Modified
@@ -155,6 +322,27 @@ public class ResolutionCache
     @Deactivate
     protected void deactivate() {
         this.cache = null;
+        this.generation.incrementAndGet();
+        this.symbols = null;
+        if ( this.probes != null ) {
+            this.probes.close();
+            this.probes = null;
+        }
+        this.keysFile = null;
+        this.rewarmSize = 0;
+        this.vocabularies = null;
+        this.slowResolutions = null;
+        this.keyHitters = null;
+        this.missHitters = null;
+
+        // stop coalescing invalidations
+        if ( this.invalidationExecutor != null ) {
+            this.invalidationExecutor.shutdownNow();
+            this.invalidationExecutor = null;
+        }
+        synchronized ( this.invalidationLock ) {
+            this.pendingInvalidation = null;
+        }
 
         // unregister mbean
         if ( this.mbeanRegistration != null ) {
@@ -173,6 +361,7 @@ public class ResolutionCache
             this.resourceListenerRegistration.unregister();
             this.resourceListenerRegistration = null;
         }
+        ResolverEvents.unregister();
     }
 
     /**
@@ -204,17 +393,172 @@ public class ResolutionCache
         if ( this.eventHandlerRegistration == null ) {
             return;
         }
-        flushCache();
-        updateScriptEngineExtensions();
+        final String topic = event.getTopic();
+        if ( topic.startsWith(TOPIC_PREFIX_BINDINGS_VALUES_PROVIDER) ) {
+            // bindings values providers do not change which servlet is selected
+            logger.debug("Ignoring event {}", topic);
+
+        } else if ( topic.startsWith(TOPIC_PREFIX_ADAPTER_FACTORY) ) {
+            // only adapter factories providing servlets or scripts change the resolution
+            final String[] adapters = PropertiesUtil.toStringArray(event.getProperty(SlingConstants.PROPERTY_ADAPTER_CLASSES));
+            if ( adapters == null
+                 || ArrayUtils.contains(adapters, Servlet.class.getName())
+                 || ArrayUtils.contains(adapters, SlingScript.class.getName()) ) {
+                requestInvalidation(true, null, null, false, "adapter factory");
+            } else {
+                logger.debug("Ignoring event {} for adapters {}", topic, adapters);
+            }
+
+        } else {
+            // a script engine only affects candidates with its extensions
+            final String[] extensions = PropertiesUtil.toStringArray(
+                    event.getProperty(SlingScriptConstants.PROPERTY_SCRIPT_ENGINE_FACTORY_EXTENSIONS));
+            if ( extensions == null ) {
+                requestInvalidation(true, null, null, true, "script engine");
+            } else {
+                requestInvalidation(false, Collections.<String>emptyList(), Arrays.asList(extensions), true, "script engine");
+            }
+        }
+    }
+
+    /**
+     * Set the handler which resolves the most used keys again after
+     * the cache has been flushed.
+     * @param handler The handler or {@code null} to remove the handler
+     */
+    public void setRewarmHandler(final Consumer<List<ResourceCollector>> handler) {
+        this.rewarmHandler = handler;
     }
 
     public void flushCache() {
-        // use local variable to avoid racing with deactivate
-        final Map<AbstractResourceCollector, Servlet> localCache = this.cache;
+        flushCache("explicit");
+    }
+
+    /**
+     * Remove all cached entries.
+     * @param cause The cause of the flush, reported to the flight recorder
+     */
+    private void flushCache(final String cause) {
+        // use local variables to avoid racing with deactivate
+        final Map<AbstractResourceCollector, CacheEntry> localCache = this.cache;
+        final Consumer<List<ResourceCollector>> localRewarmHandler = this.rewarmHandler;
+        List<ResourceCollector> hotKeys = Collections.emptyList();
+        // resolutions which are still running are not cached anymore
+        this.generation.incrementAndGet();
         if ( localCache != null ) {
+            // snapshot the most used keys before they are gone
+            final int localRewarmSize = this.rewarmSize;
+            if ( localRewarmHandler != null && localRewarmSize > 0 ) {
+                hotKeys = getHotKeys(localCache, localRewarmSize, System.currentTimeMillis());
+            }
+            final int entries = localCache.size();
+            retire(localCache.entrySet());
             localCache.clear();
+            if ( ResolverEvents.isResolutionCacheFlushEnabled() ) {
+                ResolverEvents.resolutionCacheFlush(cause, true, entries);
+            }
+            // start with a new table as the symbols of the flushed keys might be unused now
+            this.symbols = new SymbolTable(this.cacheSize * SYMBOLS_PER_ENTRY);
             this.logCacheSizeWarning = true;
         }
+        final Map<String, VocabularyEntry> localVocabularies = this.vocabularies;
+        if ( localVocabularies != null ) {
+            localVocabularies.clear();
+        }
+        if ( !hotKeys.isEmpty() ) {
+            localRewarmHandler.accept(hotKeys);
+        }
+    }
+
+    /**
+     * Remove all cached entries which might be affected by a change
+     * of the resources at the given paths. Entries for resource types
+     * whose hierarchy does not cover any of the paths are kept.
+     * @param paths The absolute paths of the changed resources
+     * @param cause The cause of the change, reported to the flight recorder
+     */
+    public void invalidate(final Collection<String> paths, final String cause) {
+        invalidate(paths, Collections.<String>emptySet(), cause);
+    }
+
+    /**
+     * Remove all cached entries which might be affected by a change
+     * of the resources at the given paths or by a change of the script
+     * engines for the given script extensions.
+     * @param paths The absolute paths of the changed resources
+     * @param scriptExtensions The changed script extensions
+     * @param cause The cause of the change, reported to the flight recorder
+     */
+    private void invalidate(final Collection<String> paths, final Collection<String> scriptExtensions,
+            final String cause) {
+        // use local variable to avoid racing with deactivate
+        final Map<AbstractResourceCollector, CacheEntry> localCache = this.cache;
+        if ( localCache != null && (!paths.isEmpty() || !scriptExtensions.isEmpty()) ) {
+            // resolutions which are still running are not cached anymore
+            this.generation.incrementAndGet();
+            int count = 0;
+            final List<Map.Entry<AbstractResourceCollector, CacheEntry>> removed = new ArrayList<>();
+            final Iterator<Map.Entry<AbstractResourceCollector, CacheEntry>> iter = localCache.entrySet().iterator();
+            while ( iter.hasNext() ) {
+                final Map.Entry<AbstractResourceCollector, CacheEntry> entry = iter.next();
+                if ( isAffected(entry.getKey(), paths, scriptExtensions) ) {
+                    removed.add(entry);
+                    iter.remove();
+                    count++;
+                }
+            }
+            retire(removed);
+            if ( count > 0 ) {
+                this.logCacheSizeWarning = true;
+            }
+            if ( ResolverEvents.isResolutionCacheFlushEnabled() ) {
+                ResolverEvents.resolutionCacheFlush(cause, false, count);
+            }
+            logger.debug("Invalidated {} cache entries for paths {} and script extensions {}",
+                    new Object[] {count, paths, scriptExtensions});
+        }
+        final Map<String, VocabularyEntry> localVocabularies = this.vocabularies;
+        if ( localVocabularies != null && !paths.isEmpty() ) {
+            final Iterator<VocabularyEntry> iter = localVocabularies.values().iterator();
+            while ( iter.hasNext() ) {
+                final ScriptNameVocabulary vocabulary = iter.next().vocabulary;
+                for(final String path : paths) {
+                    if ( vocabulary.isAffectedBy(path) ) {
+                        iter.remove();
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Keep the hits of entries which are removed from the cache in the
+     * most frequent keys.
+     */
+    private void retire(final Collection<Map.Entry<AbstractResourceCollector, CacheEntry>> entries) {
+        final HeavyHitters localKeyHitters = this.keyHitters;
+        if ( localKeyHitters != null ) {
+            for(final Map.Entry<AbstractResourceCollector, CacheEntry> entry : entries) {
+                localKeyHitters.add(entry.getKey().toString(), entry.getValue().hits.get());
+            }
+        }
+    }
+
+    private boolean isAffected(final AbstractResourceCollector key,
+            final Collection<String> paths,
+            final Collection<String> scriptExtensions) {
+        for(final String path : paths) {
+            if ( key.isAffectedBy(path) ) {
+                return true;
+            }
+        }
+        for(final String ext : scriptExtensions) {
+            if ( key.hasCandidateWithExtension(ext) ) {
+                return true;
+            }
+        }
+        return false;
     }
 
     @Override
@@ -223,8 +567,140 @@ public class ResolutionCache
         if ( resourceListenerRegistration == null || changes.isEmpty() ) {
             return;
         }
-        // we invalidate the cache once, regardless of the number of changes
-        flushCache();
+        // servlet resource providers coming and going only affect the
+        // resource types they are mounted for, all other changes
+        // invalidate the cache once, regardless of the number of changes
+        final List<String> providerPaths = new ArrayList<>();
+        for(final ResourceChange change : changes) {
+            if ( change.getType() == ChangeType.PROVIDER_ADDED || change.getType() == ChangeType.PROVIDER_REMOVED ) {
+                providerPaths.add(change.getPath());
+            } else {
+                requestInvalidation(true, null, null, false, "resource change");
+                return;
+            }
+        }
+        requestInvalidation(false, providerPaths, Collections.<String>emptyList(), false, "resource provider change");
+    }
+
+    /**
+     * Request an invalidation of the cache. If an invalidation delay is configured,
+     * the request is merged with all other requests arriving within the delay and
+     * executed by the background thread. Otherwise it is executed immediately.
+     * @param flush Whether the whole cache needs to be flushed
+     * @param paths The changed paths if the cache is not flushed
+     * @param scriptExtensions The changed script extensions if the cache is not flushed
+     * @param updateExtensions Whether the script engine extensions need to be updated
+     * @param cause The cause of the invalidation
+     */
+    private void requestInvalidation(final boolean flush,
+            final Collection<String> paths,
+            final Collection<String> scriptExtensions,
+            final boolean updateExtensions,
+            final String cause) {
+        this.invalidationRequests.incrementAndGet();
+        // use local variable to avoid racing with deactivate
+        final ScheduledExecutorService executor = this.invalidationExecutor;
+        if ( executor == null ) {
+            execute(new PendingInvalidation(0).merge(flush, paths, scriptExtensions, updateExtensions, cause));
+            this.invalidations.incrementAndGet();
+            return;
+        }
+        synchronized ( this.invalidationLock ) {
+            final long now = System.currentTimeMillis();
+            if ( this.pendingInvalidation == null ) {
+                this.pendingInvalidation = new PendingInvalidation(now);
+            }
+            final PendingInvalidation pending = this.pendingInvalidation.merge(flush, paths, scriptExtensions, updateExtensions, cause);
+            // postpone the invalidation until no further event arrives, but not longer than the max delay
+            if ( pending.future != null ) {
+                pending.future.cancel(false);
+            }
+            final long delay = Math.max(0, Math.min(this.invalidationDelay, pending.created + this.invalidationMaxDelay - now));
+            try {
+                pending.future = executor.schedule(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        executePendingInvalidation();
+                    }
+                }, delay, TimeUnit.MILLISECONDS);
+            } catch ( final RejectedExecutionException ree ) {
+                // deactivated in the meantime - ignore
+            }
+        }
+    }
+
+    private void executePendingInvalidation() {
+        final PendingInvalidation pending;
+        synchronized ( this.invalidationLock ) {
+            pending = this.pendingInvalidation;
+            this.pendingInvalidation = null;
+        }
+        if ( pending != null ) {
+            execute(pending);
+            // counted once done, so the count can be used to wait for an invalidation
+            this.invalidations.incrementAndGet();
+        }
+    }
+
+    private void execute(final PendingInvalidation pending) {
+        if ( pending.flush ) {
+            flushCache(pending.cause);
+        } else {
+            invalidate(pending.paths, pending.scriptExtensions, pending.cause);
+        }
+        if ( pending.updateExtensions ) {
+            updateScriptEngineExtensions();
+        }
+    }
+
+    /**
+     * Invalidation requests merged into a single invalidation.
+     */
+    private static final class PendingInvalidation {
+
+        /** The maximum number of paths to collect before the cache is flushed instead. */
+        private static final int MAX_PATHS = 1000;
+
+        final long created;
+
+        boolean flush;
+
+        final Set<String> paths = new HashSet<>();
+
+        final Set<String> scriptExtensions = new HashSet<>();
+
+        boolean updateExtensions;
+
+        // the cause of the requests, "coalesced" if the causes differ
+        String cause;
+
+        ScheduledFuture<?> future;
+
+        PendingInvalidation(final long created) {
+            this.created = created;
+        }
+
+        PendingInvalidation merge(final boolean flush,
+                final Collection<String> paths,
+                final Collection<String> scriptExtensions,
+                final boolean updateExtensions,
+                final String cause) {
+            if ( !this.flush ) {
+                if ( flush || this.paths.size() + paths.size() > MAX_PATHS ) {
+                    this.flush = true;
+                    this.paths.clear();
+                    this.scriptExtensions.clear();
+                    this.cause = flush ? cause : "too many paths";
+                } else {
+                    this.cause = this.cause == null || this.cause.equals(cause) ? cause : "coalesced";
+                    this.paths.addAll(paths);
+                    this.scriptExtensions.addAll(scriptExtensions);
+                }
+            }
+            this.updateExtensions |= updateExtensions;
+            return this;
+        }
     }
 
     class ServletResolverCacheMBeanImpl extends StandardMBean implements SlingServletResolverCacheMBean {
@@ -236,7 +712,7 @@ public class ResolutionCache
         @Override
         public int getCacheSize() {
             // use local variable to avoid racing with deactivate
-            final Map<AbstractResourceCollector, Servlet> localCache = cache;
+            final Map<AbstractResourceCollector, CacheEntry> localCache = cache;
             return localCache != null ? localCache.size() : 0;
         }
 
@@ -250,26 +726,585 @@ public class ResolutionCache
             return cacheSize;
         }
 
+        @Override
+        public long getInvalidationRequestCount() {
+            return invalidationRequests.get();
+        }
+
+        @Override
+        public long getInvalidationCount() {
+            return invalidations.get();
+        }
+
+        @Override
+        public double getInvalidationCoalescingRatio() {
+            final long count = invalidations.get();
+            return count == 0 ? 0 : (double)invalidationRequests.get() / count;
+        }
+
+        @Override
+        public String[] listSlowResolutions() {
+            final List<SlowResolution> entries = getSlowResolutions();
+            final String[] result = new String[entries.size()];
+            for(int i = 0; i < result.length; i++) {
+                result[i] = entries.get(i).toString();
+            }
+            return result;
+        }
+
+        @Override
+        public long getVerificationCount() {
+            return verifications.get();
+        }
+
+        @Override
+        public long getVerificationMismatchCount() {
+            return verificationMismatches.get();
+        }
+    }
+
+    /**
+     * Returns the collector to use as the cache key for the given collector.
+     * Requests whose selectors, extension or method can't be matched by any
+     * script or servlet of the resource type hierarchy share one key, which
+     * limits the number of cache entries to the number of distinct results.
+     *
+     * @param context The collector for the request
+     * @param resolver The resource resolver used to resolve the servlets
+     * @return The canonical collector, which might be the given collector
+     */
+    public AbstractResourceCollector canonicalize(final AbstractResourceCollector context, final ResourceResolver resolver) {
+        return canonicalize(context, resolver, true);
+    }
+
+    private AbstractResourceCollector canonicalize(final AbstractResourceCollector context,
+            final ResourceResolver resolver,
+            final boolean learn) {
+        final ScriptNameVocabulary vocabulary = getVocabulary(context, resolver, learn);
+        return vocabulary == null ? context : ((ResourceCollector)context).canonicalize(vocabulary, resolver);
+    }
+
+    /**
+     * Returns the candidates for the given key. If the vocabulary of the
+     * resource type hierarchy of the key is known, the candidates are taken
+     * from its dispatch table instead of walking the repository. The
+     * locations are walked lazily, see
+     * {@link AbstractResourceCollector#iterateServlets(ResourceResolver, List)}.
+     *
+     * @param key The collector as returned by {@link #canonicalize(AbstractResourceCollector, ResourceResolver)}
+     * @param resolver The resource resolver used to resolve the servlets
+     * @return The candidates in their order
+     */
+    public Iterator<Resource> iterateServlets(final AbstractResourceCollector key, final ResourceResolver resolver) {
+        final ScriptNameVocabulary vocabulary = getVocabulary(key, resolver, false);
+        if ( vocabulary != null ) {
+            return ((ResourceCollector)key).iterateServlets(resolver, this.scriptEnginesExtensions, vocabulary);
+        }
+        return key.iterateServlets(resolver, this.scriptEnginesExtensions);
+    }
+
+    /**
+     * Returns the vocabulary of the resource type hierarchy of the collector.
+     * A vocabulary is only used once it is known that no flush or invalidation
+     * has happened while it has been created, as it might have missed the
+     * change otherwise.
+     *
+     * @param context The collector
+     * @param resolver The resource resolver to create the vocabulary
+     * @param create Whether to create the vocabulary if it does not exist yet
+     * @return The vocabulary or {@code null}
+     */
+    private ScriptNameVocabulary getVocabulary(final AbstractResourceCollector context,
+            final ResourceResolver resolver,
+            final boolean create) {
+        final Map<String, VocabularyEntry> localVocabularies = this.vocabularies;
+        if ( localVocabularies == null || !(context instanceof ResourceCollector) ) {
+            return null;
+        }
+        final ResourceCollector collector = (ResourceCollector)context;
+        final String key = collector.getVocabularyKey();
+        VocabularyEntry entry = localVocabularies.get(key);
+        if ( entry == null ) {
+            if ( !create || localVocabularies.size() >= this.cacheSize ) {
+                return null;
+            }
+            final long localGeneration = this.generation.get();
+            final LocationProbes localProbes = this.probes;
+            // the vocabulary is created once, concurrent requests wait for it
+            entry = localVocabularies.computeIfAbsent(key, new Function<String, VocabularyEntry>() {
+
+                @Override
+                public VocabularyEntry apply(final String k) {
+                    return new VocabularyEntry(collector.createVocabulary(resolver, localProbes), localGeneration);
+                }
+            });
+        }
+        if ( !entry.published ) {
+            // a flush or invalidation which started in the meantime might have missed the vocabulary
+            if ( this.generation.get() != entry.generation ) {
+                localVocabularies.remove(key, entry);
+                return null;
+            }
+            entry.published = true;
+        }
+        return entry.vocabulary;
+    }
+
+    /**
+     * Records the resolution of a key which has not been served from the
+     * cache. A sample of the misses is counted for the most frequent misses
+     * and the resolution is logged if it has taken longer than the slow
+     * resolution threshold.
+     *
+     * @param key The key
+     * @param startTime The {@link System#nanoTime()} at the start of the resolution
+     * @param candidates The number of candidates checked
+     * @param servlet The name of the chosen servlet or {@code null}
+     */
+    public void logResolution(final AbstractResourceCollector key, final long startTime,
+            final int candidates, final String servlet) {
+        // use local variables to avoid racing with deactivate
+        final HeavyHitters localMissHitters = this.missHitters;
+        if ( localMissHitters != null ) {
+            final int sampling = this.missSampling;
+            if ( sampling == 1 || ThreadLocalRandom.current().nextInt(sampling) == 0 ) {
+                localMissHitters.add(key.toString(), sampling);
+            }
+        }
+        final SlowResolutionLog log = this.slowResolutions;
+        if ( log != null ) {
+            final long duration = System.nanoTime() - startTime;
+            if ( duration >= this.slowResolutionThreshold ) {
+                log.add(new SlowResolution(System.currentTimeMillis(), key.toString(), duration,
+                        key.getLocations(), candidates, servlet));
+            }
+        }
+    }
+
+    /**
+     * Returns the most recent slow resolutions.
+     * @return The resolutions, the most recent one first
+     */
+    public List<SlowResolution> getSlowResolutions() {
+        final SlowResolutionLog log = this.slowResolutions;
+        return log == null ? Collections.<SlowResolution>emptyList() : log.getEntries();
+    }
+
+    /**
+     * Returns a snapshot of the cached entries.
+     * @return The entries, the most used one first
+     */
+    public List<CachedResolution> getCachedResolutions() {
+        final Map<AbstractResourceCollector, CacheEntry> localCache = this.cache;
+        if ( localCache == null ) {
+            return Collections.emptyList();
+        }
+        final List<CachedResolution> result = new ArrayList<>(localCache.size());
+        for(final Map.Entry<AbstractResourceCollector, CacheEntry> entry : localCache.entrySet()) {
+            final CacheEntry value = entry.getValue();
+            result.add(new CachedResolution(entry.getKey().toString(), RequestUtil.getServletName(value.servlet),
+                    value.hits.get(), value.created));
+        }
+        Collections.sort(result, new Comparator<CachedResolution>() {
+
+            @Override
+            public int compare(final CachedResolution o1, final CachedResolution o2) {
+                return Long.compare(o2.getHits(), o1.getHits());
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Returns the most frequently used keys since the activation, counting
+     * the hits of the cached entries and of the entries which have been
+     * flushed or invalidated.
+     * @param max The maximum number of keys
+     * @return The keys, the most frequent one first, an empty list if the
+     *         tracking is disabled
+     */
+    public List<HeavyHitters.Entry> getMostFrequentKeys(final int max) {
+        final HeavyHitters localKeyHitters = this.keyHitters;
+        final Map<AbstractResourceCollector, CacheEntry> localCache = this.cache;
+        if ( localKeyHitters == null || localCache == null ) {
+            return Collections.emptyList();
+        }
+        final Map<String, HeavyHitters.Entry> merged = new HashMap<>();
+        for(final HeavyHitters.Entry entry : localKeyHitters.getEntries()) {
+            merged.put(entry.getKey(), entry);
+        }
+        for(final Map.Entry<AbstractResourceCollector, CacheEntry> entry : localCache.entrySet()) {
+            final String key = entry.getKey().toString();
+            final HeavyHitters.Entry retired = merged.get(key);
+            merged.put(key, new HeavyHitters.Entry(key,
+                    entry.getValue().hits.get() + (retired == null ? 0 : retired.getCount()),
+                    retired == null ? 0 : retired.getError()));
+        }
+        final List<HeavyHitters.Entry> result = new ArrayList<>(merged.values());
+        HeavyHitters.sort(result);
+        return result.size() > max ? result.subList(0, max) : result;
+    }
+
+    /**
+     * Returns the most frequent cache misses since the activation.
+     * @param max The maximum number of keys
+     * @return The keys, the most frequent one first, an empty list if the
+     *         tracking is disabled
+     */
+    public List<HeavyHitters.Entry> getMostFrequentMisses(final int max) {
+        final HeavyHitters localMissHitters = this.missHitters;
+        if ( localMissHitters == null ) {
+            return Collections.emptyList();
+        }
+        final List<HeavyHitters.Entry> result = localMissHitters.getEntries();
+        return result.size() > max ? result.subList(0, max) : result;
+    }
+
+    /**
+     * Returns the servlet which would be served from the cache for the given
+     * collector. Unlike {@link #get(AbstractResourceCollector)} the lookup
+     * does not count as a hit and does not learn the vocabulary of the
+     * resource type hierarchy.
+     *
+     * @param context The collector for the request
+     * @param resolver The resource resolver used to resolve the servlets
+     * @return The cached servlet or {@code null}
+     */
+    public Servlet peek(final AbstractResourceCollector context, final ResourceResolver resolver) {
+        if ( this.cache == null ) {
+            return null;
+        }
+        final CacheEntry entry = lookup(canonicalize(context, resolver, false));
+        return entry != null ? entry.servlet : null;
     }
 
     public Servlet get(final AbstractResourceCollector context) {
-        final Map<AbstractResourceCollector, Servlet> localCache = this.cache;
-        if ( localCache != null ) {
-            return localCache.get(context);
+        final CacheEntry entry = lookup(context);
+        if ( entry != null ) {
+            entry.hits.incrementAndGet();
+            if ( this.rewarmSize > 0 ) {
+                entry.recentHit(System.currentTimeMillis());
+            }
+            return entry.servlet;
         }
         return null;
     }
 
-    public void put(final AbstractResourceCollector context, final Servlet candidate) {
-        final Map<AbstractResourceCollector, Servlet> localCache = this.cache;
+    /**
+     * Returns the published entry for the given key.
+     * @param key The canonical collector
+     * @return The entry or {@code null} if the cache is disabled or the
+     *         servlet for the key is not cached (yet)
+     */
+    private CacheEntry lookup(final AbstractResourceCollector key) {
+        final Map<AbstractResourceCollector, CacheEntry> localCache = this.cache;
         if ( localCache != null ) {
+            final CacheEntry entry = localCache.get(key);
+            if ( entry != null && entry.published ) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the current generation of the cache. It has to be taken before
+     * the servlet is resolved and passed to
+     * {@link #put(AbstractResourceCollector, Servlet, long)}.
+     * @return The generation
+     */
+    public long getGeneration() {
+        return this.generation.get();
+    }
+
+    /**
+     * Caches the servlet resolved for the given key, unless the cache has
+     * been flushed or invalidated since the given generation has been taken.
+     * Otherwise a servlet resolved from content which has changed during the
+     * resolution would be served until the next change.
+     * <p>
+     * The generation is global, so any invalidation rejects all resolutions
+     * running at that time, even those for unrelated resource types. With a
+     * steady stream of changes this keeps entries from being cached, which is
+     * why invalidation events should be coalesced by an invalidation delay:
+     * resolutions are then only rejected once per delay.
+     *
+     * @param context The key
+     * @param candidate The resolved servlet
+     * @param generation The generation as returned by {@link #getGeneration()}
+     *            before the servlet has been resolved
+     * @return {@code true} if the servlet has been cached
+     */
+    public boolean put(final AbstractResourceCollector context, final Servlet candidate, final long generation) {
+        final Map<AbstractResourceCollector, CacheEntry> localCache = this.cache;
+        if ( localCache != null && this.generation.get() == generation ) {
             if ( localCache.size() < this.cacheSize ) {
-                localCache.put(context, candidate);
+                // the cached key shares the strings of the symbol table
+                final SymbolTable localSymbols = this.symbols;
+                final AbstractResourceCollector key = localSymbols != null && context instanceof ResourceCollector
+                        ? ((ResourceCollector)context).intern(localSymbols) : context;
+                final CacheEntry entry = new CacheEntry(candidate);
+                localCache.put(key, entry);
+                // a flush or invalidation which started in the meantime might have missed the entry
+                if ( this.generation.get() != generation ) {
+                    localCache.remove(key, entry);
+                    return false;
+                }
+                entry.published = true;
+                return true;
             } else if ( this.logCacheSizeWarning ) {
                 this.logCacheSizeWarning = false;
                 logger.warn("Script cache has reached its limit of {}. You might want to increase the cache size for the servlet resolver.",
                     this.cacheSize);
             }
         }
+        return false;
+    }
+
+    /**
+     * Compares a servlet served from the cache with the servlet resolved
+     * again for the same request without the cache. If they don't match,
+     * the mismatch is counted and logged and the entry is invalidated. The
+     * servlets are not compared if the cache has been flushed or invalidated
+     * since the cache hit or if an invalidation is still pending, as the
+     * content might have changed in between. A change whose event has not
+     * been delivered yet is not known and counts as a mismatch.
+     *
+     * @param key The key of the cache hit
+     * @param cached The servlet served from the cache
+     * @param resolved The servlet resolved without the cache or {@code null}
+     * @param generation The generation as returned by {@link #getGeneration()}
+     *            before the cache lookup
+     * @return {@code false} if the servlets have been compared and don't match
+     */
+    public boolean verify(final AbstractResourceCollector key, final Servlet cached, final Servlet resolved,
+            final long generation) {
+        final Map<AbstractResourceCollector, CacheEntry> localCache = this.cache;
+        if ( localCache == null || this.generation.get() != generation ) {
+            return true;
+        }
+        synchronized ( this.invalidationLock ) {
+            if ( this.pendingInvalidation != null ) {
+                return true;
+            }
+        }
+        this.verifications.incrementAndGet();
+        final String cachedName = RequestUtil.getServletName(cached);
+        final String resolvedName = resolved == null ? null : RequestUtil.getServletName(resolved);
+        if ( cached == resolved || cachedName.equals(resolvedName) ) {
+            return true;
+        }
+        this.verificationMismatches.incrementAndGet();
+        logger.warn("Cached servlet {} for {} does not match the servlet {} resolved without the cache, invalidating the entry",
+                new Object[] {cachedName, key, resolvedName});
+        final CacheEntry entry = localCache.get(key);
+        if ( entry != null && entry.servlet == cached ) {
+            localCache.remove(key, entry);
+            retire(Collections.<Map.Entry<AbstractResourceCollector, CacheEntry>>singleton(
+                    new AbstractMap.SimpleEntry<>(key, entry)));
+            this.logCacheSizeWarning = true;
+        }
+        return false;
+    }
+
+    /**
+     * Record the keys of the cache, ordered by the number of cache hits,
+     * so they can be resolved again on the next start by
+     * {@link #getRecordedKeys(String[])}. This method does nothing if
+     * no warm start is configured. It must be called before the cache is
+     * flushed.
+     */
+    public void recordKeys() {
+        // use local variables to avoid racing with deactivate
+        final Map<AbstractResourceCollector, CacheEntry> localCache = this.cache;
+        final File localKeysFile = this.keysFile;
+        if ( localCache == null || localKeysFile == null ) {
+            return;
+        }
+        final List<Map.Entry<ResourceCollector, Long>> keys = getKeysByHits(localCache);
+        try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(localKeysFile)))) {
+            out.writeInt(KEYS_FORMAT_VERSION);
+            out.writeInt(keys.size());
+            for(final Map.Entry<ResourceCollector, Long> entry : keys) {
+                out.writeLong(entry.getValue());
+                entry.getKey().write(out);
+            }
+            logger.debug("Recorded {} cache keys to {}", keys.size(), localKeysFile);
+        } catch ( final IOException ioe ) {
+            logger.warn("Unable to record cache keys to " + localKeysFile, ioe);
+        }
+    }
+
+    /**
+     * Returns the keys recorded by {@link #recordKeys()}, ordered by the
+     * number of cache hits, the most used key first.
+     * @param executionPaths The allowed execution paths
+     * @return The recorded keys, an empty list if no keys are recorded
+     *         or no warm start is configured
+     */
+    public List<ResourceCollector> getRecordedKeys(final String[] executionPaths) {
+        final File localKeysFile = this.keysFile;
+        if ( localKeysFile == null || !localKeysFile.exists() ) {
+            return Collections.emptyList();
+        }
+        final List<ResourceCollector> keys = new ArrayList<>();
+        try (final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(localKeysFile)))) {
+            if ( in.readInt() != KEYS_FORMAT_VERSION ) {
+                logger.debug("Ignoring cache keys with unknown format in {}", localKeysFile);
+                return Collections.emptyList();
+            }
+            final int count = Math.min(in.readInt(), this.cacheSize);
+            for(int i = 0; i < count; i++) {
+                // the hits are only used for the order
+                in.readLong();
+                keys.add(ResourceCollector.read(in, executionPaths));
+            }
+        } catch ( final IOException ioe ) {
+            logger.warn("Unable to read cache keys from " + localKeysFile, ioe);
+        }
+        return keys;
+    }
+
+    /**
+     * Returns the keys of the given cache together with their number of
+     * cache hits, the most used key first. Keys which can't be resolved
+     * without a request are skipped.
+     */
+    private static List<Map.Entry<ResourceCollector, Long>> getKeysByHits(final Map<AbstractResourceCollector, CacheEntry> cache) {
+        final List<Map.Entry<ResourceCollector, Long>> keys = new ArrayList<>();
+        for(final Map.Entry<AbstractResourceCollector, CacheEntry> entry : cache.entrySet()) {
+            if ( entry.getKey() instanceof ResourceCollector ) {
+                keys.add(new AbstractMap.SimpleEntry<>((ResourceCollector)entry.getKey(), entry.getValue().hits.get()));
+            }
+        }
+        Collections.sort(keys, new Comparator<Map.Entry<ResourceCollector, Long>>() {
+
+            @Override
+            public int compare(final Map.Entry<ResourceCollector, Long> o1, final Map.Entry<ResourceCollector, Long> o2) {
+                return o2.getValue().compareTo(o1.getValue());
+            }
+        });
+        return keys;
+    }
+
+    /**
+     * Returns the given number of keys of the cache with the most recent
+     * hits, the most used key first. Keys which have not been used within
+     * the last two hit windows or which can't be resolved without a request
+     * are skipped.
+     * @param cache The cache
+     * @param count The maximum number of keys
+     * @param now The current time in milliseconds
+     * @return The keys
+     */
+    static List<ResourceCollector> getHotKeys(final Map<AbstractResourceCollector, CacheEntry> cache,
+            final int count, final long now) {
+        // keep the most used keys seen so far, the least used of them at the head
+        final Comparator<Map.Entry<ResourceCollector, Long>> byHits = new Comparator<Map.Entry<ResourceCollector, Long>>() {
+
+            @Override
+            public int compare(final Map.Entry<ResourceCollector, Long> o1, final Map.Entry<ResourceCollector, Long> o2) {
+                return o1.getValue().compareTo(o2.getValue());
+            }
+        };
+        final PriorityQueue<Map.Entry<ResourceCollector, Long>> top = new PriorityQueue<>(count, byHits);
+        for(final Map.Entry<AbstractResourceCollector, CacheEntry> entry : cache.entrySet()) {
+            final long hits = entry.getValue().getRecentHits(now);
+            if ( hits == 0 || !(entry.getKey() instanceof ResourceCollector) ) {
+                continue;
+            }
+            if ( top.size() < count ) {
+                top.add(new AbstractMap.SimpleEntry<>((ResourceCollector)entry.getKey(), hits));
+            } else if ( hits > top.peek().getValue() ) {
+                top.poll();
+                top.add(new AbstractMap.SimpleEntry<>((ResourceCollector)entry.getKey(), hits));
+            }
+        }
+        final List<Map.Entry<ResourceCollector, Long>> sorted = new ArrayList<>(top);
+        Collections.sort(sorted, Collections.reverseOrder(byHits));
+        final List<ResourceCollector> keys = new ArrayList<>(sorted.size());
+        for(final Map.Entry<ResourceCollector, Long> entry : sorted) {
+            keys.add(entry.getKey());
+        }
+        return keys;
+    }
+
+    /**
+     * A script name vocabulary together with the generation of the cache at
+     * the start of its creation.
+     */
+    private static final class VocabularyEntry {
+
+        final ScriptNameVocabulary vocabulary;
+
+        final long generation;
+
+        /** Whether the vocabulary may be used, set once it is known not to be stale. */
+        volatile boolean published;
+
+        VocabularyEntry(final ScriptNameVocabulary vocabulary, final long generation) {
+            this.vocabulary = vocabulary;
+            this.generation = generation;
+        }
+    }
+
+    /**
+     * A cached servlet together with the number of cache hits and its creation time.
+     */
+    static final class CacheEntry {
+
+        final Servlet servlet;
+
+        final AtomicLong hits = new AtomicLong(1);
+
+        final long created = System.currentTimeMillis();
+
+        /** Whether the entry may be served, set once it is known not to be stale. */
+        volatile boolean published;
+
+        /**
+         * The hits within the current hit window. Hits which race with the
+         * start of a new window might get lost, which is fine for ranking.
+         */
+        private final AtomicLong windowHits = new AtomicLong(1);
+
+        /** The hits within the previous hit window. */
+        private volatile long previousWindowHits;
+
+        /** The current hit window. */
+        private volatile long window = created / HIT_WINDOW;
+
+        CacheEntry(final Servlet servlet) {
+            this.servlet = servlet;
+        }
+
+        /**
+         * Count a hit for the ranking by recent hits.
+         * @param now The current time in milliseconds
+         */
+        void recentHit(final long now) {
+            final long current = now / HIT_WINDOW;
+            final long last = this.window;
+            if ( current > last ) {
+                final long previous = this.windowHits.getAndSet(0);
+                this.previousWindowHits = current == last + 1 ? previous : 0;
+                this.window = current;
+            }
+            this.windowHits.incrementAndGet();
+        }
+
+        /**
+         * Returns the hits within the current and the previous hit window.
+         * @param now The current time in milliseconds
+         * @return The recent hits
+         */
+        long getRecentHits(final long now) {
+            final long current = now / HIT_WINDOW;
+            final long last = this.window;
+            if ( current <= last ) {
+                return this.previousWindowHits + this.windowHits.get();
+            }
+            return current == last + 1 ? this.windowHits.get() : 0;
+        }
     }
 }
@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.servlets.resolver.internal.resolution;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A resolution which has taken longer than the slow resolution threshold.
+ */
+public final class SlowResolution {
+
+    private final long timestamp;
+
+    private final String key;
+
+    private final long durationNanos;
+
+    private final List<String> locations;
+
+    private final int candidates;
+
+    private final String servlet;
+
+    public SlowResolution(final long timestamp,
+            final String key,
+            final long durationNanos,
+            final List<String> locations,
+            final int candidates,
+            final String servlet) {
+        this.timestamp = timestamp;
+        this.key = key;
+        this.durationNanos = durationNanos;
+        this.locations = locations;
+        this.candidates = candidates;
+        this.servlet = servlet;
+    }
+
+    /** The time of the resolution in milliseconds since the epoch. */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /** The cache key. */
+    public String getKey() {
+        return key;
+    }
+
+    /** The duration of the resolution in nanoseconds. */
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+    /** The locations visited. */
+    public List<String> getLocations() {
+        return locations;
+    }
+
+    /** The number of candidates checked. */
+    public int getCandidates() {
+        return candidates;
+    }
+
+    /** The name of the chosen servlet, <code>null</code> if none has been found. */
+    public String getServlet() {
+        return servlet;
+    }
+
+    @Override
+    public String toString() {
+        final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+        return format.format(new Date(timestamp))
+                + " " + TimeUnit.NANOSECONDS.toMicros(durationNanos) + "us"
+                + " " + key
+                + ", servlet=" + servlet
+                + ", candidates=" + candidates
+                + ", locations=" + locations;
+    }
+}
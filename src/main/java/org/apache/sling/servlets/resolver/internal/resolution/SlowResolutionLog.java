@@ -0,0 +1,64 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.servlets.resolver.internal.resolution;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The <code>SlowResolutionLog</code> keeps the most recent slow resolutions
+ * in a fixed size ring buffer. Adding an entry takes a single atomic
+ * increment, no lock. A reader running concurrently with writers might miss
+ * entries which are overwritten while it reads.
+ */
+public class SlowResolutionLog {
+
+    private final AtomicReferenceArray<SlowResolution> entries;
+
+    // the number of entries ever added
+    private final AtomicLong added = new AtomicLong();
+
+    public SlowResolutionLog(final int size) {
+        this.entries = new AtomicReferenceArray<>(size);
+    }
+
+    public void add(final SlowResolution entry) {
+        final long index = this.added.getAndIncrement();
+        this.entries.set((int) (index % this.entries.length()), entry);
+    }
+
+    /**
+     * Returns the entries, the most recent one first.
+     * @return The entries
+     */
+    public List<SlowResolution> getEntries() {
+        final int size = this.entries.length();
+        final long last = this.added.get();
+        final List<SlowResolution> result = new ArrayList<>(size);
+        for(long index = last - 1; index >= 0 && index >= last - size; index--) {
+            final SlowResolution entry = this.entries.get((int) (index % size));
+            if ( entry != null ) {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+}
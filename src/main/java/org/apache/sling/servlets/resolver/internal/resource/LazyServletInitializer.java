@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.servlets.resolver.internal.resource;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.Servlet;
+import javax.servlet.ServletConfig;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The <code>LazyServletInitializer</code> initializes a servlet registered
+ * for lazy initialization the first time the servlet is requested from its
+ * servlet resource. The servlet is initialized at most once.
+ */
+final class LazyServletInitializer {
+
+    private static final int STATE_NEW = 0;
+    private static final int STATE_INITIALIZED = 1;
+    private static final int STATE_FAILED = 2;
+    private static final int STATE_DESTROYED = 3;
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    private final Servlet servlet;
+
+    private final ServletConfig config;
+
+    private final String servletInfo;
+
+    private volatile int state = STATE_NEW;
+
+    /** The time init() has taken in nanoseconds, {@code -1} if not initialized. */
+    private volatile long initNanos = -1;
+
+    LazyServletInitializer(final Servlet servlet, final ServletConfig config, final String servletInfo) {
+        this.servlet = servlet;
+        this.config = config;
+        this.servletInfo = servletInfo;
+    }
+
+    /**
+     * Returns the servlet, initializing it if this has not been done yet.
+     * @return The initialized servlet or {@code null} if the initialization
+     *         failed or the servlet has been destroyed
+     */
+    Servlet getServlet() {
+        if ( this.state == STATE_NEW ) {
+            synchronized ( this ) {
+                if ( this.state == STATE_NEW ) {
+                    final long start = System.nanoTime();
+                    try {
+                        this.servlet.init(this.config);
+                        this.initNanos = System.nanoTime() - start;
+                        this.state = STATE_INITIALIZED;
+                        if ( logger.isDebugEnabled() ) {
+                            logger.debug("Servlet {} initialized on first use in {} ms", this.config.getServletName(),
+                                    TimeUnit.NANOSECONDS.toMillis(this.initNanos));
+                        }
+                    } catch (final Throwable t) {
+                        this.state = STATE_FAILED;
+                        logger.error("Servlet " + this.servletInfo + " failed to initialize on first use", t);
+                    }
+                }
+            }
+        }
+        return this.state == STATE_INITIALIZED ? this.servlet : null;
+    }
+
+    /**
+     * Returns the time the initialization of the servlet has taken.
+     * @return The time in nanoseconds, {@code -1} if not initialized
+     */
+    long getInitNanos() {
+        return this.initNanos;
+    }
+
+    /**
+     * Destroys the servlet if it has been initialized. Afterwards
+     * {@link #getServlet()} always returns {@code null}.
+     * @return {@code true} if the servlet was initialized and has been destroyed
+     */
+    synchronized boolean destroy() {
+        final boolean wasInitialized = this.state == STATE_INITIALIZED;
+        this.state = STATE_DESTROYED;
+        if ( wasInitialized ) {
+            this.servlet.destroy();
+        }
+        return wasInitialized;
+    }
+}
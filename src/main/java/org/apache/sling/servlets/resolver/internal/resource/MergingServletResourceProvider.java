@@ -0,0 +1,299 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.servlets.resolver.internal.resource;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.servlet.Servlet;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.SyntheticResource;
+import org.osgi.framework.ServiceReference;
+
+/**
+ * The <code>MergingServletResourceProvider</code> keeps the servlet resource
+ * providers if they are not mounted into the resource tree. The providers are
+ * indexed by the paths their servlet paths are derived from, so lookups only
+ * consult the providers registered for the path or one of its parents.
+ * If more than one provider is registered for a path, the provider of the
+ * servlet with the highest service ranking wins, as it would if mounted.
+ */
+public class MergingServletResourceProvider {
+
+    /** The resource type of the folders leading to servlet paths */
+    public static final String SYNTHETIC_RESOURCE_TYPE = "sling:syntheticResourceProviderResource";
+
+    /** Sorts the registrations by service ranking, highest first */
+    private static final Comparator<Registration> RANKING = new Comparator<Registration>() {
+
+        @Override
+        public int compare(final Registration o1, final Registration o2) {
+            return o2.reference.compareTo(o1.reference);
+        }
+    };
+
+    /** The registrations by root path, the lists are never modified */
+    private final Map<String, List<Registration>> registrationsByRoot = new ConcurrentHashMap<>();
+
+    /** The registrations by the parents of their root paths, the lists are never modified */
+    private final Map<String, List<Registration>> registrationsByParent = new ConcurrentHashMap<>();
+
+    void add(final ServiceReference<Servlet> reference, final ServletResourceProvider provider) {
+        final Registration registration = new Registration(reference, provider);
+        synchronized ( this ) {
+            for(final String root : provider.getRootPaths()) {
+                add(this.registrationsByRoot, root, registration);
+                String parent = getParent(root);
+                while ( parent != null ) {
+                    add(this.registrationsByParent, parent, registration);
+                    parent = getParent(parent);
+                }
+            }
+        }
+    }
+
+    void remove(final ServletResourceProvider provider) {
+        synchronized ( this ) {
+            for(final String root : provider.getRootPaths()) {
+                remove(this.registrationsByRoot, root, provider);
+                String parent = getParent(root);
+                while ( parent != null ) {
+                    remove(this.registrationsByParent, parent, provider);
+                    parent = getParent(parent);
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the servlet resource for the path.
+     * @param resolver The resource resolver for the resource
+     * @param path The absolute path
+     * @return The servlet resource or {@code null}
+     */
+    public Resource getResource(final ResourceResolver resolver, final String path) {
+        for(final Registration registration : getRegistrations(path, true)) {
+            final Resource resource = registration.provider.getServletResource(resolver, path);
+            if ( resource != null ) {
+                return resource;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Check whether there is at least one servlet resource below the path.
+     * @param path The absolute path
+     * @return {@code true} if there are child resources
+     */
+    public boolean hasChildren(final String path) {
+        if ( this.registrationsByParent.containsKey(path) ) {
+            return true;
+        }
+        for(final Root root : getRoots(path)) {
+            if ( root.registration.provider.hasServletPathBelow(root.path, path) ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * List the servlet resources and the folders leading to servlet resources
+     * directly below the path.
+     * @param resolver The resource resolver for the resources
+     * @param path The absolute path
+     * @return The child resources
+     */
+    public List<Resource> listChildren(final ResourceResolver resolver, final String path) {
+        final String prefix = path.endsWith("/") ? path : path.concat("/");
+        final Map<String, Resource> children = new LinkedHashMap<>();
+        // the servlet paths derived from the path or one of its parents
+        final Set<String> servletPaths = new LinkedHashSet<>();
+        final Set<String> folderPaths = new LinkedHashSet<>();
+        for(final Root root : getRoots(path)) {
+            root.registration.provider.addChildPaths(root.path, path, servletPaths, folderPaths);
+        }
+        // the folders leading to the root paths below the path
+        final List<Registration> below = this.registrationsByParent.get(path);
+        if ( below != null ) {
+            for(final Registration registration : below) {
+                for(final String root : registration.provider.getRootPaths()) {
+                    if ( root.length() > prefix.length() && root.startsWith(prefix) ) {
+                        final int slash = root.indexOf('/', prefix.length());
+                        if ( slash == -1 ) {
+                            registration.provider.addRootServletPaths(root, servletPaths);
+                            if ( registration.provider.hasServletPathBelow(root, root) ) {
+                                folderPaths.add(root);
+                            }
+                        } else {
+                            folderPaths.add(prefix.concat(root.substring(prefix.length(), slash)));
+                        }
+                    }
+                }
+            }
+        }
+        for(final String servletPath : servletPaths) {
+            addChild(children, resolver, servletPath, true);
+        }
+        for(final String folderPath : folderPaths) {
+            addChild(children, resolver, folderPath, false);
+        }
+        return new ArrayList<>(children.values());
+    }
+
+    private void addChild(final Map<String, Resource> children,
+            final ResourceResolver resolver,
+            final String childPath,
+            final boolean mightBeServlet) {
+        if ( !children.containsKey(childPath) ) {
+            Resource child = mightBeServlet ? getResource(resolver, childPath) : null;
+            if ( child == null ) {
+                child = new SyntheticResource(resolver, childPath, SYNTHETIC_RESOURCE_TYPE);
+            }
+            children.put(childPath, child);
+        }
+    }
+
+    /**
+     * Get the root paths which are the path or one of its parents together
+     * with their registrations, the registration with the highest service
+     * ranking first.
+     */
+    private List<Root> getRoots(final String path) {
+        final List<Root> result = new ArrayList<>();
+        String root = path;
+        while ( root != null ) {
+            final List<Registration> registrations = this.registrationsByRoot.get(root);
+            if ( registrations != null ) {
+                for(final Registration registration : registrations) {
+                    result.add(new Root(root, registration));
+                }
+            }
+            root = getParent(root);
+        }
+        Collections.sort(result, new Comparator<Root>() {
+
+            @Override
+            public int compare(final Root o1, final Root o2) {
+                return RANKING.compare(o1.registration, o2.registration);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Get the registrations for the root path, one of its parents
+     * and optionally the root path of a servlet with ".servlet" extension.
+     */
+    private List<Registration> getRegistrations(final String path, final boolean includeServletName) {
+        final List<Registration> result = new ArrayList<>();
+        addRegistrations(result, path);
+        if ( includeServletName && path.endsWith(ServletResourceProviderFactory.SERVLET_PATH_EXTENSION) ) {
+            addRegistrations(result, path.substring(0, path.length() - ServletResourceProviderFactory.SERVLET_PATH_EXTENSION.length()));
+        }
+        String parent = getParent(path);
+        while ( parent != null ) {
+            addRegistrations(result, parent);
+            parent = getParent(parent);
+        }
+        Collections.sort(result, RANKING);
+        return result;
+    }
+
+    private void addRegistrations(final List<Registration> result, final String root) {
+        final List<Registration> registrations = this.registrationsByRoot.get(root);
+        if ( registrations != null ) {
+            for(final Registration registration : registrations) {
+                if ( !result.contains(registration) ) {
+                    result.add(registration);
+                }
+            }
+        }
+    }
+
+    private static void add(final Map<String, List<Registration>> index, final String key, final Registration registration) {
+        final List<Registration> current = index.get(key);
+        final List<Registration> registrations = current == null ? new ArrayList<Registration>() : new ArrayList<>(current);
+        registrations.add(registration);
+        Collections.sort(registrations, RANKING);
+        index.put(key, registrations);
+    }
+
+    private static void remove(final Map<String, List<Registration>> index, final String key, final ServletResourceProvider provider) {
+        final List<Registration> current = index.get(key);
+        if ( current != null ) {
+            final List<Registration> registrations = new ArrayList<>(current);
+            for(int i = registrations.size() - 1; i >= 0; i--) {
+                if ( registrations.get(i).provider == provider ) {
+                    registrations.remove(i);
+                }
+            }
+            if ( registrations.isEmpty() ) {
+                index.remove(key);
+            } else {
+                index.put(key, registrations);
+            }
+        }
+    }
+
+    private static String getParent(final String path) {
+        final int pos = path.lastIndexOf('/');
+        if ( pos > 0 ) {
+            return path.substring(0, pos);
+        }
+        if ( pos == 0 && path.length() > 1 ) {
+            return "/";
+        }
+        return null;
+    }
+
+    private static final class Root {
+
+        final String path;
+
+        final Registration registration;
+
+        Root(final String path, final Registration registration) {
+            this.path = path;
+            this.registration = registration;
+        }
+    }
+
+    private static final class Registration {
+
+        final ServiceReference<Servlet> reference;
+
+        final ServletResourceProvider provider;
+
+        Registration(final ServiceReference<Servlet> reference, final ServletResourceProvider provider) {
+            this.reference = reference;
+            this.provider = provider;
+        }
+    }
+}
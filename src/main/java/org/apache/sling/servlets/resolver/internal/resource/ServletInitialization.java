@@ -0,0 +1,54 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.servlets.resolver.internal.resource;
+
+/**
+ * The initialization of a mounted servlet.
+ */
+public final class ServletInitialization {
+
+    private final String name;
+
+    private final boolean lazy;
+
+    private final long initNanos;
+
+    public ServletInitialization(final String name,
+            final boolean lazy,
+            final long initNanos) {
+        this.name = name;
+        this.lazy = lazy;
+        this.initNanos = initNanos;
+    }
+
+    /** The name of the servlet. */
+    public String getName() {
+        return name;
+    }
+
+    /** Whether the servlet is initialized on first use. */
+    public boolean isLazy() {
+        return lazy;
+    }
+
+    /** The time init() has taken in nanoseconds, {@code -1} if not initialized yet. */
+    public long getInitNanos() {
+        return initNanos;
+    }
+}
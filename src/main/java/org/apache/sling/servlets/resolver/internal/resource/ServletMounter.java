@@ -25,11 +25,23 @@ import static org.osgi.service.component.ComponentConstants.COMPONENT_NAME;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Dictionary;
 import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.servlet.Servlet;
 import javax.servlet.ServletContext;
@@ -39,7 +51,9 @@ import org.apache.sling.api.request.RequestUtil;
 import org.apache.sling.api.resource.ResourceResolverFactory;
 import org.apache.sling.api.servlets.ServletResolver;
 import org.apache.sling.api.servlets.ServletResolverConstants;
+import org.apache.sling.commons.osgi.PropertiesUtil;
 import org.apache.sling.servlets.resolver.internal.ResolverConfig;
+import org.apache.sling.servlets.resolver.internal.resolution.ResolutionCache;
 import org.apache.sling.spi.resource.provider.ResourceProvider;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
@@ -63,7 +77,8 @@ import org.slf4j.LoggerFactory;
  *
  */
 @Component(configurationPid = ResolverConfig.PID,
-           service = {})
+           service = ServletMounter.class,
+           immediate = true)
 public class ServletMounter {
 
     /** Logger */
@@ -71,6 +86,15 @@ public class ServletMounter {
 
     private static final String REF_SERVLET = "Servlet";
 
+    /**
+     * The name of the service property to register a servlet for initialization
+     * on first use instead of on registration (value is "sling.servlet.lazyInit").
+     */
+    public static final String SLING_SERVLET_LAZY_INIT = "sling.servlet.lazyInit";
+
+    /** The time in seconds to wait for running servlet initializations and registrations on deactivation. */
+    private static final long INIT_SHUTDOWN_TIMEOUT = 30;
+
     private final ServletContext servletContext;
 
     private final Map<ServiceReference<Servlet>, ServletReg> servletsByReference = new HashMap<>();
@@ -79,16 +103,71 @@ public class ServletMounter {
 
     private final ServletResourceProviderFactory servletResourceProviderFactory;
 
+    private final ResolutionCache resolutionCache;
+
+    /** Executor initializing servlets in parallel, {@code null} if servlets are initialized on bind. */
+    private final ExecutorService initExecutor;
+
+    /**
+     * Executor registering the servlets initialized in parallel one after the
+     * other in the order they have been bound, {@code null} if servlets are
+     * initialized on bind.
+     */
+    private final ExecutorService registrationExecutor;
+
+    /** The servlets bound but not registered yet, guarded by {@link #servletsByReference}. */
+    private final Map<ServiceReference<Servlet>, PendingInitialization> pendingInitializations = new HashMap<>();
+
+    /** The provider for all servlets, {@code null} if each servlet is mounted on its own. */
+    private final MergingServletResourceProvider mergingProvider;
+
+    private final ServiceRegistration<MergingServletResourceProvider> mergingProviderRegistration;
+
     /**
      * Activate this component.
      */
     @Activate
     public ServletMounter(final BundleContext context, @Reference final ResourceResolverFactory resourceResolverFactory,
             @Reference(target = "(name=org.apache.sling)") ServletContext servletContext,
+            @Reference final ResolutionCache resolutionCache,
             final ResolverConfig config) {
         this.servletContext = servletContext;
+        this.resolutionCache = resolutionCache;
         servletResourceProviderFactory = new ServletResourceProviderFactory(config.servletresolver_servletRoot(),
                 resourceResolverFactory.getSearchPath());
+        final int initThreads = config.servletresolver_initThreads();
+        if ( initThreads > 0 ) {
+            final AtomicInteger threadCount = new AtomicInteger();
+            this.initExecutor = Executors.newFixedThreadPool(initThreads, new ThreadFactory() {
+
+                @Override
+                public Thread newThread(final Runnable r) {
+                    final Thread t = new Thread(r, "Apache Sling Servlet Initialization " + threadCount.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            this.registrationExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+                @Override
+                public Thread newThread(final Runnable r) {
+                    final Thread t = new Thread(r, "Apache Sling Servlet Registration");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        } else {
+            this.initExecutor = null;
+            this.registrationExecutor = null;
+        }
+        if ( config.servletresolver_mountProviders() ) {
+            this.mergingProvider = null;
+            this.mergingProviderRegistration = null;
+        } else {
+            this.mergingProvider = new MergingServletResourceProvider();
+            this.mergingProviderRegistration = context.registerService(MergingServletResourceProvider.class,
+                    this.mergingProvider, null);
+        }
     }
 
     /**
@@ -97,6 +176,20 @@ public class ServletMounter {
     @Deactivate
     protected void deactivate() {
         this.active = false;
+        // stop pending initializations and wait for the running ones, the
+        // servlets initialized in the meantime are destroyed by their registration
+        if ( this.initExecutor != null ) {
+            synchronized ( this.servletsByReference ) {
+                for(final PendingInitialization p : this.pendingInitializations.values()) {
+                    p.cancel();
+                }
+                this.pendingInitializations.clear();
+            }
+            this.initExecutor.shutdown();
+            this.registrationExecutor.shutdown();
+            awaitTermination(this.initExecutor, "initialization");
+            awaitTermination(this.registrationExecutor, "registration");
+        }
         // Copy the list of servlets first, to minimize the need for
         // synchronization
         final Collection<ServiceReference<Servlet>> refs;
@@ -110,6 +203,14 @@ public class ServletMounter {
         synchronized ( this.servletsByReference ) {
             this.servletsByReference.clear();
         }
+
+        if ( this.mergingProviderRegistration != null ) {
+            try {
+                this.mergingProviderRegistration.unregister();
+            } catch ( final IllegalStateException ise ) {
+                // this might happen on shutdown
+            }
+        }
     }
 
     @Reference(
@@ -125,32 +226,118 @@ public class ServletMounter {
     }
 
     protected void unbindServlet(final ServiceReference<Servlet> reference) {
-        destroyServlet(reference);
+        // a servlet which is not registered yet is not waited for, a pending
+        // initialization is cancelled and a running one destroys the servlet
+        // once it has finished
+        final PendingInitialization pending;
+        synchronized ( this.servletsByReference ) {
+            pending = this.pendingInitializations.remove(reference);
+        }
+        if ( pending != null ) {
+            pending.cancel();
+        } else {
+            destroyServlet(reference);
+        }
+    }
+
+    private void awaitTermination(final ExecutorService executor, final String task) {
+        try {
+            if ( !executor.awaitTermination(INIT_SHUTDOWN_TIMEOUT, TimeUnit.SECONDS) ) {
+                logger.warn("Servlet {} did not finish within {} seconds", task, INIT_SHUTDOWN_TIMEOUT);
+            }
+        } catch ( final InterruptedException ie ) {
+            Thread.currentThread().interrupt();
+        }
     }
 
     private boolean createServlet(final Servlet servlet, final ServiceReference<Servlet> reference) {
         // check for a name, this is required
         final String name = getName(reference);
 
+        // servlets registered for lazy initialization are initialized on first use
+        final LazyServletInitializer lazyInitializer;
+        if ( PropertiesUtil.toBoolean(reference.getProperty(SLING_SERVLET_LAZY_INIT), false) ) {
+            lazyInitializer = new LazyServletInitializer(servlet, new SlingServletConfig(servletContext, reference, name),
+                    ServletResourceProviderFactory.getServiceReferenceInfo(reference));
+        } else {
+            lazyInitializer = null;
+        }
+
         // check for Sling properties in the service registration
-        final ServletResourceProvider provider = servletResourceProviderFactory.create(reference, servlet);
+        final ServletResourceProvider provider = servletResourceProviderFactory.create(reference, servlet, lazyInitializer);
         if (provider == null) {
             // this is expected if the servlet is not destined for Sling
             return false;
         }
 
-        // initialize now
+        // initialize now or in parallel, the resource provider is only registered
+        // after the servlet has been initialized successfully
+        if ( lazyInitializer != null ) {
+            logger.debug("bindServlet: Servlet {} will be initialized on first use", name);
+        }
+        if ( this.initExecutor != null ) {
+            // the registrations wait for the initializations one after the
+            // other, so the servlets are registered in the order of binding
+            final PendingInitialization pending = new PendingInitialization(servlet, reference, name, provider, lazyInitializer);
+            synchronized ( this.servletsByReference ) {
+                if ( lazyInitializer == null ) {
+                    pending.initialization = this.initExecutor.submit(new Callable<Long>() {
+
+                        @Override
+                        public Long call() {
+                            return pending.initialize();
+                        }
+                    });
+                }
+                this.pendingInitializations.put(reference, pending);
+                this.registrationExecutor.execute(pending);
+            }
+        } else if ( lazyInitializer != null ) {
+            registerServlet(servlet, reference, name, provider, lazyInitializer, -1, null);
+        } else {
+            final long initNanos = initServlet(servlet, reference, name);
+            if ( initNanos >= 0 ) {
+                registerServlet(servlet, reference, name, provider, null, initNanos, null);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Initialize the servlet.
+     * @return The time the initialization has taken in nanoseconds, {@code -1} if it failed
+     */
+    private long initServlet(final Servlet servlet, final ServiceReference<Servlet> reference, final String name) {
+        final long start = System.nanoTime();
         try {
             servlet.init(new SlingServletConfig(servletContext, reference, name));
-            logger.debug("bindServlet: Servlet {} initialized", name);
+            final long initNanos = System.nanoTime() - start;
+            if ( logger.isDebugEnabled() ) {
+                logger.debug("bindServlet: Servlet {} initialized in {} ms", name,
+                        TimeUnit.NANOSECONDS.toMillis(initNanos));
+            }
+            return initNanos;
         } catch (final ServletException ce) {
             logger.error("bindServlet: Servlet " + ServletResourceProviderFactory.getServiceReferenceInfo(reference) + " failed to initialize", ce);
-            return false;
         } catch (final Throwable t) {
             logger.error("bindServlet: Unexpected problem initializing servlet " + ServletResourceProviderFactory.getServiceReferenceInfo(reference), t);
-            return false;
         }
+        return -1;
+    }
 
+    /**
+     * Register the resource provider of the servlet.
+     * @param pending The pending initialization of a servlet initialized in parallel,
+     *        if it is not pending anymore the servlet has been unbound in the meantime
+     *        and is destroyed instead
+     */
+    private void registerServlet(final Servlet servlet,
+            final ServiceReference<Servlet> reference,
+            final String name,
+            final ServletResourceProvider provider,
+            final LazyServletInitializer lazyInitializer,
+            final long initNanos,
+            final PendingInitialization pending) {
         boolean registered = false;
         final Bundle bundle = reference.getBundle();
         if ( bundle != null ) {
@@ -158,7 +345,12 @@ public class ServletMounter {
             if ( bundleContext != null ) {
                 final List<ServiceRegistration<ResourceProvider<Object>>> regs = new ArrayList<>();
                 try {
-                    for(final String root : provider.getServletPaths()) {
+                    // with a merging provider only the explicit paths and the resource super
+                    // type markers are mounted, so the request resolution still finds the
+                    // servlets registered by path and every resource resolver the super types
+                    final Collection<String> roots = this.mergingProvider != null
+                            ? provider.getMountPaths() : provider.getServletPaths();
+                    for(final String root : roots) {
                         @SuppressWarnings("unchecked")
                         final ServiceRegistration<ResourceProvider<Object>> reg = (ServiceRegistration<ResourceProvider<Object>>) bundleContext.registerService(
                             ResourceProvider.class.getName(),
@@ -171,20 +363,42 @@ public class ServletMounter {
                     // bundle context not valid anymore - ignore and continue without this
                 }
                 if ( registered ) {
-                    if ( logger.isDebugEnabled() ) {
-                        logger.debug("Registered {}", provider);
+                    if ( this.mergingProvider != null ) {
+                        this.mergingProvider.add(reference, provider);
                     }
+                    final Collection<String> rootPaths = provider.getRootPaths();
+                    final boolean bound;
                     synchronized (this.servletsByReference) {
-                        servletsByReference.put(reference, new ServletReg(servlet, regs));
+                        bound = pending == null || this.pendingInitializations.remove(reference, pending);
+                        if ( bound ) {
+                            servletsByReference.put(reference, new ServletReg(servlet, name, regs, provider, rootPaths,
+                                    lazyInitializer, initNanos));
+                        }
+                    }
+                    if ( bound ) {
+                        if ( logger.isDebugEnabled() ) {
+                            logger.debug("Registered {}", provider);
+                        }
+                        // only evict the cache entries for the types and paths of this servlet
+                        resolutionCache.invalidate(rootPaths, "servlet registration");
+                    } else {
+                        logger.debug("bindServlet: Servlet {} has been unbound while initializing", name);
+                        unregister(regs);
+                        if ( this.mergingProvider != null ) {
+                            this.mergingProvider.remove(provider);
+                        }
+                        destroy(servlet, lazyInitializer, name);
                     }
+                    return;
                 }
             }
         }
-        if ( !registered ) {
-            logger.debug("bindServlet: servlet has been unregistered in the meantime. Ignoring {}", name);
+        if ( pending != null ) {
+            synchronized ( this.servletsByReference ) {
+                this.pendingInitializations.remove(reference, pending);
+            }
         }
-
-        return true;
+        logger.debug("bindServlet: servlet has been unregistered in the meantime. Ignoring {}", name);
     }
 
     private Dictionary<String, Object> createServiceProperties(final ServiceReference<Servlet> reference,
@@ -210,6 +424,27 @@ public class ServletMounter {
         }
     }
 
+    /**
+     * Returns the initialization of the mounted servlets.
+     * @return The initializations, the slowest one first
+     */
+    public List<ServletInitialization> getServletInitializations() {
+        final List<ServletInitialization> result = new ArrayList<>();
+        synchronized ( this.servletsByReference ) {
+            for(final ServletReg reg : this.servletsByReference.values()) {
+                result.add(new ServletInitialization(reg.name, reg.lazyInitializer != null, reg.getInitNanos()));
+            }
+        }
+        Collections.sort(result, new Comparator<ServletInitialization>() {
+
+            @Override
+            public int compare(final ServletInitialization o1, final ServletInitialization o2) {
+                return Long.compare(o2.getInitNanos(), o1.getInitNanos());
+            }
+        });
+        return result;
+    }
+
     private void destroyServlet(final ServiceReference<Servlet> reference) {
         ServletReg registration;
         synchronized (this.servletsByReference) {
@@ -217,24 +452,40 @@ public class ServletMounter {
         }
         if (registration != null) {
 
-            for(final ServiceRegistration<ResourceProvider<Object>> reg : registration.registrations) {
-                try {
-                    reg.unregister();
-                } catch ( final IllegalStateException ise) {
-                    // this might happen on shutdown
-                }
+            unregister(registration.registrations);
+            if ( this.mergingProvider != null ) {
+                this.mergingProvider.remove(registration.provider);
             }
+            resolutionCache.invalidate(registration.paths, "servlet removal");
             final String name = RequestUtil.getServletName(registration.servlet);
             logger.debug("unbindServlet: Servlet {} removed", name);
 
+            destroy(registration.servlet, registration.lazyInitializer, name);
+        }
+    }
+
+    private void unregister(final List<ServiceRegistration<ResourceProvider<Object>>> registrations) {
+        for(final ServiceRegistration<ResourceProvider<Object>> reg : registrations) {
             try {
-                registration.servlet.destroy();
-            } catch (Throwable t) {
-                logger.error("unbindServlet: Unexpected problem destroying servlet " + name, t);
+                reg.unregister();
+            } catch ( final IllegalStateException ise) {
+                // this might happen on shutdown
             }
         }
     }
 
+    private void destroy(final Servlet servlet, final LazyServletInitializer lazyInitializer, final String name) {
+        try {
+            if ( lazyInitializer != null ) {
+                lazyInitializer.destroy();
+            } else {
+                servlet.destroy();
+            }
+        } catch (Throwable t) {
+            logger.error("unbindServlet: Unexpected problem destroying servlet " + name, t);
+        }
+    }
+
     /** The list of property names checked by {@link #getName(ServiceReference)} */
     private static final String[] NAME_PROPERTIES = { SLING_SERVLET_NAME,
         COMPONENT_NAME, SERVICE_PID, SERVICE_ID };
@@ -257,13 +508,116 @@ public class ServletMounter {
         return servletName;
     }
 
+    /**
+     * A servlet bound while servlets are initialized in parallel. The servlet
+     * is initialized by the init executor, the registration executor waits for
+     * the initialization and registers the servlet afterwards. The
+     * initialization is either run or cancelled, whoever claims it first wins.
+     */
+    private final class PendingInitialization implements Runnable {
+
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        private final Servlet servlet;
+
+        private final ServiceReference<Servlet> reference;
+
+        private final String name;
+
+        private final ServletResourceProvider provider;
+
+        private final LazyServletInitializer lazyInitializer;
+
+        /** The initialization, {@code null} for a servlet initialized on first use. */
+        Future<Long> initialization;
+
+        PendingInitialization(final Servlet servlet,
+                final ServiceReference<Servlet> reference,
+                final String name,
+                final ServletResourceProvider provider,
+                final LazyServletInitializer lazyInitializer) {
+            this.servlet = servlet;
+            this.reference = reference;
+            this.name = name;
+            this.provider = provider;
+            this.lazyInitializer = lazyInitializer;
+        }
+
+        /**
+         * Cancel this initialization.
+         * @return {@code true} if the initialization has not been started
+         */
+        boolean cancel() {
+            return this.claimed.compareAndSet(false, true);
+        }
+
+        /**
+         * Initialize the servlet, unless cancelled.
+         * @return The time the initialization has taken in nanoseconds, {@code -1} if it failed or has been cancelled
+         */
+        long initialize() {
+            if ( !this.claimed.compareAndSet(false, true) ) {
+                return -1;
+            }
+            return initServlet(servlet, reference, name);
+        }
+
+        @Override
+        public void run() {
+            long initNanos = -1;
+            if ( this.initialization != null ) {
+                try {
+                    initNanos = this.initialization.get();
+                } catch ( final InterruptedException ie ) {
+                    Thread.currentThread().interrupt();
+                } catch ( final ExecutionException | CancellationException e ) {
+                    // failures are logged by the initialization itself
+                }
+                if ( initNanos < 0 ) {
+                    synchronized ( servletsByReference ) {
+                        pendingInitializations.remove(reference, this);
+                    }
+                    return;
+                }
+            }
+            final boolean bound;
+            synchronized ( servletsByReference ) {
+                bound = pendingInitializations.get(reference) == this;
+            }
+            if ( bound ) {
+                registerServlet(servlet, reference, name, provider, lazyInitializer, initNanos, this);
+            } else {
+                logger.debug("bindServlet: Servlet {} has been unbound while initializing", name);
+                destroy(servlet, lazyInitializer, name);
+            }
+        }
+    }
+
     private static final class ServletReg {
         public final Servlet servlet;
+        public final String name;
         public final List<ServiceRegistration<ResourceProvider<Object>>> registrations;
-
-        public ServletReg(final Servlet s, final List<ServiceRegistration<ResourceProvider<Object>>> srs) {
+        public final ServletResourceProvider provider;
+        public final Collection<String> paths;
+        public final LazyServletInitializer lazyInitializer;
+        public final long initNanos;
+
+        public ServletReg(final Servlet s, final String name, final List<ServiceRegistration<ResourceProvider<Object>>> srs,
+                final ServletResourceProvider provider,
+                final Collection<String> paths, final LazyServletInitializer lazyInitializer,
+                final long initNanos) {
             this.servlet = s;
+            this.name = name;
             this.registrations = srs;
+            this.provider = provider;
+            this.paths = paths;
+            this.lazyInitializer = lazyInitializer;
+            this.initNanos = initNanos;
+        }
+
+        /** The time init() has taken in nanoseconds, {@code -1} if not initialized yet. */
+        long getInitNanos() {
+            return this.lazyInitializer != null ? this.lazyInitializer.getInitNanos() : this.initNanos;
         }
     }
 }
@@ -36,6 +36,8 @@ class ServletResource extends AbstractResource {
 
     private final Servlet servlet;
 
+    private final LazyServletInitializer lazyInitializer;
+
     private final String path;
 
     private final String resourceType;
@@ -51,8 +53,17 @@ class ServletResource extends AbstractResource {
                     final Servlet servlet,
                     final String path,
                     final String resourceSuperType) {
+        this(resourceResolver, servlet, path, resourceSuperType, null);
+    }
+
+    ServletResource(final ResourceResolver resourceResolver,
+                    final Servlet servlet,
+                    final String path,
+                    final String resourceSuperType,
+                    final LazyServletInitializer lazyInitializer) {
         this.resourceResolver = resourceResolver;
         this.servlet = servlet;
+        this.lazyInitializer = lazyInitializer;
         this.path = path;
         this.resourceType = ServletResourceProviderFactory.ensureServletNameExtension(path);
         this.resourceSuperType = StringUtils.isEmpty(resourceSuperType) ? "sling/bundle/resource" : resourceSuperType;
@@ -106,6 +117,10 @@ class ServletResource extends AbstractResource {
     @SuppressWarnings("unchecked")
     public <AdapterType> AdapterType adaptTo(Class<AdapterType> type) {
         if (type == Servlet.class && servlet != null) {
+            if (lazyInitializer != null) {
+                // initialize on first use, a failed servlet does not adapt
+                return (AdapterType) lazyInitializer.getServlet(); // unchecked cast
+            }
             return (AdapterType) servlet; // unchecked cast
         } else if ( type == ValueMap.class ) {
             final Map<String, Object> props = new HashMap<>();
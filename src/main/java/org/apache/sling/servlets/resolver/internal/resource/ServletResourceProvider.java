@@ -18,28 +18,64 @@
  */
 package org.apache.sling.servlets.resolver.internal.resource;
 
+import static org.apache.sling.servlets.resolver.internal.resource.ServletResourceProviderFactory.SERVLET_PATH_EXTENSION;
+
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Set;
 
 import javax.servlet.Servlet;
 
 import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
 import org.apache.sling.spi.resource.provider.ResolveContext;
 import org.apache.sling.spi.resource.provider.ResourceContext;
 import org.apache.sling.spi.resource.provider.ResourceProvider;
 
+/**
+ * The <code>ServletResourceProvider</code> provides the resources for a single
+ * servlet. Instead of keeping every combination of resource type, selector,
+ * extension and method as a path, the registration is kept as the set of
+ * each of these and a path is matched structurally against them.
+ */
 public class ServletResourceProvider extends ResourceProvider<Object> {
 
     private final Servlet servlet;
 
-    private final Set<String> resourcePaths;
+    /** The explicitly registered paths, including their ".servlet" variant */
+    private final Set<String> paths;
+
+    /** The absolute resource type paths, without trailing slash */
+    private final Set<String> types;
+
+    /** The selectors with dots replaced by slashes, the empty string stands for no selector */
+    private final Set<String> selectors;
+
+    /** The extensions or {@code null} if not part of the servlet name */
+    private final Set<String> extensions;
+
+    /** The methods or {@code null} if not part of the servlet name */
+    private final Set<String> methods;
+
     private final String resourceSuperType;
     private final Set<String> resourceSuperTypeMarkers;
+    private final LazyServletInitializer lazyInitializer;
 
-    ServletResourceProvider(final Servlet servlet, final Set<String> resourcePaths,
-                            final Set<String> resourceSuperTypeMarkers, final String resourceSuperType) {
+    ServletResourceProvider(final Servlet servlet,
+                            final Set<String> paths,
+                            final Set<String> types,
+                            final Set<String> selectors,
+                            final Set<String> extensions,
+                            final Set<String> methods,
+                            final Set<String> resourceSuperTypeMarkers, final String resourceSuperType,
+                            final LazyServletInitializer lazyInitializer) {
         this.servlet = servlet;
-        this.resourcePaths = resourcePaths;
+        this.lazyInitializer = lazyInitializer;
+        this.paths = paths;
+        this.types = types;
+        this.selectors = selectors;
+        this.extensions = extensions;
+        this.methods = methods;
         this.resourceSuperType = resourceSuperType;
         this.resourceSuperTypeMarkers = resourceSuperTypeMarkers;
     }
@@ -51,11 +87,9 @@ public class ServletResourceProvider extends ResourceProvider<Object> {
             final ResourceContext resourceContext,
             final Resource parent) {
         // only return a resource if the servlet has been assigned
-        if (resourcePaths.contains(path)) {
-            if (resourceSuperTypeMarkers.contains(path)) {
-                return new ServletResource(ctx.getResourceResolver(), null, path, resourceSuperType);
-            }
-            return new ServletResource(ctx.getResourceResolver(), servlet, path, resourceSuperType);
+        final Resource resource = getServletResource(ctx.getResourceResolver(), path);
+        if ( resource != null ) {
+            return resource;
         }
 
         @SuppressWarnings("rawtypes")
@@ -78,11 +112,250 @@ public class ServletResourceProvider extends ResourceProvider<Object> {
     }
 
     /**
-     * The paths under which this servlet is mounted. Used by the servlet mounter
+     * Get the resource for the path if the servlet is registered for it.
+     * @param resolver The resource resolver of the resource
+     * @param path The absolute path
+     * @return The resource or {@code null}
+     */
+    Resource getServletResource(final ResourceResolver resolver, final String path) {
+        if (isServletPath(path)) {
+            if (resourceSuperTypeMarkers.contains(path)) {
+                return new ServletResource(resolver, null, path, resourceSuperType);
+            }
+            return new ServletResource(resolver, servlet, path, resourceSuperType, lazyInitializer);
+        }
+        return null;
+    }
+
+    /**
+     * Check whether the servlet is registered for the path.
+     * @param path The absolute path
+     * @return {@code true} if the path is one of the {@link #getServletPaths()}
+     */
+    boolean isServletPath(final String path) {
+        return paths.contains(path) || resourceSuperTypeMarkers.contains(path) || matchesType(path);
+    }
+
+    private boolean matchesType(final String path) {
+        if ( types.isEmpty() || !path.endsWith(SERVLET_PATH_EXTENSION) ) {
+            return false;
+        }
+        final String name = path.substring(0, path.length() - SERVLET_PATH_EXTENSION.length());
+
+        // registered with neither selectors, extensions nor methods
+        if ( extensions == null && methods == null && selectors.contains("") && types.contains(name) ) {
+            return true;
+        }
+
+        // resource types might be nested, so check every parent
+        int pos = name.lastIndexOf('/');
+        while ( pos > 0 ) {
+            if ( types.contains(name.substring(0, pos)) && matchesName(name.substring(pos + 1)) ) {
+                return true;
+            }
+            pos = name.lastIndexOf('/', pos - 1);
+        }
+        return false;
+    }
+
+    /**
+     * Check the part of the servlet path below the resource type
+     * which is built as [selector.][extension.][method]
+     */
+    private boolean matchesName(final String name) {
+        if ( extensions != null && methods != null ) {
+            for(final String method : methods) {
+                if ( name.length() > method.length() && name.endsWith(method)
+                     && name.charAt(name.length() - method.length() - 1) == '.'
+                     && matchesSuffix(name.substring(0, name.length() - method.length() - 1), extensions) ) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        if ( extensions != null ) {
+            return matchesSuffix(name, extensions);
+        }
+        if ( methods != null ) {
+            return matchesSuffix(name, methods);
+        }
+        return !name.isEmpty() && selectors.contains(name);
+    }
+
+    private boolean matchesSuffix(final String name, final Set<String> suffixes) {
+        for(final String suffix : suffixes) {
+            if ( name.equals(suffix) ) {
+                if ( selectors.contains("") ) {
+                    return true;
+                }
+            } else if ( name.length() > suffix.length() + 1 && name.endsWith(suffix)
+                    && name.charAt(name.length() - suffix.length() - 1) == '.'
+                    && selectors.contains(name.substring(0, name.length() - suffix.length() - 1)) ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The paths under which this servlet is mounted. Used by the servlet mounter.
+     * The paths are computed on each call.
      * @return The set of paths
      */
     Set<String> getServletPaths() {
-        return resourcePaths;
+        final Set<String> result = new HashSet<>(paths);
+        for(final String type : types) {
+            addTypePaths(result, type);
+        }
+        result.addAll(resourceSuperTypeMarkers);
+        return result;
+    }
+
+    /**
+     * Check whether a servlet path derived from one of the {@link #getRootPaths()}
+     * is below the path. The check only looks at the selectors, the combinations
+     * with the extensions and methods are not computed.
+     * @param root The root path, which is the path or one of its parents
+     * @param path The absolute path
+     * @return {@code true} if there is a servlet path below the path
+     */
+    boolean hasServletPathBelow(final String root, final String path) {
+        if ( !types.contains(root) || !hasNames() ) {
+            return false;
+        }
+        final String folder = getSelectorFolder(root, path);
+        for(final String selector : selectors) {
+            if ( selector.isEmpty() ) {
+                // the names directly below the resource type
+                if ( folder.isEmpty() && (extensions != null || methods != null) ) {
+                    return true;
+                }
+            } else if ( selector.startsWith(folder) ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Add the servlet paths and folders derived from one of the
+     * {@link #getRootPaths()} which are directly below the path.
+     * Only the combinations of the selectors leading to the path
+     * are computed.
+     * @param root The root path, which is the path or one of its parents
+     * @param path The absolute path
+     * @param servletPaths The set the servlet paths are added to
+     * @param folderPaths The set the paths of the folders leading to servlet paths are added to
+     */
+    void addChildPaths(final String root, final String path, final Set<String> servletPaths, final Set<String> folderPaths) {
+        if ( !types.contains(root) || !hasNames() ) {
+            return;
+        }
+        final String folder = getSelectorFolder(root, path);
+        final String prefix = path.concat("/");
+        for(final String selector : selectors) {
+            if ( selector.isEmpty() ) {
+                if ( folder.isEmpty() && (extensions != null || methods != null) ) {
+                    addNames(servletPaths, prefix);
+                }
+            } else if ( selector.startsWith(folder) ) {
+                final String rest = selector.substring(folder.length());
+                final int slash = rest.indexOf('/');
+                if ( slash == -1 ) {
+                    addNames(servletPaths, prefix.concat(rest).concat("."));
+                } else {
+                    folderPaths.add(prefix.concat(rest.substring(0, slash)));
+                }
+            }
+        }
+    }
+
+    /**
+     * Add the servlet paths derived from one of the {@link #getRootPaths()}
+     * which are not below it: the root path itself if registered and the
+     * ".servlet" path of a resource type registered without selectors,
+     * extensions and methods.
+     * @param root The root path
+     * @param servletPaths The set the servlet paths are added to
+     */
+    void addRootServletPaths(final String root, final Set<String> servletPaths) {
+        if ( paths.contains(root) || resourceSuperTypeMarkers.contains(root) ) {
+            servletPaths.add(root);
+        }
+        if ( types.contains(root) && extensions == null && methods == null && selectors.contains("") ) {
+            servletPaths.add(root.concat(SERVLET_PATH_EXTENSION));
+        }
+    }
+
+    /**
+     * Whether the extensions and methods yield at least one servlet name.
+     */
+    private boolean hasNames() {
+        return (extensions == null || !extensions.isEmpty()) && (methods == null || !methods.isEmpty());
+    }
+
+    /**
+     * The part of the selector paths leading to the path, the empty string
+     * if the path is the resource type path, otherwise ending with a slash.
+     */
+    private static String getSelectorFolder(final String type, final String path) {
+        return path.length() > type.length() ? path.substring(type.length() + 1).concat("/") : "";
+    }
+
+    private void addTypePaths(final Set<String> result, final String type) {
+        for(final String selector : selectors) {
+            addNames(result, selector.isEmpty() ? type.concat("/") : type.concat("/").concat(selector).concat("."));
+        }
+    }
+
+    /**
+     * Add the servlet paths for the selector path, which ends with a
+     * dot or with a slash if there is no selector.
+     */
+    private void addNames(final Set<String> result, final String selPath) {
+        if ( extensions != null && methods != null ) {
+            for(final String ext : extensions) {
+                for(final String method : methods) {
+                    result.add(selPath + ext + "." + method + SERVLET_PATH_EXTENSION);
+                }
+            }
+        } else if ( extensions != null ) {
+            for(final String ext : extensions) {
+                result.add(selPath + ext + SERVLET_PATH_EXTENSION);
+            }
+        } else if ( methods != null ) {
+            for(final String method : methods) {
+                result.add(selPath + method + SERVLET_PATH_EXTENSION);
+            }
+        } else {
+            result.add(selPath.substring(0, selPath.length() - 1) + SERVLET_PATH_EXTENSION);
+        }
+    }
+
+    /**
+     * The paths mounted into the resource tree if the servlet is kept by the
+     * {@link MergingServletResourceProvider}: the explicitly registered paths
+     * and the resource super type markers. The resource super type of a
+     * resource type is looked up by every resource resolver.
+     * @return The set of paths
+     */
+    Set<String> getMountPaths() {
+        final Set<String> result = new HashSet<>(paths);
+        result.addAll(resourceSuperTypeMarkers);
+        return result;
+    }
+
+    /**
+     * The paths the servlet paths are derived from: the explicitly registered
+     * paths, the resource type paths and the resource super type markers. Every
+     * servlet path is one of these paths or a descendant of a resource type path.
+     * @return The set of root paths
+     */
+    Set<String> getRootPaths() {
+        final Set<String> result = new HashSet<>(paths);
+        result.addAll(types);
+        result.addAll(resourceSuperTypeMarkers);
+        return result;
     }
 
     /** Return suitable info for logging */
@@ -90,6 +363,9 @@ public class ServletResourceProvider extends ResourceProvider<Object> {
     public String toString() {
         return getClass().getSimpleName() + ": servlet="
             + servlet.getClass().getName() + ", paths="
-            + resourcePaths;
+            + paths + ", types=" + types
+            + ", selectors=" + selectors
+            + ", extensions=" + extensions
+            + ", methods=" + methods;
     }
 }
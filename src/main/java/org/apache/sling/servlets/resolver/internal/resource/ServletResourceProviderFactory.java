@@ -28,6 +28,7 @@ import static org.apache.sling.api.servlets.ServletResolverConstants.SLING_SERVL
 import static org.apache.sling.api.servlets.ServletResolverConstants.SLING_SERVLET_SELECTORS;
 import static org.osgi.service.component.ComponentConstants.COMPONENT_NAME;
 
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -124,16 +125,28 @@ public class ServletResourceProviderFactory {
      * @return A servlet resource provider
      */
     public ServletResourceProvider create(final ServiceReference<Servlet> ref, final Servlet servlet) {
+        return create(ref, servlet, null);
+    }
+
+    /**
+     * Create a servlet resource provider for the servlet
+     * @param ref The service reference for the servlet
+     * @param servlet The servlet object itself
+     * @param lazyInitializer The initializer if the servlet is initialized on first use or {@code null}
+     * @return A servlet resource provider
+     */
+    ServletResourceProvider create(final ServiceReference<Servlet> ref, final Servlet servlet,
+            final LazyServletInitializer lazyInitializer) {
 
         final Set<String> pathSet = new HashSet<>();
 
         // check whether explicit paths are set
         addByPath(pathSet, ref);
 
-        // now, we handle resource types, extensions and methods
-        addByType(pathSet, ref);
+        // now, we handle resource types, selectors, extensions and methods
+        final TypeRegistration typeReg = addByType(ref);
 
-        if (pathSet.isEmpty()) {
+        if (pathSet.isEmpty() && typeReg.types.isEmpty()) {
             if (log.isDebugEnabled()) {
                 log.debug(
                     "create({}): ServiceReference has no registration settings, ignoring",
@@ -142,10 +155,6 @@ public class ServletResourceProviderFactory {
             return null;
         }
 
-        if (log.isDebugEnabled()) {
-            log.debug("create({}): Registering servlet for paths {}",
-                    getServiceReferenceInfo(ref), pathSet);
-        }
         String resourceSuperType = PropertiesUtil.toString(ref.getProperty(SLING_SERVLET_RESOURCE_SUPER_TYPE), null);
         Set<String> resourceSuperTypeMarkers = new HashSet<>();
         if (StringUtils.isNotEmpty(resourceSuperType)) {
@@ -154,10 +163,16 @@ public class ServletResourceProviderFactory {
                     rt = getPrefix(ref).concat(ResourceUtil.resourceTypeToPath(rt));
                 }
                 resourceSuperTypeMarkers.add(rt);
-                pathSet.add(rt);
             }
         }
-        return new ServletResourceProvider(servlet, pathSet, resourceSuperTypeMarkers, resourceSuperType);
+        final ServletResourceProvider provider = new ServletResourceProvider(servlet, pathSet,
+                typeReg.types, typeReg.selectors, typeReg.extensions, typeReg.methods,
+                resourceSuperTypeMarkers, resourceSuperType, lazyInitializer);
+        if (log.isDebugEnabled()) {
+            log.debug("create({}): Registering servlet for {}",
+                    getServiceReferenceInfo(ref), provider);
+        }
+        return provider;
     }
 
     /**
@@ -227,18 +242,20 @@ public class ServletResourceProviderFactory {
     }
 
     /**
-     * Add a servlet by type
-     * @param pathSet
-     * @param ref
+     * Add a servlet by type. Instead of building every combination of
+     * the registration properties, each of them is kept as a set.
+     * @param ref The service reference
+     * @return The registration, the set of types is empty if no types are declared
      */
-    private void addByType(Set<String> pathSet, ServiceReference<Servlet> ref) {
+    private TypeRegistration addByType(ServiceReference<Servlet> ref) {
+        final TypeRegistration result = new TypeRegistration();
         String[] types = PropertiesUtil.toStringArray(ref.getProperty(SLING_SERVLET_RESOURCE_TYPES));
         if (types == null || types.length == 0) {
             if (log.isDebugEnabled()) {
                 log.debug("addByType({}): no resource types declared",
                         getServiceReferenceInfo(ref));
             }
-            return;
+            return result;
         }
 
         // check for selectors
@@ -282,52 +299,54 @@ public class ServletResourceProviderFactory {
                 type = this.getPrefix(ref) + type;
             }
 
-            // ensure trailing slash for full path building
-            if (!type.endsWith("/")) {
-                type += "/";
+            // remove trailing slash, the servlet path is built by the provider
+            if (type.endsWith("/")) {
+                type = type.substring(0, type.length() - 1);
             }
+            result.types.add(type);
+        }
 
-            // add entries for each selector combined with each ext and method
-            for (String selector : selectors) {
-
-                String selPath = type;
-                if (selector != null && selector.length() > 0) {
-                    selPath += selector.replace('.', '/') + ".";
-                }
-
-                boolean pathAdded = false;
-                if (extensions != null) {
-                    if (methods != null) {
-                        // both methods and extensions declared
-                        for (String ext : extensions) {
-                            for (String method : methods) {
-                                pathSet.add(selPath + ext + "." + method
-                                    + SERVLET_PATH_EXTENSION);
-                                pathAdded = true;
-                            }
-                        }
-                    } else {
-                        // only extensions declared
-                        for (String ext : extensions) {
-                            pathSet.add(selPath + ext + SERVLET_PATH_EXTENSION);
-                            pathAdded = true;
-                        }
-                    }
-                } else if (methods != null) {
-                    // only methods declared
-                    for (String method : methods) {
-                        pathSet.add(selPath + method + SERVLET_PATH_EXTENSION);
-                        pathAdded = true;
-                    }
-                }
+        for (String selector : selectors) {
+            if (selector != null && selector.length() > 0) {
+                result.selectors.add(selector.replace('.', '/'));
+            } else {
+                result.selectors.add("");
+            }
+        }
 
-                // if neither methods nore extensions were added
-                if (!pathAdded) {
-                    pathSet.add(selPath.substring(0, selPath.length() - 1)
-                        + SERVLET_PATH_EXTENSION);
-                }
+        // neither methods nor extensions are part of the name if no combination
+        // of them exists
+        if (extensions != null) {
+            if (extensions.length > 0 && (methods == null || methods.length > 0)) {
+                result.extensions = toSet(extensions);
+                result.methods = methods == null ? null : toSet(methods);
             }
+        } else if (methods != null && methods.length > 0) {
+            result.methods = toSet(methods);
         }
+        return result;
+    }
+
+    private static Set<String> toSet(final String[] values) {
+        return new HashSet<>(Arrays.asList(values));
+    }
+
+    /**
+     * The registration by resource type
+     */
+    private static final class TypeRegistration {
+
+        /** The absolute resource type paths without trailing slash */
+        final Set<String> types = new HashSet<>();
+
+        /** The selectors, the empty string stands for no selector */
+        final Set<String> selectors = new HashSet<>();
+
+        /** The extensions, {@code null} if not part of the servlet name */
+        Set<String> extensions;
+
+        /** The methods, {@code null} if not part of the servlet name */
+        Set<String> methods;
     }
 
     public static String getServiceReferenceInfo(final ServiceReference<Servlet> reference) {
@@ -0,0 +1,46 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.servlets.resolver.jmx;
+
+import org.osgi.annotation.versioning.ProviderType;
+
+/**
+ * This is the management interface to audit the servlet resolution of a
+ * content subtree.
+ */
+@ProviderType
+public interface ResolutionAuditMBean {
+
+    /**
+     * Resolve every resource below the given path for each of the given
+     * request variants and report the resolution time, the number of
+     * candidates, the depth of the resource type hierarchy and the number of
+     * resolutions which would not have been served from the cache, per
+     * resource type. At most 10000 resources are audited.
+     *
+     * @param root the path of the subtree
+     * @param variants the request variants, each in the form
+     *        {@code selectors.extension:METHOD}, for example {@code print.html}
+     *        or {@code json:POST}. The method defaults to {@code GET}.
+     * @return a summary line followed by one line per resource type, the
+     *         resource type with the slowest resolution first
+     */
+    String[] audit(String root, String[] variants);
+
+}
@@ -0,0 +1,72 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.servlets.resolver.jmx;
+
+import org.osgi.annotation.versioning.ProviderType;
+
+/**
+ * This is the management interface for the latencies of the servlet
+ * resolution per resource type. The latencies are only recorded if enabled
+ * in the configuration of the servlet resolver.
+ */
+@ProviderType
+public interface ResolutionMetricsMBean {
+
+    /**
+     * Get the resource types for which resolutions have been recorded.
+     *
+     * @return the resource types
+     */
+    String[] getResourceTypes();
+
+    /**
+     * List the latencies of all resource types. Each entry holds the
+     * resource type, and for the resolutions served from the cache and
+     * those which have not been served from the cache the number of
+     * resolutions and the 50th, 90th and 99th percentile and the maximum
+     * of their latency.
+     *
+     * @return the latencies, one entry per resource type
+     */
+    String[] listLatencies();
+
+    /**
+     * Get a percentile of the latency of the resolutions of a resource type
+     * which have been served from the cache. The latency covers mapping the
+     * request to its cache key and looking up the cache entry.
+     *
+     * @param resourceType the resource type
+     * @param percentile the percentile, between 0 and 100
+     * @return the latency in nanoseconds or {@code -1} if no resolution has
+     *         been recorded for the resource type
+     */
+    long getCacheHitLatency(String resourceType, double percentile);
+
+    /**
+     * Get a percentile of the latency of the resolutions of a resource type
+     * which have not been served from the cache.
+     *
+     * @param resourceType the resource type
+     * @param percentile the percentile, between 0 and 100
+     * @return the latency in nanoseconds or {@code -1} if no resolution has
+     *         been recorded for the resource type
+     */
+    long getCacheMissLatency(String resourceType, double percentile);
+
+}
@@ -45,4 +45,58 @@ public interface SlingServletResolverCacheMBean {
      */
     void flushCache();
 
+    /**
+     * Get the number of invalidation requests received by the cache, for example
+     * through resource changes or service events.
+     *
+     * @return the number of invalidation requests
+     */
+    long getInvalidationRequestCount();
+
+    /**
+     * Get the number of invalidations actually executed on the cache. If
+     * invalidation requests are coalesced, this is lower than the number of
+     * invalidation requests.
+     *
+     * @return the number of executed invalidations
+     */
+    long getInvalidationCount();
+
+    /**
+     * Get the ratio of invalidation requests to executed invalidations.
+     *
+     * @return the coalescing ratio or {@code 0} if no invalidation has been executed yet
+     */
+    double getInvalidationCoalescingRatio();
+
+    /**
+     * List the most recent resolutions which have not been served from the
+     * cache and have taken longer than the configured threshold. Each entry
+     * holds the time, the duration, the cache key, the chosen servlet, the
+     * number of candidates checked and the locations visited.
+     *
+     * @return the slow resolutions, the most recent one first
+     */
+    String[] listSlowResolutions();
+
+    /**
+     * Get the number of cache hits which have been verified by resolving the
+     * servlet again without the cache.
+     *
+     * @return the number of verified cache hits
+     */
+    long getVerificationCount();
+
+    /**
+     * Get the number of verified cache hits whose cached servlet did not match
+     * the servlet resolved without the cache. The cache entries of such hits
+     * are invalidated. The count includes changes to the scripts which have
+     * been made between the cache hit and its verification but whose resource
+     * change events have not been delivered yet, so not every mismatch is
+     * caused by a wrong cache entry.
+     *
+     * @return the number of mismatches
+     */
+    long getVerificationMismatchCount();
+
 }
@@ -17,7 +17,7 @@
  * under the License.
  */
 
-@org.osgi.annotation.versioning.Version("2.3.7")
+@org.osgi.annotation.versioning.Version("2.8.0")
 package org.apache.sling.servlets.resolver.jmx;
 
 
@@ -0,0 +1,68 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.servlets.resolver.metrics;
+
+import org.osgi.annotation.versioning.ProviderType;
+
+/**
+ * A snapshot of recorded latencies. The latencies are counted in buckets
+ * whose width grows with the latency, so the precision of the reported
+ * percentiles is relative to their value.
+ */
+@ProviderType
+public interface LatencyHistogram {
+
+    /**
+     * @return The number of recorded latencies
+     */
+    long getCount();
+
+    /**
+     * @return The sum of the recorded latencies in nanoseconds
+     */
+    long getTotalNanos();
+
+    /**
+     * @return The highest recorded latency in nanoseconds
+     */
+    long getMaxNanos();
+
+    /**
+     * Returns the latency below which the given percentage of the recorded
+     * latencies fall.
+     *
+     * @param percentile The percentile, between 0 and 100
+     * @return The upper bound of the bucket holding the percentile in
+     *         nanoseconds, at most the highest recorded latency, 0 if no
+     *         latency has been recorded
+     */
+    long getValueAtPercentile(double percentile);
+
+    /**
+     * @return The exclusive upper bounds of the buckets in nanoseconds, in
+     *         ascending order
+     */
+    long[] getBucketUpperBounds();
+
+    /**
+     * @return The number of latencies in each bucket, in the order of
+     *         {@link #getBucketUpperBounds()}
+     */
+    long[] getBucketCounts();
+}
@@ -0,0 +1,62 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.servlets.resolver.metrics;
+
+import java.util.Set;
+
+import org.osgi.annotation.versioning.ProviderType;
+
+/**
+ * The <code>ResolutionMetrics</code> provide the latency of the servlet
+ * resolution per resource type, separately for resolutions served from the
+ * cache and resolutions walking the resource type hierarchy. The latencies
+ * are only recorded if enabled in the configuration of the servlet resolver.
+ */
+@ProviderType
+public interface ResolutionMetrics {
+
+    /**
+     * Returns the resource types for which resolutions have been recorded.
+     *
+     * @return The resource types, empty if no latencies are recorded
+     */
+    Set<String> getResourceTypes();
+
+    /**
+     * Returns the latency of the resolutions of the given resource type
+     * which have been served from the cache. The latency covers mapping
+     * the request to its cache key and looking up the cache entry.
+     *
+     * @param resourceType The resource type
+     * @return A snapshot of the latencies or <code>null</code> if none
+     *         have been recorded for the resource type
+     */
+    LatencyHistogram getCacheHitLatency(String resourceType);
+
+    /**
+     * Returns the latency of the resolutions of the given resource type
+     * which have not been served from the cache. The latency covers the
+     * whole resolution, including the failed cache lookup.
+     *
+     * @param resourceType The resource type
+     * @return A snapshot of the latencies or <code>null</code> if none
+     *         have been recorded for the resource type
+     */
+    LatencyHistogram getCacheMissLatency(String resourceType);
+}
@@ -0,0 +1,41 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.servlets.resolver.trace;
+
+import javax.servlet.Servlet;
+
+import org.apache.sling.api.resource.Resource;
+import org.osgi.annotation.versioning.ConsumerType;
+
+/**
+ * A <code>ResolutionTraceSink</code> service receives the trace of each
+ * servlet resolution for a request if resolution tracing is enabled.
+ * The sink is called by the resolving thread and should return quickly.
+ */
+@ConsumerType
+public interface ResolutionTraceSink {
+
+    /**
+     * Called after the servlet for a request has been resolved.
+     * @param resource The resource of the request
+     * @param servlet The resolved servlet, might be <code>null</code>
+     * @param trace The stopped trace of the resolution
+     */
+    void onResolution(Resource resource, Servlet servlet, ServletResolutionTrace trace);
+}
@@ -0,0 +1,69 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.servlets.resolver.trace;
+
+import org.osgi.annotation.versioning.ProviderType;
+
+/**
+ * The trace of a single servlet resolution, telling where the time of the
+ * resolution has been spent. Phases nest: the time of a phase entered while
+ * another phase is active is only accounted to the inner phase.
+ */
+@ProviderType
+public interface ServletResolutionTrace {
+
+    /** The phases of a resolution. */
+    enum Phase {
+        /** Building the cache key and looking it up. */
+        CACHE_PROBE,
+        /** Reading the resource super types of the resource type hierarchy. */
+        SUPER_TYPE_WALK,
+        /** Reading the children of the locations. */
+        LOCATION_LISTING,
+        /** Ordering the candidates and selecting the next one. */
+        CANDIDATE_SORT,
+        /** Asking <code>OptingServlet</code>s whether they accept the request. */
+        OPTING_SERVLET_CHECK,
+        /** Adapting the candidate resources to servlets. */
+        ADAPT_TO
+    }
+
+    /**
+     * Returns the time of the resolution.
+     * @return The time in nanoseconds or -1 if the trace has not been stopped yet
+     */
+    long getTotalNanos();
+
+    /**
+     * Returns the time spent in the given phase, excluding nested phases.
+     * @param phase The phase
+     * @return The time in nanoseconds
+     */
+    long getPhaseNanos(Phase phase);
+
+    /**
+     * @return The number of resources read by the resolution
+     */
+    int getGetResourceCalls();
+
+    /**
+     * @return The number of folders listed by the resolution
+     */
+    int getListChildrenCalls();
+}
@@ -0,0 +1,226 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.servlets.resolver.internal;
+
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+
+import javax.servlet.GenericServlet;
+import javax.servlet.Servlet;
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServlet;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceUtil;
+import org.apache.sling.api.servlets.ServletResolverConstants;
+import org.apache.sling.commons.testing.sling.MockResource;
+import org.apache.sling.commons.testing.sling.MockSlingHttpServletRequest;
+import org.apache.sling.commons.testing.sling.MockSlingHttpServletResponse;
+import org.apache.sling.servlets.resolver.internal.resource.MockServletResource;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+
+/**
+ * Guards the number of bytes allocated by the servlet resolution. The
+ * budgets are about twice the allocation measured when they have been set,
+ * if a change exceeds a budget, check whether the additional garbage per
+ * request is worth it before raising it.
+ */
+public class AllocationBudgetTest extends SlingServletResolverTestBase {
+
+    /** The budget of a resolution served from the cache. */
+    private static final long CACHE_HIT_BUDGET = 5 * 1024;
+
+    /** The budget of a resolution walking the resource type hierarchy. */
+    private static final long CACHE_MISS_BUDGET = 24 * 1024;
+
+    /** The budget of the resolution and invocation of an error handler. */
+    private static final long ERROR_HANDLER_BUDGET = 5 * 1024;
+
+    /** Enough resolutions for the code to be compiled by C2, whose threshold is 10000 invocations. */
+    private static final int WARMUP = 20000;
+
+    private static final int ITERATIONS = 500;
+
+    private static final String SERVLET_PATH = "/content/page";
+
+    private com.sun.management.ThreadMXBean threads;
+
+    private long overhead;
+
+    private Servlet testServlet;
+
+    @SuppressWarnings("serial")
+    @Override
+    protected void defineTestServlets(final Bundle bundle) {
+        testServlet = new HttpServlet() {};
+        addServlet(testServlet, "/" + MockSlingHttpServletRequest.RESOURCE_TYPE + "/"
+                + ResourceUtil.getName(MockSlingHttpServletRequest.RESOURCE_TYPE) + ".servlet");
+        addServlet(new NoopServlet(), "/" + ServletResolverConstants.DEFAULT_ERROR_HANDLER_RESOURCE_TYPE + "/404.servlet");
+    }
+
+    private void addServlet(final Servlet servlet, final String path) {
+        final MockServletResource res = new MockServletResource(mockResourceResolver, servlet, path);
+        mockResourceResolver.addResource(res);
+        final MockResource parent = new MockResource(mockResourceResolver, ResourceUtil.getParent(path), "nt:folder");
+        mockResourceResolver.addResource(parent);
+        mockResourceResolver.addChildren(parent, Collections.<Resource>singletonList(res));
+    }
+
+    @Before public void setUpCounter() {
+        Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        // the allocation of reading the counter itself
+        overhead = Long.MAX_VALUE;
+        for(int i = 0; i < 100; i++) {
+            final long start = allocated();
+            overhead = Math.min(overhead, allocated() - start);
+        }
+    }
+
+    private long allocated() {
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private MockSlingHttpServletRequest request() {
+        return request(SERVLET_PATH);
+    }
+
+    private MockSlingHttpServletRequest request(final String path) {
+        final MockSlingHttpServletRequest request = new MockSlingHttpServletRequest(path, null, "html", null, null);
+        request.setResourceResolver(mockResourceResolver);
+        return request;
+    }
+
+    private void assertBudget(final String name, final long budget, final long bytes) {
+        assertTrue(name + " allocates " + bytes + " bytes, budget is " + budget + " bytes", bytes <= budget);
+    }
+
+    @Test public void testCacheHit() {
+        final MockSlingHttpServletRequest request = request();
+        for(int i = 0; i < WARMUP; i++) {
+            assertSame(testServlet, servletResolver.resolveServlet(request));
+        }
+        final long start = allocated();
+        for(int i = 0; i < ITERATIONS; i++) {
+            servletResolver.resolveServlet(request);
+        }
+        final long bytes = (allocated() - start - overhead) / ITERATIONS;
+        assertBudget("A cache hit", CACHE_HIT_BUDGET, bytes);
+    }
+
+    /**
+     * The request progress tracker of the mock request is disabled, so
+     * resolving a resource with a long path must not allocate more than
+     * resolving one with a short path.
+     */
+    @Test public void testDisabledTracker() {
+        final StringBuilder sb = new StringBuilder(SERVLET_PATH);
+        while ( sb.length() < 1000 ) {
+            sb.append("/child");
+        }
+        final MockSlingHttpServletRequest shortRequest = request();
+        final MockSlingHttpServletRequest longRequest = request(sb.toString());
+        for(int i = 0; i < WARMUP; i++) {
+            assertSame(testServlet, servletResolver.resolveServlet(shortRequest));
+            assertSame(testServlet, servletResolver.resolveServlet(longRequest));
+        }
+        long shortTotal = 0;
+        long longTotal = 0;
+        for(int i = 0; i < ITERATIONS; i++) {
+            long start = allocated();
+            servletResolver.resolveServlet(shortRequest);
+            shortTotal += allocated() - start - overhead;
+            start = allocated();
+            servletResolver.resolveServlet(longRequest);
+            longTotal += allocated() - start - overhead;
+        }
+        // a string containing the long path would take at least twice its length,
+        // a few bytes are allowed for the noise of the measurement
+        final long bytes = (longTotal - shortTotal) / ITERATIONS;
+        assertTrue("A resolution allocates " + bytes + " bytes more for a long path", bytes < sb.length());
+    }
+
+    @Test public void testCacheMiss() {
+        final MockSlingHttpServletRequest request = request();
+        long total = 0;
+        for(int i = 0; i < WARMUP + ITERATIONS; i++) {
+            resolutionCache.flushCache();
+            final long start = allocated();
+            assertSame(testServlet, servletResolver.resolveServlet(request));
+            if ( i >= WARMUP ) {
+                total += allocated() - start - overhead;
+            }
+        }
+        assertBudget("A cache miss", CACHE_MISS_BUDGET, total / ITERATIONS);
+    }
+
+    @Test public void testErrorHandler() throws IOException {
+        final MockSlingHttpServletResponse response = new MockSlingHttpServletResponse() {
+
+            @Override
+            public void flushBuffer() {
+                // nothing to flush
+            }
+        };
+        long total = 0;
+        for(int i = 0; i < WARMUP + ITERATIONS; i++) {
+            final MockSlingHttpServletRequest request = request();
+            final long start = allocated();
+            servletResolver.handleError(404, "Not Found", request, response);
+            if ( i >= WARMUP ) {
+                total += allocated() - start - overhead;
+            }
+        }
+        assertBudget("An error handler resolution", ERROR_HANDLER_BUDGET, total / ITERATIONS);
+    }
+
+    /**
+     * An error handler which does nothing.
+     */
+    @SuppressWarnings("serial")
+    private static class NoopServlet extends GenericServlet {
+
+        @Override
+        public ServletConfig getServletConfig() {
+            return this;
+        }
+
+        @Override
+        public String getServletName() {
+            return "noop";
+        }
+
+        @Override
+        public void service(final ServletRequest req, final ServletResponse res) {
+            // nothing to do
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.servlets.resolver.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.servlet.Servlet;
+import javax.servlet.http.HttpServlet;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceUtil;
+import org.apache.sling.commons.testing.sling.MockResource;
+import org.apache.sling.commons.testing.sling.MockSlingHttpServletRequest;
+import org.apache.sling.servlets.resolver.bulk.ServletResolutionRequest;
+import org.apache.sling.servlets.resolver.internal.resource.MockServletResource;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+
+public class BulkServletResolverTest extends SlingServletResolverTestBase {
+
+    private Servlet testServlet;
+
+    @SuppressWarnings("serial")
+    @Override
+    protected void defineTestServlets(final Bundle bundle) {
+        testServlet = new HttpServlet() {};
+
+        final String path = "/"
+            + MockSlingHttpServletRequest.RESOURCE_TYPE
+            + "/"
+            + ResourceUtil.getName(MockSlingHttpServletRequest.RESOURCE_TYPE)
+            + ".servlet";
+        final MockServletResource res = new MockServletResource(mockResourceResolver,
+            testServlet, path);
+        mockResourceResolver.addResource(res);
+
+        final MockResource parent = new MockResource(mockResourceResolver,
+            ResourceUtil.getParent(res.getPath()), "nt:folder");
+        mockResourceResolver.addResource(parent);
+
+        final List<Resource> childRes = new ArrayList<>();
+        childRes.add(res);
+        mockResourceResolver.addChildren(parent, childRes);
+    }
+
+    @Test public void testResolveServlets() {
+        final Resource first = new MockResource(mockResourceResolver, "/content/first", MockSlingHttpServletRequest.RESOURCE_TYPE);
+        final Resource second = new MockResource(mockResourceResolver, "/content/second", MockSlingHttpServletRequest.RESOURCE_TYPE);
+        final Resource untyped = new MockResource(mockResourceResolver, "/content/untyped", null);
+
+        final List<Servlet> servlets = servletResolver.resolveServlets(Arrays.asList(
+                new ServletResolutionRequest(first, null, "html", "GET"),
+                new ServletResolutionRequest(second, null, "html", "GET"),
+                new ServletResolutionRequest(second, new String[] {"print"}, "json", "POST"),
+                new ServletResolutionRequest(untyped, null, "html", "GET")));
+        assertEquals(4, servlets.size());
+        assertSame(testServlet, servlets.get(0));
+        assertSame(testServlet, servlets.get(1));
+        assertNull(servlets.get(2));
+        assertNull(servlets.get(3));
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.servlets.resolver.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.Servlet;
+import javax.servlet.http.HttpServlet;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceUtil;
+import org.apache.sling.commons.testing.sling.MockResource;
+import org.apache.sling.commons.testing.sling.MockSlingHttpServletRequest;
+import org.apache.sling.servlets.resolver.internal.resource.MockServletResource;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.osgi.framework.Bundle;
+
+public class CacheVerificationTest extends SlingServletResolverTestBase {
+
+    private static final String SERVLET_PATH = "/" + MockSlingHttpServletRequest.RESOURCE_TYPE + "/"
+            + ResourceUtil.getName(MockSlingHttpServletRequest.RESOURCE_TYPE) + ".servlet";
+
+    private Servlet cachedServlet;
+
+    @SuppressWarnings("serial")
+    @Override
+    protected void defineTestServlets(final Bundle bundle) {
+        cachedServlet = new HttpServlet() {};
+        setServlet(cachedServlet);
+    }
+
+    @Override
+    protected void configure(final ResolverConfig config) {
+        Mockito.when(config.servletresolver_verificationRate()).thenReturn(1.0);
+    }
+
+    @Override
+    protected ResourceResolver cloneResourceResolver() {
+        return mockResourceResolver;
+    }
+
+    private void setServlet(final Servlet servlet) {
+        final MockServletResource res = new MockServletResource(mockResourceResolver, servlet, SERVLET_PATH);
+        mockResourceResolver.addResource(res);
+        final MockResource parent = new MockResource(mockResourceResolver, ResourceUtil.getParent(SERVLET_PATH), "nt:folder");
+        mockResourceResolver.addResource(parent);
+        mockResourceResolver.addChildren(parent, Collections.<Resource>singletonList(res));
+    }
+
+    private MockSlingHttpServletRequest request() {
+        final MockSlingHttpServletRequest request = new MockSlingHttpServletRequest("/content/page", null, "html", null, null);
+        request.setResourceResolver(mockResourceResolver);
+        return request;
+    }
+
+    @SuppressWarnings("serial")
+    @Test public void testMismatchInvalidatesEntry() throws Exception {
+        assertSame(cachedServlet, servletResolver.resolveServlet(request()));
+        assertEquals(1, resolutionCache.getCachedResolutions().size());
+
+        // the servlet changes without an event, so the cache still serves the old one
+        final Servlet changedServlet = new HttpServlet() {};
+        setServlet(changedServlet);
+        assertSame(cachedServlet, servletResolver.resolveServlet(request()));
+
+        // the verification of the cache hit finds the changed servlet
+        final long timeout = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while ( !resolutionCache.getCachedResolutions().isEmpty() && System.nanoTime() < timeout ) {
+            Thread.sleep(10);
+        }
+        assertTrue(resolutionCache.getCachedResolutions().isEmpty());
+        assertSame(changedServlet, servletResolver.resolveServlet(request()));
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.servlets.resolver.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.Servlet;
+import javax.servlet.http.HttpServlet;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceUtil;
+import org.apache.sling.commons.testing.sling.MockResource;
+import org.apache.sling.commons.testing.sling.MockSlingHttpServletRequest;
+import org.apache.sling.servlets.resolver.internal.resource.MockServletResource;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.osgi.framework.Bundle;
+
+public class CacheWarmupTest extends SlingServletResolverTestBase {
+
+    private static final String SERVLET_PATH = "/" + MockSlingHttpServletRequest.RESOURCE_TYPE + "/"
+            + ResourceUtil.getName(MockSlingHttpServletRequest.RESOURCE_TYPE) + ".servlet";
+
+    private Servlet testServlet;
+
+    @SuppressWarnings("serial")
+    @Override
+    protected void defineTestServlets(final Bundle bundle) {
+        testServlet = new HttpServlet() {};
+        final MockServletResource res = new MockServletResource(mockResourceResolver, testServlet, SERVLET_PATH);
+        mockResourceResolver.addResource(res);
+        final MockResource parent = new MockResource(mockResourceResolver, ResourceUtil.getParent(SERVLET_PATH), "nt:folder");
+        mockResourceResolver.addResource(parent);
+        mockResourceResolver.addChildren(parent, Collections.<Resource>singletonList(res));
+    }
+
+    @Override
+    protected void configure(final ResolverConfig config) {
+        Mockito.when(config.servletresolver_rewarmSize()).thenReturn(10);
+        Mockito.when(config.servletresolver_rewarmRate()).thenReturn(1000);
+        Mockito.when(config.servletresolver_latencyHistograms()).thenReturn(true);
+        Mockito.when(config.servletresolver_heavyHitters()).thenReturn(10);
+        Mockito.when(config.servletresolver_missSampling()).thenReturn(1);
+    }
+
+    @Override
+    protected ResourceResolver cloneResourceResolver() {
+        return mockResourceResolver;
+    }
+
+    @Test public void testRewarmIsNotRecorded() throws Exception {
+        final MockSlingHttpServletRequest request = new MockSlingHttpServletRequest("/content/page", null, "html", null, null);
+        request.setResourceResolver(mockResourceResolver);
+        assertSame(testServlet, servletResolver.resolveServlet(request));
+        assertSame(testServlet, servletResolver.resolveServlet(request));
+        final String resourceType = MockSlingHttpServletRequest.RESOURCE_TYPE;
+        assertEquals(1, servletResolver.getCacheMissLatency(resourceType).getCount());
+        assertEquals(1, servletResolver.getCacheHitLatency(resourceType).getCount());
+        assertEquals(1, resolutionCache.getMostFrequentMisses(10).get(0).getCount());
+
+        // the used key is resolved again in the background after a flush
+        resolutionCache.flushCache();
+        final long timeout = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while ( resolutionCache.getCachedResolutions().isEmpty() && System.nanoTime() < timeout ) {
+            Thread.sleep(10);
+        }
+        assertFalse(resolutionCache.getCachedResolutions().isEmpty());
+
+        // but this resolution is not a request
+        assertEquals(1, servletResolver.getCacheMissLatency(resourceType).getCount());
+        assertEquals(1, servletResolver.getCacheHitLatency(resourceType).getCount());
+        assertEquals(1, resolutionCache.getMostFrequentMisses(10).get(0).getCount());
+    }
+}
@@ -20,8 +20,10 @@ package org.apache.sling.servlets.resolver.internal;
 
 import static junit.framework.TestCase.assertTrue;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import javax.servlet.Servlet;
@@ -36,6 +38,7 @@ import org.apache.sling.commons.testing.osgi.MockServiceReference;
 import org.apache.sling.commons.testing.sling.MockResource;
 import org.apache.sling.commons.testing.sling.MockResourceResolver;
 import org.apache.sling.commons.testing.sling.MockSlingHttpServletRequest;
+import org.apache.sling.servlets.resolver.bulk.ServletResolutionRequest;
 import org.apache.sling.servlets.resolver.internal.resource.MockServletResource;
 import org.junit.Test;
 import org.osgi.framework.Bundle;
@@ -94,6 +97,13 @@ public class SecureRequestsOptingServletTest extends SlingServletResolverTestBas
             result.getClass() != SecureRequestsOptingServlet.class);
     }
 
+    @Test public void testBulkResolutionNeedsRequest() {
+        final Resource resource = new MockResource(mockResourceResolver, SERVLET_PATH, MockSlingHttpServletRequest.RESOURCE_TYPE);
+        final List<Servlet> result = servletResolver.resolveServlets(Collections.singletonList(
+                new ServletResolutionRequest(resource, null, SERVLET_EXTENSION, "GET")));
+        assertNull("The opting servlet can't decide without the request", result.get(0));
+    }
+
     @SuppressWarnings("serial")
     private static class SecureRequestsOptingServlet extends HttpServlet
             implements OptingServlet {
@@ -19,6 +19,7 @@
 package org.apache.sling.servlets.resolver.internal;
 
 import java.lang.reflect.Field;
+import java.lang.reflect.Method;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -28,6 +29,7 @@ import org.apache.sling.api.resource.ResourceResolver;
 import org.apache.sling.api.resource.ResourceResolverFactory;
 import org.apache.sling.commons.testing.sling.MockResourceResolver;
 import org.apache.sling.servlets.resolver.internal.resolution.ResolutionCache;
+import org.junit.After;
 import org.junit.Before;
 import org.mockito.Mockito;
 import org.osgi.framework.Bundle;
@@ -39,12 +41,15 @@ public abstract class SlingServletResolverTestBase {
 
     protected MockResourceResolver mockResourceResolver;
 
+    protected ResolutionCache resolutionCache;
+
     @Before public void setUp() throws Exception {
         final ResolverConfig config = Mockito.mock(ResolverConfig.class);
         Mockito.when(config.servletresolver_servletRoot()).thenReturn("0");
         Mockito.when(config.servletresolver_paths()).thenReturn(new String[] { "/"});
         Mockito.when(config.servletresolver_defaultExtensions()).thenReturn(new String[] {"html"});
         Mockito.when(config.servletresolver_cacheSize()).thenReturn(200);
+        configure(config);
 
         mockResourceResolver = new MockResourceResolver() {
             @Override
@@ -60,7 +65,7 @@ public abstract class SlingServletResolverTestBase {
             @Override
             public ResourceResolver clone(Map<String, Object> authenticationInfo)
                     throws LoginException {
-                throw new LoginException("MockResourceResolver can't be cloned - excepted for this test!");
+                return cloneResourceResolver();
             }
 
             @Override
@@ -113,10 +118,14 @@ public abstract class SlingServletResolverTestBase {
         resolverField.setAccessible(true);
         resolverField.set(servletResolver, factory);
 
-        // set cache
+        // set and activate cache
+        resolutionCache = new ResolutionCache();
+        final Method activateCache = ResolutionCache.class.getDeclaredMethod("activate", BundleContext.class, ResolverConfig.class);
+        activateCache.setAccessible(true);
+        activateCache.invoke(resolutionCache, Mockito.mock(BundleContext.class, Mockito.RETURNS_MOCKS), config);
         final Field cacheField = resolverClass.getDeclaredField("resolutionCache");
         cacheField.setAccessible(true);
-        cacheField.set(servletResolver, new ResolutionCache());
+        cacheField.set(servletResolver, resolutionCache);
 
         final Bundle bundle = Mockito.mock(Bundle.class);
         Mockito.when(bundle.getBundleId()).thenReturn(1L);
@@ -129,6 +138,30 @@ public abstract class SlingServletResolverTestBase {
 
     }
 
+    @After public void tearDown() throws Exception {
+        servletResolver.deactivate();
+        final Method deactivateCache = ResolutionCache.class.getDeclaredMethod("deactivate");
+        deactivateCache.setAccessible(true);
+        deactivateCache.invoke(resolutionCache);
+    }
+
+    /**
+     * Configures the servlet resolver and the cache before they are activated.
+     * @param config The mocked configuration
+     */
+    protected void configure(final ResolverConfig config) {
+        // nothing to configure by default
+    }
+
+    /**
+     * Clones the mock resource resolver, which is not supported by default.
+     * @return The clone
+     * @throws LoginException If the resolver can't be cloned
+     */
+    protected ResourceResolver cloneResourceResolver() throws LoginException {
+        throw new LoginException("MockResourceResolver can't be cloned - excepted for this test!");
+    }
+
     protected abstract void defineTestServlets(Bundle bundle);
 
     protected String getRequestWorkspaceName() {
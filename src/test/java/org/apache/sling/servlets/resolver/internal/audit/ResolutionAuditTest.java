@@ -0,0 +1,135 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.servlets.resolver.internal.audit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.commons.testing.sling.MockResource;
+import org.apache.sling.commons.testing.sling.MockResourceResolver;
+import org.apache.sling.servlets.resolver.internal.ResolverConfig;
+import org.apache.sling.servlets.resolver.internal.resolution.ResolutionCache;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.osgi.framework.BundleContext;
+
+public class ResolutionAuditTest {
+
+    private final ResolutionAudit audit = new ResolutionAudit();
+
+    private final MockResourceResolver resolver = new MockResourceResolver() {
+
+        @Override
+        public void close() {
+            // shared by all threads
+        }
+    };
+
+    private MockResource add(final String path, final String resourceType) {
+        final MockResource resource = new MockResource(resolver, path, resourceType);
+        resolver.addResource(resource);
+        return resource;
+    }
+
+    private void set(final String name, final Object value) throws Exception {
+        final Field field = ResolutionAudit.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(audit, value);
+    }
+
+    @Before public void setUp() throws Exception {
+        resolver.setSearchPath("/");
+
+        // a script for the page type only
+        final MockResource type = add("/audit/page", "nt:folder");
+        resolver.addChildren(type, Collections.<Resource>singletonList(add("/audit/page/html.esp", "nt:file")));
+
+        final MockResource content = add("/content", "audit/page");
+        final MockResource first = add("/content/first", "audit/page");
+        final MockResource second = add("/content/second", "audit/text");
+        resolver.addChildren(content, Arrays.<Resource>asList(first, second));
+
+        final ResourceResolverFactory factory = Mockito.mock(ResourceResolverFactory.class);
+        Mockito.when(factory.getServiceResourceResolver(Mockito.<Map<String, Object>>any())).thenReturn(resolver);
+        set("resourceResolverFactory", factory);
+        set("resolutionCache", new ResolutionCache());
+
+        final ResolverConfig config = Mockito.mock(ResolverConfig.class);
+        Mockito.when(config.servletresolver_paths()).thenReturn(new String[] { "/"});
+        Mockito.when(config.servletresolver_defaultExtensions()).thenReturn(new String[] {"html"});
+        Mockito.when(config.servletresolver_auditThreads()).thenReturn(2);
+        audit.activate(Mockito.mock(BundleContext.class, Mockito.RETURNS_MOCKS), config);
+    }
+
+    @Test public void testAudit() throws Exception {
+        final AuditReport report = audit.audit("/content", Arrays.asList("html", "print.json:POST"));
+        assertEquals(3, report.getResources());
+        assertFalse(report.isTruncated());
+
+        final List<AuditReport.TypeStatistics> types = report.getResourceTypes();
+        assertEquals(2, types.size());
+        AuditReport.TypeStatistics page = types.get(0);
+        if ( !"audit/page".equals(page.getResourceType()) ) {
+            page = types.get(1);
+        }
+        assertEquals(4, page.getResolutions());
+        assertEquals(0, page.getMinCandidates());
+        assertEquals(1, page.getMaxCandidates());
+        assertEquals(1, page.getDepth());
+        // the cache is not active
+        assertEquals(4, page.getMisses());
+        assertEquals(2, page.getMissedKeys().size());
+
+        // the MBean adds a summary line
+        assertEquals(3, audit.new ResolutionAuditMBeanImpl().audit("/content", new String[] {"html"}).length);
+    }
+
+    @Test public void testMissingRoot() throws Exception {
+        final AuditReport report = audit.audit("/missing", Collections.singletonList("html"));
+        assertEquals(0, report.getResources());
+        assertEquals(0, report.getResourceTypes().size());
+    }
+
+    @Test public void testVariants() {
+        ResolutionAudit.Variant variant = ResolutionAudit.Variant.parse("a.b.html:post");
+        assertArrayEquals(new String[] {"a", "b"}, variant.selectors);
+        assertEquals("html", variant.extension);
+        assertEquals("POST", variant.method);
+
+        variant = ResolutionAudit.Variant.parse(" json ");
+        assertEquals(0, variant.selectors.length);
+        assertEquals("json", variant.extension);
+        assertEquals("GET", variant.method);
+
+        variant = ResolutionAudit.Variant.parse(":DELETE");
+        assertNull(variant.extension);
+        assertEquals("DELETE", variant.method);
+    }
+}
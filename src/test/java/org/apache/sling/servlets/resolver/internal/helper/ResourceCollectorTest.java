@@ -19,16 +19,21 @@
 package org.apache.sling.servlets.resolver.internal.helper;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
 import org.apache.sling.api.resource.ResourceUtil;
+import org.apache.sling.api.wrappers.ResourceResolverWrapper;
 import org.apache.sling.commons.testing.sling.MockResource;
+import org.apache.sling.commons.testing.sling.MockResourceResolver;
 
 public class ResourceCollectorTest extends HelperTestBase {
 
@@ -379,6 +384,308 @@ public class ResourceCollectorTest extends HelperTestBase {
         }});
     }
 
+    public void testIsAffectedBy() {
+        final ResourceCollector lu = ResourceCollector.create(request, null, new String[] {"html"});
+        // nothing collected yet
+        assertTrue(lu.isAffectedBy("/apps/other/type/html.servlet"));
+
+        lu.getServlets(request.getResourceResolver(), Collections.<String>emptyList());
+
+        assertTrue(lu.isAffectedBy("/apps/" + resourceTypePath + "/print.html.servlet"));
+        assertTrue(lu.isAffectedBy("/libs/" + resourceTypePath + "/print/a4.html.GET.servlet"));
+        assertTrue(lu.isAffectedBy("/apps/" + resourceTypePath + ".servlet"));
+        assertTrue(lu.isAffectedBy("/apps/" + resourceTypePath));
+        assertTrue(lu.isAffectedBy("/libs"));
+        assertTrue(lu.isAffectedBy("/libs/sling/servlet/default/html.servlet"));
+
+        assertFalse(lu.isAffectedBy("/apps/other/type/html.servlet"));
+        assertFalse(lu.isAffectedBy("/apps/" + resourceTypePath + "x/html.servlet"));
+        assertFalse(lu.isAffectedBy("/content/page"));
+    }
+
+    public void testCanonicalize() {
+        final String[] names = { "/apps/" + resourceTypePath + "/print.html.esp",
+                "/apps/" + resourceTypePath + "/print/a4.esp",
+                "/apps/" + resourceTypePath + "/json.esp",
+                "/libs/" + resourceTypePath + "/" + label + ".esp",
+                "/apps/" + resourceTypePath + "/print" };
+        for(final String name : names) {
+            createScriptResource(name, "nt:file");
+        }
+
+        // used selectors, extension and method are kept
+        assertCanonical("GET", "print.a4", "html", "GET", "print.a4", "html");
+        assertCanonical("GET", "print", "json", "GET", "print", "json");
+
+        // selectors from the first unused one are dropped
+        assertCanonical("GET", "print.a3", "html", "GET", "print", "html");
+        assertCanonical("GET", "print.random.a4", "html", "GET", "print", "html");
+        assertCanonical("GET", "random.print", "html", "GET", null, "html");
+
+        // unused extensions share one key, HEAD shares the GET key
+        assertCanonical("GET", "print", "xml", "GET", "print", "txt");
+        assertCanonical("HEAD", "random", "xml", "GET", null, "txt");
+        assertCanonical("PROPFIND", "print", "xml", "MKCOL", "print", "txt");
+        assertFalse(canonicalize("GET", null, "xml").equals(canonicalize("POST", null, "xml")));
+        assertFalse(canonicalize("GET", null, "xml").equals(canonicalize("GET", null, "html")));
+    }
+
+    public void testCompiledDispatch() {
+        final String[] names = { "/apps/" + resourceTypePath + "/print.html.esp",
+                "/apps/" + resourceTypePath + "/print/a4.esp",
+                "/apps/" + resourceTypePath + "/print/a4/html.esp",
+                "/apps/" + resourceTypePath + "/" + label + ".json.esp",
+                "/apps/" + resourceTypePath + "/POST.esp",
+                "/apps/" + resourceTypePath + "/html.jsp",
+                "/libs/" + resourceTypePath + "/" + label + ".esp",
+                "/libs/" + resourceTypePath + "/print.POST.esp",
+                "/libs/" + resourceTypePath + "/print" };
+        for(final String name : names) {
+            createScriptResource(name, "nt:file");
+        }
+
+        final String[][] requests = { {"GET", null, "html"}, {"GET", "print", "html"}, {"GET", "print.a4", "html"},
+                {"GET", "print.a4", "json"}, {"GET", null, "json"}, {"POST", "print", "html"}, {"POST", null, "json"},
+                {"HEAD", "print.a4.other", "html"}, {"GET", "other.print", "txt"}};
+        int candidates = 0;
+        for(final String[] request : requests) {
+            final ResourceCollector lu = ResourceCollector.create(makeRequest(request[0], request[1], request[2]), null, new String[] {"html"});
+            final List<String> expected = new ArrayList<>();
+            for(final Resource r : lu.getServlets(resourceResolver, Collections.<String>emptyList())) {
+                expected.add(r.getPath());
+            }
+            final List<String> actual = new ArrayList<>();
+            for(final Resource r : lu.getServlets(resourceResolver, Collections.<String>emptyList(), lu.createVocabulary(resourceResolver))) {
+                actual.add(r.getPath());
+            }
+            assertEquals(Arrays.toString(request), expected, actual);
+            candidates += expected.size();
+        }
+        assertTrue(candidates > requests.length);
+    }
+
+    public void testConcurrentProbe() throws Exception {
+        final String[] names = { "/apps/" + resourceTypePath + "/print.html.esp",
+                "/apps/" + resourceTypePath + "/print/a4.esp",
+                "/libs/" + resourceTypePath + "/" + label + ".esp",
+                "/libs/" + resourceTypePath + "/print/a4/html.esp" };
+        for(final String name : names) {
+            createScriptResource(name, "nt:file");
+        }
+
+        final AtomicInteger clones = new AtomicInteger();
+        final AtomicInteger closed = new AtomicInteger();
+        final ResourceResolver resolver = new ResourceResolverWrapper(resourceResolver) {
+
+            @Override
+            public ResourceResolver clone(final Map<String, Object> authenticationInfo) {
+                clones.incrementAndGet();
+                // each probe reads with a resolver of its own
+                final MockResourceResolver clone = new MockResourceResolver() {
+
+                    @Override
+                    public String getUserID() {
+                        return "script";
+                    }
+
+                    @Override
+                    public boolean isLive() {
+                        return true;
+                    }
+
+                    @Override
+                    public void refresh() {
+                        // nothing to do
+                    }
+
+                    @Override
+                    public void close() {
+                        closed.incrementAndGet();
+                    }
+                };
+                clone.setSearchPath("/apps", "/libs");
+                for(final String name : names) {
+                    clone.addResource(new MockResource(clone, name, "nt:file"));
+                }
+                return clone;
+            }
+
+            @Override
+            public String getUserID() {
+                return "script";
+            }
+        };
+        final LocationProbes probes = new LocationProbes(2);
+        try {
+            for(final String selectors : new String[] {null, "print", "print.a4"}) {
+                final ResourceCollector lu = ResourceCollector.create(makeRequest("GET", selectors, "html"), null, new String[] {"html"});
+                final List<String> expected = new ArrayList<>();
+                for(final Resource r : lu.getServlets(resourceResolver, Collections.<String>emptyList())) {
+                    expected.add(r.getPath());
+                }
+                final List<String> actual = new ArrayList<>();
+                for(final Resource r : lu.getServlets(resolver, Collections.<String>emptyList(), lu.createVocabulary(resolver, probes))) {
+                    actual.add(r.getPath());
+                }
+                assertEquals(expected, actual);
+            }
+        } finally {
+            probes.close();
+        }
+        // the clones are kept for the following reads
+        assertTrue(clones.get() > 0);
+        assertTrue(clones.get() <= 2);
+        assertEquals(clones.get(), closed.get());
+    }
+
+    public void testLazyCandidates() {
+        final String best = "/apps/" + resourceTypePath + "/" + label + ".html.esp";
+        final String[] names = { best,
+                "/apps/" + resourceTypePath + "/html.esp",
+                "/libs/" + resourceTypePath + "/" + label + ".html.jsp" };
+        for(final String name : names) {
+            createScriptResource(name, "nt:file");
+        }
+
+        final ResourceCollector lu = ResourceCollector.create(makeRequest("GET", null, "html"), null, new String[] {"html"});
+        final Iterator<Resource> candidates = lu.iterateServlets(resourceResolver, Collections.<String>emptyList());
+        assertEquals(best, candidates.next().getPath());
+        // no later location can provide a better candidate, so they are not walked yet
+        assertFalse(lu.isAffectedBy("/libs/" + resourceTypePath + "/" + label + ".html.jsp"));
+        assertTrue(lu.isAffectedBy("/apps/" + resourceTypePath + "/html.esp"));
+        assertTrue(lu.hasCandidateWithExtension("esp"));
+        assertFalse(lu.hasCandidateWithExtension("jsp"));
+
+        // the remaining candidates are in the order of a full walk
+        final List<String> expected = new ArrayList<>();
+        for(final Resource r : lu.getServlets(resourceResolver, Collections.<String>emptyList())) {
+            expected.add(r.getPath());
+        }
+        final List<String> actual = new ArrayList<>();
+        actual.add(best);
+        while (candidates.hasNext()) {
+            actual.add(candidates.next().getPath());
+        }
+        assertEquals(expected, actual);
+        assertEquals(3, actual.size());
+        assertTrue(lu.isAffectedBy("/libs/" + resourceTypePath + "/" + label + ".html.jsp"));
+        assertTrue(lu.hasCandidateWithExtension("jsp"));
+    }
+
+    public void testInternSymbols() {
+        final SymbolTable table = new SymbolTable(100);
+        final ResourceCollector lu = ResourceCollector.create(makeRequest("GET", "print.a4", "html"), null, new String[] {"html"});
+        final ResourceCollector interned = lu.intern(table);
+        assertNotSame(lu, interned);
+        assertEquals(lu, interned);
+        assertEquals(lu.hashCode(), interned.hashCode());
+
+        // compared by the strings with a collector which is not interned
+        final ResourceCollector same = ResourceCollector.create(makeRequest("GET", "print.a4", "html"), null, new String[] {"html"});
+        assertEquals(interned, same);
+        assertEquals(same, interned);
+        final ResourceCollector other = ResourceCollector.create(makeRequest("GET", "print.a3", "html"), null, new String[] {"html"});
+        assertFalse(interned.equals(other));
+
+        // compared by the symbol ids with a collector interned into the same table
+        assertEquals(interned, same.intern(table));
+        final ResourceCollector post = ResourceCollector.create(makeRequest("POST", "print.a4", "html"), null, new String[] {"html"});
+        assertFalse(interned.equals(post.intern(table)));
+
+        // a full table doesn't intern
+        final SymbolTable fullTable = new SymbolTable(2);
+        assertSame(lu, lu.intern(fullTable));
+    }
+
+    public void testResolutionTrace() {
+        createScriptResource("/apps/" + resourceTypePath + "/" + label + ".html.esp", "nt:file");
+        final ResourceCollector lu = ResourceCollector.create(makeRequest("GET", "print", "html"), null, new String[] {"html"});
+
+        // nothing is recorded without a trace
+        assertEquals(ResolutionTrace.NO_TRACE, ResolutionTrace.enter(ResolutionTrace.Phase.CACHE_PROBE));
+
+        final ResolutionTrace trace = ResolutionTrace.start();
+        try {
+            assertEquals(1, lu.getServlets(resourceResolver, Collections.<String>emptyList()).size());
+        } finally {
+            trace.stop();
+        }
+        assertTrue(trace.getTotalNanos() >= 0);
+        assertTrue(trace.getListChildrenCalls() > 0);
+        assertTrue(trace.getGetResourceCalls() > 0);
+        long phases = 0;
+        for(final ResolutionTrace.Phase phase : ResolutionTrace.Phase.values()) {
+            phases += trace.getPhaseNanos(phase);
+        }
+        assertTrue(phases <= trace.getTotalNanos());
+        assertEquals(ResolutionTrace.NO_TRACE, ResolutionTrace.enter(ResolutionTrace.Phase.CACHE_PROBE));
+    }
+
+    public void testExplain() {
+        final String location = "/apps/" + resourceTypePath;
+        createScriptResource(location + "/" + label + ".html.esp", "nt:file");
+        createScriptResource(location + "/other.html.esp", "nt:file");
+        createScriptResource(location + "/noextension", "nt:file");
+        final ResourceCollector lu = ResourceCollector.create(makeRequest("GET", "print", "html"), null, new String[] {"html"});
+
+        final ResolutionTrace trace = ResolutionTrace.startExplain();
+        try {
+            assertEquals(1, lu.getServlets(resourceResolver, Collections.<String>emptyList()).size());
+        } finally {
+            trace.stop();
+        }
+        ResolutionTrace.Location walked = null;
+        for(final ResolutionTrace.Location l : trace.getLocations()) {
+            if ( l.getPath().equals(location) ) {
+                walked = l;
+            }
+        }
+        assertNotNull(walked);
+        assertTrue(walked.getListChildrenCalls() > 0);
+        final Map<String, ResolutionTrace.Child> children = new HashMap<>();
+        for(final ResolutionTrace.Child child : walked.getChildren()) {
+            children.put(ResourceUtil.getName(child.getPath()), child);
+        }
+        assertNull(children.get(label + ".html.esp").getRejection());
+        assertNotNull(children.get(label + ".html.esp").getWeight());
+        assertEquals(ResolutionTrace.REJECT_NAME, children.get("other.html.esp").getRejection());
+        assertEquals(ResolutionTrace.REJECT_NO_EXTENSION, children.get("noextension").getRejection());
+
+        // a plain trace does not explain
+        final ResolutionTrace plain = ResolutionTrace.start();
+        try {
+            lu.getServlets(resourceResolver, Collections.<String>emptyList());
+        } finally {
+            plain.stop();
+        }
+        assertTrue(plain.getLocations().isEmpty());
+    }
+
+    private ResourceCollector canonicalize(final String method, final String selectors, final String extension) {
+        final ResourceCollector lu = ResourceCollector.create(makeRequest(method, selectors, extension), null, new String[] {"html"});
+        final ResourceCollector canonical = lu.canonicalize(lu.createVocabulary(resourceResolver), resourceResolver);
+
+        // the canonical collector finds the same scripts
+        final List<String> expected = new ArrayList<>();
+        for(final Resource r : lu.getServlets(resourceResolver, Collections.<String>emptyList())) {
+            expected.add(r.getPath());
+        }
+        final List<String> actual = new ArrayList<>();
+        for(final Resource r : canonical.getServlets(resourceResolver, Collections.<String>emptyList())) {
+            actual.add(r.getPath());
+        }
+        assertEquals(expected, actual);
+        return canonical;
+    }
+
+    private void assertCanonical(final String method1, final String selectors1, final String extension1,
+            final String method2, final String selectors2, final String extension2) {
+        final ResourceCollector c1 = canonicalize(method1, selectors1, extension1);
+        final ResourceCollector c2 = canonicalize(method2, selectors2, extension2);
+        assertEquals(c1, c2);
+        assertEquals(c1.hashCode(), c2.hashCode());
+    }
+
     protected void effectiveTest(String[] names, int[] baseIdxs, int[] indices) {
         effectiveTest(names, baseIdxs, indices, null);
     }
@@ -0,0 +1,98 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.servlets.resolver.internal.jfr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ResolverEventsTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test public void testDisabledWithoutRecording() {
+        assertFalse(ResolverEvents.isServletResolutionEnabled());
+        assertFalse(ResolverEvents.isResolutionCacheFlushEnabled());
+        assertFalse(ResolverEvents.isScriptResolverCloneEnabled());
+        assertFalse(ResolverEvents.isErrorHandlerResolutionEnabled());
+    }
+
+    @Test public void testUnknownFieldIgnored() {
+        final EventDefinition event = new EventDefinition("org.apache.sling.servlets.resolver.Test", "Test", "Test event",
+                EventDefinition.Field.of("value", String.class, "Value"));
+        // more values than fields must not fail the caller
+        event.commit("value", "unknown");
+        assertFalse(event.isEnabled());
+        event.unregister();
+    }
+
+    @Test public void testEventsRecorded() throws Exception {
+        // the flight recorder is used by reflection as it might not be available
+        final Class<?> recordingClass;
+        try {
+            recordingClass = Class.forName("jdk.jfr.Recording");
+        } catch (final ClassNotFoundException e) {
+            Assume.assumeNoException(e);
+            return;
+        }
+        final File file = folder.newFile("events.jfr");
+        final Object recording = recordingClass.newInstance();
+        try {
+            recordingClass.getMethod("enable", String.class).invoke(recording, "org.apache.sling.servlets.resolver.ResolutionCacheFlush");
+            ResolverEvents.register();
+            try {
+                assertFalse(ResolverEvents.isResolutionCacheFlushEnabled());
+                recordingClass.getMethod("start").invoke(recording);
+                assertTrue(ResolverEvents.isResolutionCacheFlushEnabled());
+                ResolverEvents.resolutionCacheFlush("test", true, 3);
+            } finally {
+                ResolverEvents.unregister();
+            }
+            // the events are removed from the flight recorder
+            assertFalse(ResolverEvents.isResolutionCacheFlushEnabled());
+            recordingClass.getMethod("stop").invoke(recording);
+            recordingClass.getMethod("dump", Path.class).invoke(recording, file.toPath());
+        } finally {
+            recordingClass.getMethod("close").invoke(recording);
+        }
+
+        final List<?> events = (List<?>) Class.forName("jdk.jfr.consumer.RecordingFile")
+                .getMethod("readAllEvents", Path.class).invoke(null, file.toPath());
+        int count = 0;
+        for(final Object event : events) {
+            final Object eventType = event.getClass().getMethod("getEventType").invoke(event);
+            if ( "org.apache.sling.servlets.resolver.ResolutionCacheFlush".equals(eventType.getClass().getMethod("getName").invoke(eventType)) ) {
+                assertEquals("test", event.getClass().getMethod("getValue", String.class).invoke(event, "cause"));
+                assertEquals(3, event.getClass().getMethod("getValue", String.class).invoke(event, "entries"));
+                count++;
+            }
+        }
+        assertEquals(1, count);
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.servlets.resolver.internal.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.sling.servlets.resolver.metrics.LatencyHistogram;
+import org.junit.Test;
+
+public class AtomicHistogramTest {
+
+    @Test public void testBuckets() {
+        long lower = 0;
+        for(int i = 0; i < AtomicHistogram.BUCKETS; i++) {
+            final long upper = AtomicHistogram.upperBound(i);
+            assertTrue(upper > lower);
+            // both bounds of a bucket map to the bucket
+            assertEquals(i, AtomicHistogram.index(lower));
+            assertEquals(i, AtomicHistogram.index(upper - 1));
+            // the width is at most 1/SUB_BUCKETS of the value
+            if ( i >= AtomicHistogram.SUB_BUCKETS ) {
+                assertTrue((upper - lower) * AtomicHistogram.SUB_BUCKETS <= lower);
+            }
+            lower = upper;
+        }
+        assertEquals(AtomicHistogram.BUCKETS - 1, AtomicHistogram.index(Long.MAX_VALUE));
+        assertEquals(0, AtomicHistogram.index(-1));
+    }
+
+    @Test public void testPercentiles() {
+        final AtomicHistogram histogram = new AtomicHistogram();
+        assertEquals(0, histogram.snapshot().getValueAtPercentile(50));
+        for(int i = 1; i <= 100; i++) {
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(i * 10));
+        }
+        final LatencyHistogram snapshot = histogram.snapshot();
+        assertEquals(100, snapshot.getCount());
+        assertEquals(TimeUnit.MICROSECONDS.toNanos(1000), snapshot.getMaxNanos());
+        assertEquals(TimeUnit.MICROSECONDS.toNanos(50500), snapshot.getTotalNanos());
+        assertWithin(TimeUnit.MICROSECONDS.toNanos(500), snapshot.getValueAtPercentile(50));
+        assertWithin(TimeUnit.MICROSECONDS.toNanos(990), snapshot.getValueAtPercentile(99));
+        assertEquals(snapshot.getMaxNanos(), snapshot.getValueAtPercentile(100));
+        assertEquals(AtomicHistogram.BUCKETS, snapshot.getBucketCounts().length);
+        assertEquals(AtomicHistogram.BUCKETS, snapshot.getBucketUpperBounds().length);
+    }
+
+    private void assertWithin(final long expected, final long actual) {
+        assertTrue(actual + " < " + expected, actual >= expected);
+        assertTrue(actual + " too high for " + expected, actual <= expected + expected / AtomicHistogram.SUB_BUCKETS);
+    }
+
+    @Test public void testResourceTypes() {
+        final ResourceTypeLatencies latencies = new ResourceTypeLatencies();
+        latencies.recordHit("a/b", 1000);
+        latencies.recordMiss("a/b", 100000);
+        latencies.recordHit(null, 1000);
+        assertEquals(1, latencies.getHitLatency("a/b").getCount());
+        assertEquals(1, latencies.getMissLatency("a/b").getCount());
+        assertEquals(1, latencies.getHitLatency(ResourceTypeLatencies.NO_RESOURCE_TYPE).getCount());
+        assertNull(latencies.getHitLatency("x/y"));
+
+        // further resource types share a histogram
+        for(int i = 0; i < ResourceTypeLatencies.MAX_RESOURCE_TYPES + 10; i++) {
+            latencies.recordHit("type/" + i, 1000);
+        }
+        assertEquals(ResourceTypeLatencies.MAX_RESOURCE_TYPES + 1, latencies.getResourceTypes().size());
+        assertTrue(latencies.getHitLatency(ResourceTypeLatencies.OTHER_RESOURCE_TYPES).getCount() > 1);
+    }
+
+    @Test public void testResourceTypesLimitConcurrently() throws Exception {
+        final ResourceTypeLatencies latencies = new ResourceTypeLatencies();
+        final List<Thread> threads = new ArrayList<>();
+        for(int t = 0; t < 4; t++) {
+            final int thread = t;
+            threads.add(new Thread() {
+
+                @Override
+                public void run() {
+                    for(int i = 0; i < ResourceTypeLatencies.MAX_RESOURCE_TYPES; i++) {
+                        latencies.recordMiss("type/" + thread + "/" + i, 1000);
+                    }
+                }
+            });
+        }
+        for(final Thread t : threads) {
+            t.start();
+        }
+        for(final Thread t : threads) {
+            t.join();
+        }
+        assertEquals(ResourceTypeLatencies.MAX_RESOURCE_TYPES + 1, latencies.getResourceTypes().size());
+        long count = 0;
+        for(final String resourceType : latencies.getResourceTypes()) {
+            count += latencies.getMissLatency(resourceType).getCount();
+        }
+        assertEquals(4 * ResourceTypeLatencies.MAX_RESOURCE_TYPES, count);
+    }
+}
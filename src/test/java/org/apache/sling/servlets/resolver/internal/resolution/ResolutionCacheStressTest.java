@@ -0,0 +1,205 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.servlets.resolver.internal.resolution;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.GenericServlet;
+import javax.servlet.Servlet;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.servlets.resolver.internal.ResolverConfig;
+import org.apache.sling.servlets.resolver.internal.helper.ResourceCollector;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.osgi.framework.BundleContext;
+
+/**
+ * Runs lookups, resolutions, flushes, invalidations and the deactivation of
+ * the {@link ResolutionCache} concurrently and checks that a servlet resolved
+ * before a flush is never served after the flush has completed.
+ */
+public class ResolutionCacheStressTest {
+
+    private static final int THREADS = 4;
+
+    private static final long DURATION = 1000;
+
+    private final ResolutionCache cache = new ResolutionCache();
+
+    private final List<ResourceCollector> keys = new ArrayList<>();
+
+    /** The version of the content, the servlets are resolved from. */
+    private final AtomicInteger version = new AtomicInteger();
+
+    /** The latest version for which the cache has been flushed. */
+    private final AtomicInteger flushed = new AtomicInteger();
+
+    private ExecutorService executor;
+
+    @Before public void setUp() throws Exception {
+        final ResolverConfig config = Mockito.mock(ResolverConfig.class);
+        Mockito.when(config.servletresolver_paths()).thenReturn(new String[] { "/"});
+        Mockito.when(config.servletresolver_cacheSize()).thenReturn(200);
+        cache.activate(Mockito.mock(BundleContext.class, Mockito.RETURNS_MOCKS), config);
+        for(int i = 0; i < 16; i++) {
+            final Resource resource = Mockito.mock(Resource.class);
+            Mockito.when(resource.getResourceType()).thenReturn("a/type" + i);
+            keys.add(new ResourceCollector("404", "sling/servlet/errorhandler", resource, null));
+        }
+        executor = Executors.newFixedThreadPool(THREADS + 1);
+    }
+
+    @After public void tearDown() {
+        executor.shutdownNow();
+        cache.deactivate();
+    }
+
+    @Test public void testFlushDuringResolution() throws Exception {
+        final long end = System.currentTimeMillis() + DURATION;
+        final List<Future<Integer>> readers = new ArrayList<>();
+        for(int i = 0; i < THREADS; i++) {
+            readers.add(executor.submit(new Reader(end)));
+        }
+        final Future<Integer> writer = executor.submit(new Callable<Integer>() {
+
+            @Override
+            public Integer call() throws Exception {
+                int flushes = 0;
+                while ( System.currentTimeMillis() < end ) {
+                    // the content changes before the cache is told about it
+                    final int changed = version.incrementAndGet();
+                    if ( changed % 2 == 0 ) {
+                        cache.flushCache();
+                    } else {
+                        cache.invalidate(Collections.singleton("/apps/changed"), "test");
+                    }
+                    flushed.set(changed);
+                    flushes++;
+                }
+                return flushes;
+            }
+        });
+        int stale = 0;
+        for(final Future<Integer> reader : readers) {
+            stale += reader.get();
+        }
+        writer.get();
+        assertEquals("Stale servlets served", 0, stale);
+
+        // after the last flush only servlets of the latest version are cached
+        for(final ResourceCollector key : keys) {
+            final VersionedServlet servlet = (VersionedServlet)cache.get(key);
+            if ( servlet != null ) {
+                assertEquals(version.get(), servlet.version);
+            }
+        }
+    }
+
+    @Test public void testDeactivateDuringResolution() throws Exception {
+        final CountDownLatch running = new CountDownLatch(THREADS);
+        final List<Future<Integer>> readers = new ArrayList<>();
+        for(int i = 0; i < THREADS; i++) {
+            readers.add(executor.submit(new Callable<Integer>() {
+
+                @Override
+                public Integer call() throws Exception {
+                    running.countDown();
+                    return new Reader(System.currentTimeMillis() + DURATION / 4).call();
+                }
+            }));
+        }
+        running.await(5, TimeUnit.SECONDS);
+        cache.deactivate();
+        for(final Future<Integer> reader : readers) {
+            // fails on any exception of the reader
+            reader.get();
+        }
+        for(final ResourceCollector key : keys) {
+            assertNull(cache.get(key));
+        }
+        cache.flushCache();
+    }
+
+    /**
+     * Resolves the keys like the servlet resolver and counts the servlets
+     * served from the cache although they have been resolved from content
+     * older than the latest flush.
+     */
+    private final class Reader implements Callable<Integer> {
+
+        private final long end;
+
+        Reader(final long end) {
+            this.end = end;
+        }
+
+        @Override
+        public Integer call() {
+            int stale = 0;
+            while ( System.currentTimeMillis() < end ) {
+                for(final ResourceCollector key : keys) {
+                    final int minimum = flushed.get();
+                    final long generation = cache.getGeneration();
+                    final int current = version.get();
+                    final Servlet servlet = cache.get(key);
+                    if ( servlet == null ) {
+                        cache.put(key, new VersionedServlet(current), generation);
+                    } else if ( ((VersionedServlet)servlet).version < minimum ) {
+                        stale++;
+                    }
+                }
+            }
+            return stale;
+        }
+    }
+
+    private static final class VersionedServlet extends GenericServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        final int version;
+
+        VersionedServlet(final int version) {
+            this.version = version;
+        }
+
+        @Override
+        public void service(final ServletRequest req, final ServletResponse res) throws IOException {
+            // not called
+        }
+    }
+}
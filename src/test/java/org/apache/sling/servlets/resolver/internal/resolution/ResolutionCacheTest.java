@@ -0,0 +1,488 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.servlets.resolver.internal.resolution;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import javax.servlet.Servlet;
+import javax.servlet.ServletConfig;
+
+import org.apache.sling.api.SlingConstants;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ValueMap;
+import org.apache.sling.api.scripting.SlingScriptConstants;
+import org.apache.sling.servlets.resolver.internal.ResolverConfig;
+import org.apache.sling.servlets.resolver.internal.helper.AbstractResourceCollector;
+import org.apache.sling.servlets.resolver.internal.helper.ResourceCollector;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.osgi.framework.BundleContext;
+import org.osgi.service.event.Event;
+
+public class ResolutionCacheTest {
+
+    private final ResolutionCache cache = new ResolutionCache();
+
+    @Rule public final TemporaryFolder folder = new TemporaryFolder();
+
+    private ResolverConfig config(final long invalidationDelay) {
+        final ResolverConfig config = Mockito.mock(ResolverConfig.class);
+        Mockito.when(config.servletresolver_paths()).thenReturn(new String[] { "/"});
+        Mockito.when(config.servletresolver_cacheSize()).thenReturn(200);
+        Mockito.when(config.servletresolver_invalidationDelay()).thenReturn(invalidationDelay);
+        Mockito.when(config.servletresolver_invalidationMaxDelay()).thenReturn(1000L);
+        return config;
+    }
+
+    private void activate(final long invalidationDelay) throws Exception {
+        final BundleContext context = Mockito.mock(BundleContext.class, Mockito.RETURNS_MOCKS);
+        cache.activate(context, config(invalidationDelay));
+    }
+
+    @After public void tearDown() {
+        cache.deactivate();
+    }
+
+    @Test public void testImmediateInvalidation() throws Exception {
+        activate(0);
+        final AbstractResourceCollector key = Mockito.mock(AbstractResourceCollector.class);
+        cache.put(key, Mockito.mock(Servlet.class), cache.getGeneration());
+        assertNotNull(cache.get(key));
+
+        cache.handleEvent(new Event("javax/script/ScriptEngineFactory/ADDED", Collections.<String, Object>emptyMap()));
+        assertNull(cache.get(key));
+
+        final ResolutionCache.ServletResolverCacheMBeanImpl mbean = cache.new ServletResolverCacheMBeanImpl();
+        assertEquals(1, mbean.getInvalidationRequestCount());
+        assertEquals(1, mbean.getInvalidationCount());
+    }
+
+    @Test public void testSlowResolutions() throws Exception {
+        final ResolverConfig config = config(0);
+        Mockito.when(config.servletresolver_slowResolutionThreshold()).thenReturn(1000L);
+        Mockito.when(config.servletresolver_slowResolutionLogSize()).thenReturn(2);
+        cache.activate(Mockito.mock(BundleContext.class, Mockito.RETURNS_MOCKS), config);
+
+        // fast resolutions are not logged
+        final ResourceCollector fast = collector("a/fast");
+        final long start = System.nanoTime();
+        cache.logResolution(fast, start, 1, "fast");
+        assertEquals(0, cache.getSlowResolutions().size());
+
+        final long slowStart = start - TimeUnit.SECONDS.toNanos(5);
+        cache.logResolution(collector("a/first"), slowStart, 1, "first");
+        cache.logResolution(collector("a/second"), slowStart, 2, "second");
+        cache.logResolution(collector("a/third"), slowStart, 3, null);
+
+        // the most recent entries are kept
+        final List<SlowResolution> entries = cache.getSlowResolutions();
+        assertEquals(2, entries.size());
+        assertNull(entries.get(0).getServlet());
+        assertEquals(3, entries.get(0).getCandidates());
+        assertEquals("second", entries.get(1).getServlet());
+        assertEquals(2, cache.new ServletResolverCacheMBeanImpl().listSlowResolutions().length);
+    }
+
+    @Test public void testHeavyHitters() throws Exception {
+        final ResolverConfig config = config(0);
+        Mockito.when(config.servletresolver_heavyHitters()).thenReturn(2);
+        cache.activate(Mockito.mock(BundleContext.class, Mockito.RETURNS_MOCKS), config);
+
+        final ResourceCollector one = collector("a/one");
+        final ResourceCollector two = collector("a/two");
+        cache.put(one, Mockito.mock(Servlet.class), cache.getGeneration());
+        cache.put(two, Mockito.mock(Servlet.class), cache.getGeneration());
+        for(int i = 0; i < 3; i++) {
+            assertNotNull(cache.get(one));
+        }
+        final List<CachedResolution> entries = cache.getCachedResolutions();
+        assertEquals(2, entries.size());
+        assertEquals(one.toString(), entries.get(0).getKey());
+        assertEquals(4, entries.get(0).getHits());
+        assertEquals(1, entries.get(1).getHits());
+
+        // the hits of flushed entries are kept
+        cache.flushCache();
+        assertEquals(0, cache.getCachedResolutions().size());
+        cache.put(one, Mockito.mock(Servlet.class), cache.getGeneration());
+        assertNotNull(cache.get(one));
+        final List<HeavyHitters.Entry> keys = cache.getMostFrequentKeys(1);
+        assertEquals(1, keys.size());
+        assertEquals(one.toString(), keys.get(0).getKey());
+        assertEquals(6, keys.get(0).getCount());
+
+        // a new miss replaces the least frequent one
+        final long start = System.nanoTime();
+        for(int i = 0; i < 3; i++) {
+            cache.logResolution(collector("a/x"), start, 1, null);
+        }
+        cache.logResolution(collector("a/y"), start, 1, null);
+        cache.logResolution(collector("a/z"), start, 1, null);
+        final List<HeavyHitters.Entry> misses = cache.getMostFrequentMisses(10);
+        assertEquals(2, misses.size());
+        assertEquals(3, misses.get(0).getCount());
+        assertEquals(0, misses.get(0).getError());
+        assertEquals(collector("a/z").toString(), misses.get(1).getKey());
+        assertEquals(2, misses.get(1).getCount());
+        assertEquals(1, misses.get(1).getError());
+    }
+
+    @Test public void testSampledMisses() throws Exception {
+        final ResolverConfig config = config(0);
+        Mockito.when(config.servletresolver_heavyHitters()).thenReturn(2);
+        Mockito.when(config.servletresolver_missSampling()).thenReturn(4);
+        cache.activate(Mockito.mock(BundleContext.class, Mockito.RETURNS_MOCKS), config);
+
+        final ResourceCollector key = collector("a/x");
+        final long start = System.nanoTime();
+        for(int i = 0; i < 4000; i++) {
+            cache.logResolution(key, start, 1, null);
+        }
+        // the sampled misses are weighted by the sampling
+        final List<HeavyHitters.Entry> misses = cache.getMostFrequentMisses(10);
+        assertEquals(1, misses.size());
+        assertEquals(0, misses.get(0).getCount() % 4);
+        assertTrue(Math.abs(misses.get(0).getCount() - 4000) < 1000);
+    }
+
+    @Test public void testEventClassification() throws Exception {
+        activate(0);
+        final AbstractResourceCollector espKey = Mockito.mock(AbstractResourceCollector.class);
+        Mockito.when(espKey.hasCandidateWithExtension("esp")).thenReturn(true);
+        final AbstractResourceCollector jspKey = Mockito.mock(AbstractResourceCollector.class);
+        Mockito.when(jspKey.hasCandidateWithExtension("jsp")).thenReturn(true);
+        cache.put(espKey, Mockito.mock(Servlet.class), cache.getGeneration());
+        cache.put(jspKey, Mockito.mock(Servlet.class), cache.getGeneration());
+
+        // bindings values providers do not invalidate
+        cache.handleEvent(new Event("org/apache/sling/scripting/core/BindingsValuesProvider/ADDED",
+                Collections.<String, Object>emptyMap()));
+        assertNotNull(cache.get(espKey));
+        assertNotNull(cache.get(jspKey));
+
+        // adapter factories not providing servlets do not invalidate
+        final Map<String, Object> adapterProps = new HashMap<>();
+        adapterProps.put(SlingConstants.PROPERTY_ADAPTABLE_CLASSES, new String[] {Resource.class.getName()});
+        adapterProps.put(SlingConstants.PROPERTY_ADAPTER_CLASSES, new String[] {ValueMap.class.getName()});
+        cache.handleEvent(new Event(SlingConstants.TOPIC_ADAPTER_FACTORY_ADDED, adapterProps));
+        assertNotNull(cache.get(espKey));
+        assertNotNull(cache.get(jspKey));
+
+        // script engines only invalidate entries with candidates using their extensions
+        cache.handleEvent(new Event(SlingScriptConstants.TOPIC_SCRIPT_ENGINE_FACTORY_ADDED,
+                Collections.<String, Object>singletonMap(SlingScriptConstants.PROPERTY_SCRIPT_ENGINE_FACTORY_EXTENSIONS,
+                        new String[] {"esp"})));
+        assertNull(cache.get(espKey));
+        assertNotNull(cache.get(jspKey));
+
+        // adapter factories providing servlets flush the cache
+        adapterProps.put(SlingConstants.PROPERTY_ADAPTER_CLASSES, new String[] {Servlet.class.getName()});
+        cache.handleEvent(new Event(SlingConstants.TOPIC_ADAPTER_FACTORY_ADDED, adapterProps));
+        assertNull(cache.get(jspKey));
+    }
+
+    @Test public void testCoalescedInvalidation() throws Exception {
+        activate(200);
+        final AbstractResourceCollector key = Mockito.mock(AbstractResourceCollector.class);
+        cache.put(key, Mockito.mock(Servlet.class), cache.getGeneration());
+
+        for(int i=0; i<100; i++) {
+            cache.handleEvent(new Event("javax/script/ScriptEngineFactory/ADDED", Collections.<String, Object>emptyMap()));
+        }
+        // not invalidated yet
+        assertNotNull(cache.get(key));
+
+        final ResolutionCache.ServletResolverCacheMBeanImpl mbean = cache.new ServletResolverCacheMBeanImpl();
+        final long end = System.currentTimeMillis() + 5000;
+        while ( mbean.getInvalidationCount() == 0 && System.currentTimeMillis() < end ) {
+            Thread.sleep(10);
+        }
+        assertNull(cache.get(key));
+        assertEquals(100, mbean.getInvalidationRequestCount());
+        assertEquals(1, mbean.getInvalidationCount());
+        assertEquals(100.0, mbean.getInvalidationCoalescingRatio(), 0.1);
+    }
+
+    @Test public void testVerify() throws Exception {
+        activate(0);
+        final ResourceCollector key = collector("a/verified");
+        final Servlet cached = servlet("cached");
+        final long generation = cache.getGeneration();
+        cache.put(key, cached, generation);
+        assertNotNull(cache.get(key));
+
+        // the same servlet matches
+        assertTrue(cache.verify(key, cached, servlet("cached"), generation));
+        assertNotNull(cache.get(key));
+
+        // the servlets are not compared if the cache has changed since the hit
+        cache.flushCache();
+        cache.put(key, cached, cache.getGeneration());
+        assertTrue(cache.verify(key, cached, servlet("other"), generation));
+        assertNotNull(cache.get(key));
+
+        // a different servlet invalidates the entry
+        assertFalse(cache.verify(key, cached, servlet("other"), cache.getGeneration()));
+        assertNull(cache.get(key));
+
+        final ResolutionCache.ServletResolverCacheMBeanImpl mbean = cache.new ServletResolverCacheMBeanImpl();
+        assertEquals(2, mbean.getVerificationCount());
+        assertEquals(1, mbean.getVerificationMismatchCount());
+    }
+
+    private Servlet servlet(final String name) {
+        final ServletConfig config = Mockito.mock(ServletConfig.class);
+        Mockito.when(config.getServletName()).thenReturn(name);
+        final Servlet servlet = Mockito.mock(Servlet.class);
+        Mockito.when(servlet.getServletConfig()).thenReturn(config);
+        return servlet;
+    }
+
+    @Test public void testStalePut() throws Exception {
+        activate(0);
+        final ResourceCollector key = collector("a/stale");
+
+        // the cache is flushed while the servlet is resolved
+        final long flushed = cache.getGeneration();
+        cache.flushCache();
+        assertFalse(cache.put(key, Mockito.mock(Servlet.class), flushed));
+        assertNull(cache.get(key));
+
+        // any invalidation counts, even if it does not affect the key
+        final long invalidated = cache.getGeneration();
+        cache.invalidate(Collections.singleton("/apps/other"), "test");
+        assertFalse(cache.put(key, Mockito.mock(Servlet.class), invalidated));
+        assertNull(cache.get(key));
+
+        assertTrue(cache.put(key, Mockito.mock(Servlet.class), cache.getGeneration()));
+        assertNotNull(cache.get(key));
+    }
+
+    @Test public void testInternedKeyInvalidation() throws Exception {
+        activate(0);
+        final ResourceResolver resolver = Mockito.mock(ResourceResolver.class);
+        Mockito.when(resolver.getSearchPath()).thenReturn(new String[] {"/apps/"});
+        Mockito.when(resolver.listChildren(Mockito.any(Resource.class))).thenReturn(Collections.<Resource>emptyIterator());
+        final ResourceCollector key = collector("a/interned");
+        assertFalse(cache.iterateServlets(key, resolver).hasNext());
+        assertTrue(cache.put(key, Mockito.mock(Servlet.class), cache.getGeneration()));
+
+        // the interned key keeps the visited locations
+        cache.invalidate(Collections.singleton("/apps/other"), "test");
+        assertNotNull(cache.get(key));
+        cache.invalidate(Collections.singleton("/apps/a/interned/404.jsp"), "test");
+        assertNull(cache.get(key));
+    }
+
+    @Test public void testFlushDuringVocabularyCreation() throws Exception {
+        assertChangeDuringVocabularyCreation(new Runnable() {
+
+            @Override
+            public void run() {
+                cache.flushCache();
+            }
+        });
+    }
+
+    @Test public void testInvalidationDuringVocabularyCreation() throws Exception {
+        assertChangeDuringVocabularyCreation(new Runnable() {
+
+            @Override
+            public void run() {
+                cache.invalidate(Collections.singleton("/apps/a"), "test");
+            }
+        });
+    }
+
+    private void assertChangeDuringVocabularyCreation(final Runnable change) throws Exception {
+        activate(0);
+        // the resource type a has the super type b, whose location holds a script,
+        // until the super type is removed while the vocabulary of a is created
+        final AtomicBoolean changed = new AtomicBoolean();
+        final Resource typeResource = Mockito.mock(Resource.class);
+        Mockito.when(typeResource.getResourceSuperType()).thenReturn("b");
+        final Resource script = Mockito.mock(Resource.class);
+        Mockito.when(script.getPath()).thenReturn("/apps/b/html.esp");
+        Mockito.when(script.getName()).thenReturn("html.esp");
+        final Thread flusher = new Thread(change);
+        final ResourceResolver resolver = Mockito.mock(ResourceResolver.class);
+        Mockito.when(resolver.getSearchPath()).thenReturn(new String[] {"/apps/"});
+        Mockito.when(resolver.getResource(Mockito.anyString())).thenAnswer(new Answer<Resource>() {
+
+            @Override
+            public Resource answer(final InvocationOnMock invocation) throws Throwable {
+                final String path = (String) invocation.getArguments()[0];
+                if ( "/apps/a".equals(path) ) {
+                    if ( changed.compareAndSet(false, true) ) {
+                        // the change is reported while the hierarchy is read
+                        final long generation = cache.getGeneration();
+                        flusher.start();
+                        final long timeout = System.currentTimeMillis() + 10000;
+                        while ( cache.getGeneration() == generation && System.currentTimeMillis() < timeout ) {
+                            Thread.sleep(1);
+                        }
+                        return typeResource;
+                    }
+                    return changed.get() ? null : typeResource;
+                }
+                return "/apps/b/html.esp".equals(path) ? script : null;
+            }
+        });
+        Mockito.when(resolver.listChildren(Mockito.any(Resource.class))).thenAnswer(new Answer<Iterator<Resource>>() {
+
+            @Override
+            public Iterator<Resource> answer(final InvocationOnMock invocation) throws Throwable {
+                final Resource parent = (Resource) invocation.getArguments()[0];
+                return "/apps/b".equals(parent.getPath())
+                        ? Collections.singletonList(script).iterator() : Collections.<Resource>emptyIterator();
+            }
+        });
+        final Resource resource = Mockito.mock(Resource.class);
+        Mockito.when(resource.getResourceType()).thenReturn("a");
+        final ResourceCollector collector = ResourceCollector.create(resource, "html", null, new String[] {"html"},
+                "GET", new String[0]);
+
+        final AbstractResourceCollector key = cache.canonicalize(collector, resolver);
+        flusher.join();
+        assertTrue(changed.get());
+        // the vocabulary created during the change still knows the super type
+        assertFalse(cache.iterateServlets(key, resolver).hasNext());
+
+        // a vocabulary created afterwards is used
+        final AbstractResourceCollector current = cache.canonicalize(collector, resolver);
+        assertFalse(cache.iterateServlets(current, resolver).hasNext());
+    }
+
+    private ResourceCollector collector(final String resourceType) {
+        final Resource resource = Mockito.mock(Resource.class);
+        Mockito.when(resource.getResourceType()).thenReturn(resourceType);
+        return new ResourceCollector("404", "sling/servlet/errorhandler", resource, null);
+    }
+
+    @Test public void testRecordedKeys() throws Exception {
+        final BundleContext context = Mockito.mock(BundleContext.class, Mockito.RETURNS_MOCKS);
+        Mockito.when(context.getDataFile(Mockito.anyString())).thenReturn(folder.newFile());
+        final ResolverConfig config = config(0);
+        Mockito.when(config.servletresolver_warmupRate()).thenReturn(10);
+        cache.activate(context, config);
+
+        final ResourceCollector rarelyUsed = collector("a/rarely/used/type");
+        final ResourceCollector oftenUsed = collector("an/often/used/type");
+        cache.put(rarelyUsed, Mockito.mock(Servlet.class), cache.getGeneration());
+        cache.put(oftenUsed, Mockito.mock(Servlet.class), cache.getGeneration());
+        for(int i=0; i<3; i++) {
+            assertNotNull(cache.get(oftenUsed));
+        }
+        // keys which can't be recorded are skipped
+        cache.put(Mockito.mock(AbstractResourceCollector.class), Mockito.mock(Servlet.class), cache.getGeneration());
+
+        cache.recordKeys();
+        cache.flushCache();
+
+        final List<ResourceCollector> keys = cache.getRecordedKeys(null);
+        assertEquals(Arrays.asList(oftenUsed, rarelyUsed), keys);
+        assertEquals(oftenUsed.hashCode(), keys.get(0).hashCode());
+    }
+
+    @Test public void testRewarmAfterFlush() throws Exception {
+        final BundleContext context = Mockito.mock(BundleContext.class, Mockito.RETURNS_MOCKS);
+        Mockito.when(context.getDataFile(Mockito.anyString())).thenReturn(folder.newFile());
+        final ResolverConfig config = config(0);
+        Mockito.when(config.servletresolver_rewarmSize()).thenReturn(2);
+        cache.activate(context, config);
+
+        final List<List<ResourceCollector>> rewarmed = new ArrayList<>();
+        cache.setRewarmHandler(new Consumer<List<ResourceCollector>>() {
+
+            @Override
+            public void accept(final List<ResourceCollector> keys) {
+                rewarmed.add(keys);
+            }
+        });
+
+        final ResourceCollector rarelyUsed = collector("a/rarely/used/type");
+        final ResourceCollector oftenUsed = collector("an/often/used/type");
+        final ResourceCollector sometimesUsed = collector("a/sometimes/used/type");
+        cache.put(rarelyUsed, Mockito.mock(Servlet.class), cache.getGeneration());
+        cache.put(oftenUsed, Mockito.mock(Servlet.class), cache.getGeneration());
+        cache.put(sometimesUsed, Mockito.mock(Servlet.class), cache.getGeneration());
+        for(int i=0; i<3; i++) {
+            cache.get(oftenUsed);
+        }
+        cache.get(sometimesUsed);
+
+        cache.flushCache();
+        assertNull(cache.get(oftenUsed));
+        assertEquals(Collections.singletonList(Arrays.asList(oftenUsed, sometimesUsed)), rewarmed);
+
+        // an empty cache is not re-warmed
+        cache.flushCache();
+        assertEquals(1, rewarmed.size());
+    }
+
+    @Test public void testHotKeysByRecentHits() {
+        // start at the beginning of a hit window
+        final long now = (System.currentTimeMillis() / ResolutionCache.HIT_WINDOW + 1) * ResolutionCache.HIT_WINDOW;
+        final Map<AbstractResourceCollector, ResolutionCache.CacheEntry> entries = new HashMap<>();
+        final ResourceCollector formerlyUsed = collector("a/formerly/used/type");
+        final ResourceCollector recentlyUsed = collector("a/recently/used/type");
+        final ResourceCollector rarelyUsed = collector("a/rarely/used/type");
+        final ResolutionCache.CacheEntry formerlyUsedEntry = new ResolutionCache.CacheEntry(Mockito.mock(Servlet.class));
+        final ResolutionCache.CacheEntry recentlyUsedEntry = new ResolutionCache.CacheEntry(Mockito.mock(Servlet.class));
+        entries.put(formerlyUsed, formerlyUsedEntry);
+        entries.put(recentlyUsed, recentlyUsedEntry);
+        entries.put(rarelyUsed, new ResolutionCache.CacheEntry(Mockito.mock(Servlet.class)));
+        for(int i=0; i<10; i++) {
+            formerlyUsedEntry.recentHit(now);
+        }
+        for(int i=0; i<3; i++) {
+            recentlyUsedEntry.recentHit(now + ResolutionCache.HIT_WINDOW);
+        }
+
+        // only the most used keys are kept
+        assertEquals(Arrays.asList(formerlyUsed, recentlyUsed),
+                ResolutionCache.getHotKeys(entries, 2, now + ResolutionCache.HIT_WINDOW));
+        // the hits of older windows don't count anymore
+        assertEquals(Arrays.asList(recentlyUsed),
+                ResolutionCache.getHotKeys(entries, 2, now + 2 * ResolutionCache.HIT_WINDOW));
+        assertEquals(Collections.emptyList(),
+                ResolutionCache.getHotKeys(entries, 2, now + 3 * ResolutionCache.HIT_WINDOW));
+    }
+}
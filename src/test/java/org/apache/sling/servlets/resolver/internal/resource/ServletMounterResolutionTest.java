@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.servlets.resolver.internal.resource;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.Collections;
+import java.util.Hashtable;
+
+import javax.servlet.Servlet;
+import javax.servlet.http.HttpServlet;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.api.servlets.ServletResolverConstants;
+import org.apache.sling.servlets.resolver.internal.ResolverConfig;
+import org.apache.sling.servlets.resolver.internal.resolution.ResolutionCache;
+import org.apache.sling.testing.mock.sling.ResourceResolverType;
+import org.apache.sling.testing.mock.sling.junit.SlingContext;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
+
+/**
+ * Resolves servlets through a resource resolver of the resource resolver
+ * factory, which only sees the servlets mounted into the resource tree.
+ */
+public class ServletMounterResolutionTest {
+
+    @Rule
+    public SlingContext context = new SlingContext(ResourceResolverType.NONE);
+
+    @SuppressWarnings({ "serial", "unchecked" })
+    @Test public void testPathServletWithMergingProvider() throws Exception {
+        final ResolverConfig config = Mockito.mock(ResolverConfig.class);
+        Mockito.when(config.servletresolver_servletRoot()).thenReturn("0");
+        Mockito.when(config.servletresolver_mountProviders()).thenReturn(false);
+        final ResourceResolverFactory factory = Mockito.mock(ResourceResolverFactory.class);
+        Mockito.when(factory.getSearchPath()).thenReturn(Collections.singletonList("/apps/"));
+
+        final ServletMounter mounter = new ServletMounter(context.bundleContext(), factory, null, new ResolutionCache(), config);
+
+        final Servlet servlet = new HttpServlet() {};
+        final Hashtable<String, Object> props = new Hashtable<>();
+        props.put(ServletResolverConstants.SLING_SERVLET_PATHS, "/bin/sample");
+        final ServiceRegistration<Servlet> registration = context.bundleContext().registerService(Servlet.class, servlet, props);
+        final ServiceReference<Servlet> reference = registration.getReference();
+        mounter.bindServlet(servlet, reference);
+
+        final Resource resource = context.resourceResolver().resolve("/bin/sample");
+        assertEquals("/bin/sample", resource.getPath());
+        assertEquals(servlet, resource.adaptTo(Servlet.class));
+
+        mounter.unbindServlet(reference);
+        assertNull(context.resourceResolver().getResource("/bin/sample"));
+    }
+
+    @SuppressWarnings({ "serial", "unchecked" })
+    @Test public void testResourceSuperTypeWithMergingProvider() throws Exception {
+        final ResolverConfig config = Mockito.mock(ResolverConfig.class);
+        Mockito.when(config.servletresolver_servletRoot()).thenReturn("0");
+        Mockito.when(config.servletresolver_mountProviders()).thenReturn(false);
+        final ResourceResolverFactory factory = Mockito.mock(ResourceResolverFactory.class);
+        Mockito.when(factory.getSearchPath()).thenReturn(Collections.singletonList("/apps/"));
+
+        final ServletMounter mounter = new ServletMounter(context.bundleContext(), factory, null, new ResolutionCache(), config);
+
+        final Servlet servlet = new HttpServlet() {};
+        final Hashtable<String, Object> props = new Hashtable<>();
+        props.put(ServletResolverConstants.SLING_SERVLET_RESOURCE_TYPES, "sample/type");
+        props.put(ServletResolverConstants.SLING_SERVLET_RESOURCE_SUPER_TYPE, "sample/base");
+        props.put(ServletResolverConstants.SLING_SERVLET_EXTENSIONS, "html");
+        final ServiceRegistration<Servlet> registration = context.bundleContext().registerService(Servlet.class, servlet, props);
+        final ServiceReference<Servlet> reference = registration.getReference();
+        mounter.bindServlet(servlet, reference);
+
+        // the resource super type is visible to every resource resolver
+        final ResourceResolver resolver = context.resourceResolver();
+        final Resource marker = resolver.getResource("/apps/sample/type");
+        assertNotNull(marker);
+        assertEquals("sample/base", marker.getResourceSuperType());
+        assertEquals("sample/base", resolver.getParentResourceType("/apps/sample/type"));
+
+        mounter.unbindServlet(reference);
+        assertNull(resolver.getResource("/apps/sample/type"));
+    }
+}
@@ -19,26 +19,45 @@
 package org.apache.sling.servlets.resolver.internal.resource;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Dictionary;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import javax.servlet.Servlet;
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletException;
 
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
 import org.apache.sling.api.resource.ResourceResolverFactory;
 import org.apache.sling.api.servlets.ServletResolverConstants;
 import org.apache.sling.servlets.resolver.internal.ResolverConfig;
+import org.apache.sling.servlets.resolver.internal.resolution.ResolutionCache;
+import org.apache.sling.spi.resource.provider.ResolveContext;
 import org.apache.sling.spi.resource.provider.ResourceProvider;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.Constants;
 import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
 
 public class ServletMounterTest {
 
@@ -50,6 +69,7 @@ public class ServletMounterTest {
         Mockito.when(config.servletresolver_paths()).thenReturn(new String[] { "/"});
         Mockito.when(config.servletresolver_defaultExtensions()).thenReturn(new String[] {"html"});
         Mockito.when(config.servletresolver_cacheSize()).thenReturn(200);
+        Mockito.when(config.servletresolver_mountProviders()).thenReturn(true);
 
         // create mock for resource resolver factory
         final ResourceResolverFactory factory = Mockito.mock(ResourceResolverFactory.class);
@@ -64,7 +84,7 @@ public class ServletMounterTest {
         Mockito.when(bundle.getBundleContext()).thenReturn(bundleContext);
 
         // create mounter
-        this.mounter = new ServletMounter(bundleContext, factory, null, config);
+        this.mounter = new ServletMounter(bundleContext, factory, null, new ResolutionCache(), config);
     }
 
 
@@ -113,4 +133,307 @@ public class ServletMounterTest {
         assertEquals("/c", p3.get(ResourceProvider.PROPERTY_ROOT));
         assertNotNull(p3.get(Constants.SERVICE_DESCRIPTION));
     }
+
+    @SuppressWarnings("unchecked")
+    @Test public void testParallelInitialization() throws Throwable {
+        final ResolverConfig config = Mockito.mock(ResolverConfig.class);
+        Mockito.when(config.servletresolver_servletRoot()).thenReturn("0");
+        Mockito.when(config.servletresolver_initThreads()).thenReturn(2);
+        Mockito.when(config.servletresolver_mountProviders()).thenReturn(true);
+        final ResourceResolverFactory factory = Mockito.mock(ResourceResolverFactory.class);
+        Mockito.when(factory.getSearchPath()).thenReturn(Collections.singletonList("/"));
+
+        final BundleContext bundleContext = Mockito.mock(BundleContext.class);
+        final ServiceRegistration<?> reg = Mockito.mock(ServiceRegistration.class);
+        Mockito.when(bundleContext.registerService(Mockito.anyString(), Mockito.any(), Mockito.any(Dictionary.class)))
+            .thenReturn((ServiceRegistration) reg);
+        final Bundle bundle = Mockito.mock(Bundle.class);
+        Mockito.when(bundle.getBundleContext()).thenReturn(bundleContext);
+
+        final ServiceReference<Servlet> msr = Mockito.mock(ServiceReference.class);
+        Mockito.when(msr.getBundle()).thenReturn(bundle);
+        Mockito.when(msr.getProperty(ServletResolverConstants.SLING_SERVLET_RESOURCE_TYPES))
+            .thenReturn("sample");
+        Mockito.when(msr.getProperty(ServletResolverConstants.SLING_SERVLET_METHODS))
+            .thenReturn("GET");
+
+        final CountDownLatch initStarted = new CountDownLatch(1);
+        final CountDownLatch initContinue = new CountDownLatch(1);
+        final Servlet servlet = Mockito.mock(Servlet.class);
+        Mockito.doAnswer(new Answer<Void>() {
+
+            @Override
+            public Void answer(final InvocationOnMock invocation) throws Throwable {
+                initStarted.countDown();
+                initContinue.await();
+                return null;
+            }
+        }).when(servlet).init(Mockito.any(ServletConfig.class));
+
+        final ServletMounter parallelMounter = new ServletMounter(bundleContext, factory, null, new ResolutionCache(), config);
+        try {
+            // binding returns while the servlet is still initialized
+            parallelMounter.bindServlet(servlet, msr);
+            assertTrue(initStarted.await(5, TimeUnit.SECONDS));
+            Mockito.verify(bundleContext, Mockito.never()).registerService(Mockito.anyString(), Mockito.any(), Mockito.any(Dictionary.class));
+
+            // the provider is registered once initialized
+            initContinue.countDown();
+            Mockito.verify(bundleContext, Mockito.timeout(5000)).registerService(Mockito.anyString(), Mockito.any(), Mockito.any(Dictionary.class));
+            parallelMounter.unbindServlet(msr);
+            Mockito.verify(reg, Mockito.timeout(5000)).unregister();
+            Mockito.verify(servlet, Mockito.timeout(5000)).destroy();
+        } finally {
+            initContinue.countDown();
+            parallelMounter.deactivate();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test public void testUnbindDuringParallelInitialization() throws Throwable {
+        final ResolverConfig config = Mockito.mock(ResolverConfig.class);
+        Mockito.when(config.servletresolver_servletRoot()).thenReturn("0");
+        Mockito.when(config.servletresolver_initThreads()).thenReturn(2);
+        Mockito.when(config.servletresolver_mountProviders()).thenReturn(true);
+        final ResourceResolverFactory factory = Mockito.mock(ResourceResolverFactory.class);
+        Mockito.when(factory.getSearchPath()).thenReturn(Collections.singletonList("/"));
+
+        final BundleContext bundleContext = Mockito.mock(BundleContext.class);
+        final Bundle bundle = Mockito.mock(Bundle.class);
+        Mockito.when(bundle.getBundleContext()).thenReturn(bundleContext);
+        final ServiceReference<Servlet> msr = mockReference(bundle, "sample");
+
+        final CountDownLatch initStarted = new CountDownLatch(1);
+        final CountDownLatch initContinue = new CountDownLatch(1);
+        final Servlet servlet = blockingServlet(initStarted, initContinue);
+
+        final ServletMounter parallelMounter = new ServletMounter(bundleContext, factory, null, new ResolutionCache(), config);
+        try {
+            parallelMounter.bindServlet(servlet, msr);
+            assertTrue(initStarted.await(5, TimeUnit.SECONDS));
+
+            // unbinding does not wait for the initialization
+            parallelMounter.unbindServlet(msr);
+            Mockito.verify(servlet, Mockito.never()).destroy();
+
+            // the servlet is destroyed once initialized, without being registered
+            initContinue.countDown();
+            Mockito.verify(servlet, Mockito.timeout(5000)).destroy();
+            Mockito.verify(bundleContext, Mockito.never()).registerService(Mockito.anyString(), Mockito.any(), Mockito.any(Dictionary.class));
+        } finally {
+            initContinue.countDown();
+            parallelMounter.deactivate();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test public void testParallelRegistrationOrder() throws Throwable {
+        final ResolverConfig config = Mockito.mock(ResolverConfig.class);
+        Mockito.when(config.servletresolver_servletRoot()).thenReturn("0");
+        Mockito.when(config.servletresolver_initThreads()).thenReturn(2);
+        Mockito.when(config.servletresolver_mountProviders()).thenReturn(true);
+        final ResourceResolverFactory factory = Mockito.mock(ResourceResolverFactory.class);
+        Mockito.when(factory.getSearchPath()).thenReturn(Collections.singletonList("/"));
+
+        final BundleContext bundleContext = Mockito.mock(BundleContext.class);
+        final List<Object> roots = Collections.synchronizedList(new ArrayList<>());
+        Mockito.when(bundleContext.registerService(Mockito.anyString(), Mockito.any(), Mockito.any(Dictionary.class)))
+            .thenAnswer(new Answer<ServiceRegistration<?>>() {
+
+                @Override
+                public ServiceRegistration<?> answer(final InvocationOnMock invocation) throws Throwable {
+                    roots.add(((Dictionary<String, Object>) invocation.getArguments()[2]).get(ResourceProvider.PROPERTY_ROOT));
+                    return Mockito.mock(ServiceRegistration.class);
+                }
+            });
+        final Bundle bundle = Mockito.mock(Bundle.class);
+        Mockito.when(bundle.getBundleContext()).thenReturn(bundleContext);
+
+        final CountDownLatch initStarted = new CountDownLatch(1);
+        final CountDownLatch initContinue = new CountDownLatch(1);
+        final Servlet slowServlet = blockingServlet(initStarted, initContinue);
+        final Servlet fastServlet = Mockito.mock(Servlet.class);
+
+        final ServletMounter parallelMounter = new ServletMounter(bundleContext, factory, null, new ResolutionCache(), config);
+        try {
+            parallelMounter.bindServlet(slowServlet, mockReference(bundle, "slow"));
+            parallelMounter.bindServlet(fastServlet, mockReference(bundle, "fast"));
+            assertTrue(initStarted.await(5, TimeUnit.SECONDS));
+
+            // the servlet bound later is initialized, but waits for the registration of the first one
+            Mockito.verify(fastServlet, Mockito.timeout(5000)).init(Mockito.any(ServletConfig.class));
+            Mockito.verify(bundleContext, Mockito.after(200).never()).registerService(Mockito.anyString(), Mockito.any(), Mockito.any(Dictionary.class));
+
+            initContinue.countDown();
+            Mockito.verify(bundleContext, Mockito.timeout(5000).times(2)).registerService(Mockito.anyString(), Mockito.any(), Mockito.any(Dictionary.class));
+            assertEquals(Arrays.asList("/slow/GET.servlet", "/fast/GET.servlet"), roots);
+        } finally {
+            initContinue.countDown();
+            parallelMounter.deactivate();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ServiceReference<Servlet> mockReference(final Bundle bundle, final String resourceType) {
+        final ServiceReference<Servlet> msr = Mockito.mock(ServiceReference.class);
+        Mockito.when(msr.getBundle()).thenReturn(bundle);
+        Mockito.when(msr.getProperty(ServletResolverConstants.SLING_SERVLET_RESOURCE_TYPES))
+            .thenReturn(resourceType);
+        Mockito.when(msr.getProperty(ServletResolverConstants.SLING_SERVLET_METHODS))
+            .thenReturn("GET");
+        return msr;
+    }
+
+    private static Servlet blockingServlet(final CountDownLatch initStarted, final CountDownLatch initContinue) throws ServletException {
+        final Servlet servlet = Mockito.mock(Servlet.class);
+        Mockito.doAnswer(new Answer<Void>() {
+
+            @Override
+            public Void answer(final InvocationOnMock invocation) throws Throwable {
+                initStarted.countDown();
+                initContinue.await();
+                return null;
+            }
+        }).when(servlet).init(Mockito.any(ServletConfig.class));
+        return servlet;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test public void testLazyInitialization() throws Throwable {
+        final BundleContext bundleContext = Mockito.mock(BundleContext.class);
+        final ServiceRegistration<?> reg = Mockito.mock(ServiceRegistration.class);
+        final ArgumentCaptor<Object> providerCaptor = ArgumentCaptor.forClass(Object.class);
+        Mockito.when(bundleContext.registerService(Mockito.anyString(), providerCaptor.capture(), Mockito.any(Dictionary.class)))
+            .thenReturn((ServiceRegistration) reg);
+        final Bundle bundle = Mockito.mock(Bundle.class);
+        Mockito.when(bundle.getBundleContext()).thenReturn(bundleContext);
+
+        final ServiceReference<Servlet> msr = Mockito.mock(ServiceReference.class);
+        Mockito.when(msr.getBundle()).thenReturn(bundle);
+        Mockito.when(msr.getProperty(ServletResolverConstants.SLING_SERVLET_RESOURCE_TYPES))
+            .thenReturn("sample");
+        Mockito.when(msr.getProperty(ServletResolverConstants.SLING_SERVLET_METHODS))
+            .thenReturn("GET");
+        Mockito.when(msr.getProperty(ServletMounter.SLING_SERVLET_LAZY_INIT))
+            .thenReturn(Boolean.TRUE);
+
+        final Servlet servlet = Mockito.mock(Servlet.class);
+        mounter.bindServlet(servlet, msr);
+
+        // mounted, but not initialized yet
+        Mockito.verify(servlet, Mockito.never()).init(Mockito.any(ServletConfig.class));
+        assertEquals(1, mounter.getServletInitializations().size());
+        assertTrue(mounter.getServletInitializations().get(0).isLazy());
+        assertEquals(-1, mounter.getServletInitializations().get(0).getInitNanos());
+        final ServletResourceProvider provider = (ServletResourceProvider) providerCaptor.getValue();
+        final Resource resource = provider.getResource(Mockito.mock(ResolveContext.class), "/sample/GET.servlet", null, null);
+        assertNotNull(resource);
+
+        // initialized once on first use
+        assertEquals(servlet, resource.adaptTo(Servlet.class));
+        assertEquals(servlet, resource.adaptTo(Servlet.class));
+        Mockito.verify(servlet, Mockito.times(1)).init(Mockito.any(ServletConfig.class));
+        assertTrue(mounter.getServletInitializations().get(0).getInitNanos() >= 0);
+
+        mounter.unbindServlet(msr);
+        Mockito.verify(servlet).destroy();
+        assertNull(resource.adaptTo(Servlet.class));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test public void testFailedLazyInitialization() throws Throwable {
+        final BundleContext bundleContext = Mockito.mock(BundleContext.class);
+        final ArgumentCaptor<Object> providerCaptor = ArgumentCaptor.forClass(Object.class);
+        Mockito.when(bundleContext.registerService(Mockito.anyString(), providerCaptor.capture(), Mockito.any(Dictionary.class)))
+            .thenReturn((ServiceRegistration) Mockito.mock(ServiceRegistration.class));
+        final Bundle bundle = Mockito.mock(Bundle.class);
+        Mockito.when(bundle.getBundleContext()).thenReturn(bundleContext);
+
+        final ServiceReference<Servlet> msr = Mockito.mock(ServiceReference.class);
+        Mockito.when(msr.getBundle()).thenReturn(bundle);
+        Mockito.when(msr.getProperty(ServletResolverConstants.SLING_SERVLET_RESOURCE_TYPES))
+            .thenReturn("sample");
+        Mockito.when(msr.getProperty(ServletMounter.SLING_SERVLET_LAZY_INIT))
+            .thenReturn("true");
+
+        final Servlet servlet = Mockito.mock(Servlet.class);
+        Mockito.doThrow(new ServletException("failed")).when(servlet).init(Mockito.any(ServletConfig.class));
+        mounter.bindServlet(servlet, msr);
+
+        final ServletResourceProvider provider = (ServletResourceProvider) providerCaptor.getValue();
+        final Resource resource = provider.getResource(Mockito.mock(ResolveContext.class), "/sample/GET.servlet", null, null);
+
+        // a failed servlet does not adapt and is not initialized again
+        assertNull(resource.adaptTo(Servlet.class));
+        assertNull(resource.adaptTo(Servlet.class));
+        Mockito.verify(servlet, Mockito.times(1)).init(Mockito.any(ServletConfig.class));
+
+        mounter.unbindServlet(msr);
+        Mockito.verify(servlet, Mockito.never()).destroy();
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test public void testMergingProvider() throws Throwable {
+        final ResolverConfig config = Mockito.mock(ResolverConfig.class);
+        Mockito.when(config.servletresolver_servletRoot()).thenReturn("0");
+        Mockito.when(config.servletresolver_mountProviders()).thenReturn(false);
+        final ResourceResolverFactory factory = Mockito.mock(ResourceResolverFactory.class);
+        Mockito.when(factory.getSearchPath()).thenReturn(Collections.singletonList("/apps/"));
+
+        final BundleContext bundleContext = Mockito.mock(BundleContext.class);
+        final Bundle bundle = Mockito.mock(Bundle.class);
+        Mockito.when(bundle.getBundleContext()).thenReturn(bundleContext);
+
+        final ServletMounter mergingMounter = new ServletMounter(bundleContext, factory, null, new ResolutionCache(), config);
+        final ArgumentCaptor<MergingServletResourceProvider> providerCaptor = ArgumentCaptor.forClass(MergingServletResourceProvider.class);
+        Mockito.verify(bundleContext).registerService(Mockito.eq(MergingServletResourceProvider.class), providerCaptor.capture(),
+                Mockito.<Dictionary<String, ?>>any());
+        final MergingServletResourceProvider provider = providerCaptor.getValue();
+
+        final ServiceReference<Servlet> msr = Mockito.mock(ServiceReference.class);
+        Mockito.when(msr.getBundle()).thenReturn(bundle);
+        Mockito.when(msr.getProperty(ServletResolverConstants.SLING_SERVLET_RESOURCE_TYPES))
+            .thenReturn(new String[] {"a", "b"});
+        Mockito.when(msr.getProperty(ServletResolverConstants.SLING_SERVLET_SELECTORS))
+            .thenReturn(new String[] {"x", "y.z"});
+        Mockito.when(msr.getProperty(ServletResolverConstants.SLING_SERVLET_EXTENSIONS))
+            .thenReturn(new String[] {"html", "json"});
+        final Servlet servlet = Mockito.mock(Servlet.class);
+        mergingMounter.bindServlet(servlet, msr);
+
+        // not mounted, but available through the merging provider
+        Mockito.verify(bundleContext, Mockito.never()).registerService(Mockito.anyString(), Mockito.any(), Mockito.any(Dictionary.class));
+        final ResourceResolver resolver = Mockito.mock(ResourceResolver.class);
+        assertEquals(servlet, provider.getResource(resolver, "/apps/a/x.html.servlet").adaptTo(Servlet.class));
+        assertEquals(servlet, provider.getResource(resolver, "/apps/b/y/z.json.servlet").adaptTo(Servlet.class));
+        assertNull(provider.getResource(resolver, "/apps/a/html.servlet"));
+        assertNull(provider.getResource(resolver, "/apps/a/z.json.servlet"));
+        assertTrue(provider.hasChildren("/apps"));
+        assertTrue(provider.hasChildren("/apps/b/y"));
+        assertFalse(provider.hasChildren("/apps/b/x"));
+        assertFalse(provider.hasChildren("/apps/b/y/z"));
+        assertFalse(provider.hasChildren("/content"));
+
+        final Set<String> names = new HashSet<>();
+        for(final Resource child : provider.listChildren(resolver, "/apps/a")) {
+            names.add(child.getName());
+        }
+        assertEquals(new HashSet<>(Arrays.asList("x.html.servlet", "x.json.servlet", "y")), names);
+        names.clear();
+        for(final Resource child : provider.listChildren(resolver, "/apps")) {
+            names.add(child.getName());
+        }
+        assertEquals(new HashSet<>(Arrays.asList("a", "b")), names);
+        names.clear();
+        for(final Resource child : provider.listChildren(resolver, "/apps/b/y")) {
+            assertEquals(servlet, child.adaptTo(Servlet.class));
+            names.add(child.getName());
+        }
+        assertEquals(new HashSet<>(Arrays.asList("z.html.servlet", "z.json.servlet")), names);
+
+        mergingMounter.unbindServlet(msr);
+        Mockito.verify(servlet).destroy();
+        assertNull(provider.getResource(resolver, "/apps/a/x.html.servlet"));
+        assertTrue(provider.listChildren(resolver, "/apps/a").isEmpty());
+    }
 }
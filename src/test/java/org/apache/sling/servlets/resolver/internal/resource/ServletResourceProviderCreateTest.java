@@ -19,6 +19,7 @@
 package org.apache.sling.servlets.resolver.internal.resource;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
@@ -213,4 +214,35 @@ public class ServletResourceProviderCreateTest {
         assertEquals(TEST_SERVLET, servletResource.adaptTo(Servlet.class));
     }
 
+    @Test
+    public void testStructuralMatch() {
+        @SuppressWarnings("unchecked")
+        final ServiceReference<Servlet> msr = Mockito.mock(ServiceReference.class);
+        Mockito.when(msr.getProperty(Constants.SERVICE_ID)).thenReturn(1L);
+        Mockito.when(msr.getProperty(ServletResolverConstants.SLING_SERVLET_RESOURCE_TYPES))
+            .thenReturn(new String[] {RES_TYPE, "sling/sample/nested"});
+        Mockito.when(msr.getProperty(ServletResolverConstants.SLING_SERVLET_SELECTORS))
+            .thenReturn(new String[] {"", "print", "print.a4"});
+        Mockito.when(msr.getProperty(ServletResolverConstants.SLING_SERVLET_EXTENSIONS))
+            .thenReturn(new String[] {"html", "tar.gz"});
+        Mockito.when(msr.getProperty(ServletResolverConstants.SLING_SERVLET_METHODS))
+            .thenReturn(new String[] {"GET", "POST"});
+        Mockito.when(msr.getProperty(ServletResolverConstants.SLING_SERVLET_PATHS))
+            .thenReturn("/bin/sample");
+
+        final ServletResourceProvider srp = factory.create(msr, TEST_SERVLET);
+        final Set<String> paths = srp.getServletPaths();
+        assertEquals(2 + 2 * 3 * 2 * 2, paths.size());
+        for(final String path : paths) {
+            assertTrue(path, srp.isServletPath(path));
+        }
+        assertTrue(paths.contains(ROOT + RES_TYPE_PATH + "/print/a4.tar.gz.POST.servlet"));
+        assertFalse(srp.isServletPath(ROOT + RES_TYPE_PATH + "/a4.html.GET.servlet"));
+        assertFalse(srp.isServletPath(ROOT + RES_TYPE_PATH + "/print.gz.GET.servlet"));
+        assertFalse(srp.isServletPath(ROOT + RES_TYPE_PATH + "/print.html.PUT.servlet"));
+        assertFalse(srp.isServletPath(ROOT + RES_TYPE_PATH + "/print.html.GET"));
+        assertFalse(srp.isServletPath(ROOT + RES_TYPE_PATH + ".servlet"));
+        assertFalse(srp.isServletPath(ROOT + "sling/html.GET.servlet"));
+        assertFalse(srp.isServletPath("/bin/sample/html.GET.servlet"));
+    }
 }